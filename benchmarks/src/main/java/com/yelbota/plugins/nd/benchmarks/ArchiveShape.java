@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content layouts benchmarks run against. Sizes are multiplied by the
+ * `bench.scale` system property (1 by default).
+ */
+public enum ArchiveShape {
+
+    /** 5000 files of 1-8 KiB in 50 directories, typical headers tree. */
+    MANY_SMALL_FILES {
+        @Override
+        List<Entry> createEntries(int scale) {
+
+            List<Entry> entries = new ArrayList<Entry>();
+
+            for (int i = 0; i < 5000 * scale; i++) {
+                entries.add(Entry.file("include/dir-" + (i % 50) + "/header-" + i + ".h", 1024 + (i * 7919) % 7168));
+            }
+
+            return entries;
+        }
+    },
+
+    /** Two 32 MiB binaries and a small license, typical toolchain. */
+    HUGE_BINARIES {
+        @Override
+        List<Entry> createEntries(int scale) {
+
+            List<Entry> entries = new ArrayList<Entry>();
+            entries.add(Entry.file("bin/compiler", 32L * 1024 * 1024 * scale));
+            entries.add(Entry.file("lib/libruntime.so", 32L * 1024 * 1024 * scale));
+            entries.add(Entry.file("LICENSE", 4096));
+            return entries;
+        }
+    },
+
+    /** 40 levels deep tree with a few files at every level. */
+    DEEP_TREE {
+        @Override
+        List<Entry> createEntries(int scale) {
+
+            List<Entry> entries = new ArrayList<Entry>();
+
+            for (int branch = 0; branch < 10 * scale; branch++) {
+
+                StringBuilder path = new StringBuilder("sdk/branch-" + branch);
+
+                for (int depth = 0; depth < 40; depth++) {
+
+                    path.append("/level-").append(depth);
+
+                    for (int i = 0; i < 3; i++) {
+                        entries.add(Entry.file(path + "/file-" + i, 2048));
+                    }
+                }
+            }
+
+            return entries;
+        }
+    },
+
+    /** 500 libraries, each with four versioned symbolic links. */
+    SYMLINK_HEAVY {
+        @Override
+        List<Entry> createEntries(int scale) {
+
+            List<Entry> entries = new ArrayList<Entry>();
+
+            for (int i = 0; i < 500 * scale; i++) {
+
+                String name = "libfoo" + i + ".so";
+                entries.add(Entry.file("lib/" + name + ".1.2.3", 16 * 1024));
+                entries.add(Entry.symlink("lib/" + name + ".1.2", name + ".1.2.3"));
+                entries.add(Entry.symlink("lib/" + name + ".1", name + ".1.2"));
+                entries.add(Entry.symlink("lib/" + name, name + ".1"));
+                entries.add(Entry.symlink("lib64/" + name, "../lib/" + name));
+            }
+
+            return entries;
+        }
+    };
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    static class Entry {
+
+        final String name;
+        final long size;
+        final String linkTarget;
+
+        private Entry(String name, long size, String linkTarget) {
+            this.name = name;
+            this.size = size;
+            this.linkTarget = linkTarget;
+        }
+
+        static Entry file(String name, long size) {
+            return new Entry(name, size, null);
+        }
+
+        static Entry symlink(String name, String target) {
+            return new Entry(name, 0, target);
+        }
+
+        boolean isSymlink() {
+            return linkTarget != null;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Abstract methods
+    //
+    //-------------------------------------------------------------------------
+
+    abstract List<Entry> createEntries(int scale);
+}
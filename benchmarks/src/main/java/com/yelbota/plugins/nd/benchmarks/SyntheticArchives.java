@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.benchmarks;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds archives of {@link ArchiveShape}s once and keeps them in
+ * `target/bench-archives`, so repeated runs skip the slow compression.
+ */
+public class SyntheticArchives {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final String ZIP = "zip";
+    public static final String TAR_GZ = "tar.gz";
+    public static final String TAR_BZ2 = "tar.bz2";
+    public static final String TAR_XZ = "tar.xz";
+    public static final String TAR_ZST = "tar.zst";
+
+    private static final int CHUNK = 64 * 1024;
+
+    /** Block size of multi-threaded xz, so parallel decoding applies. */
+    private static final int XZ_BLOCK = 8 * 1024 * 1024;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    public static File get(ArchiveShape shape, String format) throws IOException {
+
+        int scale = Integer.getInteger("bench.scale", 1);
+        File directory = new File("target/bench-archives");
+        File archive = new File(directory, shape.name().toLowerCase() + "-x" + scale + "." + format);
+
+        if (archive.isFile()) {
+            return archive;
+        }
+
+        Files.createDirectories(directory.toPath());
+        File temporary = new File(directory, archive.getName() + ".tmp");
+        List<ArchiveShape.Entry> entries = shape.createEntries(scale);
+
+        if (ZIP.equals(format)) {
+            writeZip(entries, temporary);
+        } else {
+            writeTar(entries, temporary, format);
+        }
+
+        Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return archive;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private static void writeZip(List<ArchiveShape.Entry> entries, File file) throws IOException {
+
+        ZipArchiveOutputStream zip = new ZipArchiveOutputStream(file);
+        Random random = new Random(42);
+
+        try {
+            for (ArchiveShape.Entry entry : entries) {
+
+                ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.name);
+
+                if (entry.isSymlink()) {
+                    zipEntry.setUnixMode(0120777);
+                    zip.putArchiveEntry(zipEntry);
+                    zip.write(entry.linkTarget.getBytes("UTF-8"));
+                } else {
+                    zipEntry.setUnixMode(0100755);
+                    zip.putArchiveEntry(zipEntry);
+                    writeContent(zip, entry.size, random);
+                }
+
+                zip.closeArchiveEntry();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void writeTar(List<ArchiveShape.Entry> entries, File file, String format) throws IOException {
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), CHUNK);
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(compress(out, format));
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        Random random = new Random(42);
+        Set<String> directories = new HashSet<String>();
+
+        try {
+            for (ArchiveShape.Entry entry : entries) {
+
+                writeParents(tar, entry.name, directories);
+
+                if (entry.isSymlink()) {
+                    TarArchiveEntry link = new TarArchiveEntry(entry.name, TarArchiveEntry.LF_SYMLINK);
+                    link.setLinkName(entry.linkTarget);
+                    tar.putArchiveEntry(link);
+                } else {
+                    TarArchiveEntry tarEntry = new TarArchiveEntry(entry.name);
+                    tarEntry.setSize(entry.size);
+                    tarEntry.setMode(0100755);
+                    tar.putArchiveEntry(tarEntry);
+                    writeContent(tar, entry.size, random);
+                }
+
+                tar.closeArchiveEntry();
+            }
+        } finally {
+            tar.close();
+        }
+    }
+
+    private static void writeParents(TarArchiveOutputStream tar, String name,
+                                     Set<String> directories) throws IOException {
+
+        int slash = name.lastIndexOf('/');
+
+        if (slash < 0 || !directories.add(name.substring(0, slash + 1))) {
+            return;
+        }
+
+        writeParents(tar, name.substring(0, slash), directories);
+        tar.putArchiveEntry(new TarArchiveEntry(name.substring(0, slash + 1)));
+        tar.closeArchiveEntry();
+    }
+
+    private static OutputStream compress(OutputStream out, String format) throws IOException {
+
+        if (TAR_GZ.equals(format)) {
+            return new GZIPOutputStream(out, CHUNK);
+        } else if (TAR_BZ2.equals(format)) {
+            return new BZip2CompressorOutputStream(out);
+        } else if (TAR_XZ.equals(format)) {
+            return new BlockingXZOutputStream(out);
+        } else if (TAR_ZST.equals(format)) {
+            return new ZstdOutputStream(out, 3);
+        }
+
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+
+    /**
+     * Compressible pseudo-random bytes, about 2:1 like typical binaries.
+     */
+    private static void writeContent(OutputStream out, long size, Random random) throws IOException {
+
+        byte[] chunk = new byte[CHUNK];
+
+        for (long written = 0; written < size; ) {
+
+            int count = (int) Math.min(chunk.length, size - written);
+
+            for (int i = 0; i < count; i++) {
+                chunk[i] = (byte) (random.nextInt(16) * 17);
+            }
+
+            out.write(chunk, 0, count);
+            written += count;
+        }
+    }
+
+    /**
+     * Starts a new xz block every {@link #XZ_BLOCK} bytes like `xz -T`.
+     */
+    private static class BlockingXZOutputStream extends FilterOutputStream {
+
+        private final XZOutputStream xz;
+
+        private long blockWritten;
+
+        BlockingXZOutputStream(OutputStream out) throws IOException {
+            this(new XZOutputStream(out, new LZMA2Options(6)));
+        }
+
+        private BlockingXZOutputStream(XZOutputStream xz) {
+            super(xz);
+            this.xz = xz;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            while (len > 0) {
+
+                int count = (int) Math.min(len, XZ_BLOCK - blockWritten);
+                xz.write(b, off, count);
+                off += count;
+                len -= count;
+                blockWritten += count;
+
+                if (blockWritten == XZ_BLOCK) {
+                    xz.endBlock();
+                    blockWritten = 0;
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+    }
+}
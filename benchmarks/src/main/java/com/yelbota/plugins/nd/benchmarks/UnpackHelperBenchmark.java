@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.benchmarks;
+
+import com.yelbota.plugins.nd.UnpackHelper;
+import com.yelbota.plugins.nd.utils.DefaultUnpackMethods;
+import com.yelbota.plugins.nd.utils.FileTrees;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link UnpackHelper#unpack} when the directory is already
+ * unpacked, which every build pays for every native dependency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class UnpackHelperBenchmark {
+
+    @Param({"MANY_SMALL_FILES", "SYMLINK_HEAVY"})
+    public ArchiveShape shape;
+
+    private final UnpackHelper unpackHelper = new UnpackHelper();
+
+    private DefaultUnpackMethods unpackMethods;
+
+    private DefaultArtifact artifact;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void unpackOnce() throws Exception {
+
+        unpackMethods = new DefaultUnpackMethods(new ConsoleLogger(Logger.LEVEL_ERROR, "bench"));
+        artifact = new DefaultArtifact("bench", "sdk", "1.0", null, "tar.gz", "linux",
+                new DefaultArtifactHandler("tar.gz"));
+        artifact.setFile(SyntheticArchives.get(shape, SyntheticArchives.TAR_GZ));
+        directory = Files.createTempDirectory("unpack-helper-bench").toFile();
+        unpackHelper.unpack(directory, artifact, unpackMethods);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        FileTrees.delete(directory.toPath());
+    }
+
+    @Benchmark
+    public File alreadyUnpacked() throws Exception {
+        unpackHelper.unpack(directory, artifact, unpackMethods);
+        return directory;
+    }
+}
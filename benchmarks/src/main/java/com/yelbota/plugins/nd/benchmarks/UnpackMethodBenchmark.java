@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.benchmarks;
+
+import com.yelbota.plugins.nd.utils.DefaultUnpackMethods;
+import com.yelbota.plugins.nd.utils.FileTrees;
+import com.yelbota.plugins.nd.utils.UnpackMethod;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to unpack a whole archive into an empty directory, for every
+ * registered unpack method and archive shape. Run with `-prof gc` to see
+ * allocation per unpack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UnpackMethodBenchmark {
+
+    /**
+     * Key in {@link DefaultUnpackMethods}.
+     */
+    @Param({"zip", DefaultUnpackMethods.PARALLEL_ZIP, "tar.gz", "tar.bz2", "tar.xz", "tar.zst"})
+    public String method;
+
+    @Param({"MANY_SMALL_FILES", "HUGE_BINARIES", "DEEP_TREE", "SYMLINK_HEAVY"})
+    public ArchiveShape shape;
+
+    private UnpackMethod unpackMethod;
+
+    private File archive;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+
+        DefaultUnpackMethods unpackMethods = new DefaultUnpackMethods(new ConsoleLogger(Logger.LEVEL_ERROR, "bench"));
+        unpackMethod = unpackMethods.get(method);
+        archive = SyntheticArchives.get(shape, method.equals(DefaultUnpackMethods.PARALLEL_ZIP) ? SyntheticArchives.ZIP : method);
+    }
+
+    @Setup(Level.Iteration)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("unpack-bench").toFile();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDirectory() throws IOException {
+        FileTrees.delete(directory.toPath());
+    }
+
+    @Benchmark
+    public File unpack() throws Exception {
+        unpackMethod.unpack(archive, directory);
+        return directory;
+    }
+}
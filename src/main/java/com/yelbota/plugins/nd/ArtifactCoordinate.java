@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+/**
+ * Maven coordinate of a native dependency artifact. Classifier may be null.
+ */
+public class ArtifactCoordinate {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+    private final String packaging;
+    private final String classifier;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ArtifactCoordinate(String groupId, String artifactId, String version,
+                              String packaging, String classifier) {
+
+        if (groupId == null || artifactId == null || version == null || packaging == null) {
+            throw new IllegalArgumentException("groupId, artifactId, version and packaging are required");
+        }
+
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.packaging = packaging;
+        this.classifier = classifier;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getPackaging() {
+        return packaging;
+    }
+
+    public String getClassifier() {
+        return classifier;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Object
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof ArtifactCoordinate)) {
+            return false;
+        }
+
+        ArtifactCoordinate that = (ArtifactCoordinate) o;
+
+        return groupId.equals(that.groupId)
+                && artifactId.equals(that.artifactId)
+                && version.equals(that.version)
+                && packaging.equals(that.packaging)
+                && (classifier == null ? that.classifier == null : classifier.equals(that.classifier));
+    }
+
+    @Override
+    public int hashCode() {
+
+        int result = groupId.hashCode();
+        result = 31 * result + artifactId.hashCode();
+        result = 31 * result + version.hashCode();
+        result = 31 * result + packaging.hashCode();
+        result = 31 * result + (classifier != null ? classifier.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return groupId + ":" + artifactId + ":" + packaging
+                + (classifier != null ? ":" + classifier : "") + ":" + version;
+    }
+}
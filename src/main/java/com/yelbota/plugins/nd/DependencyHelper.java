@@ -15,14 +15,42 @@
  */
 package com.yelbota.plugins.nd;
 
+import com.yelbota.plugins.nd.utils.LengthCheckedInputStream;
+import com.yelbota.plugins.nd.utils.NamedThreadFactory;
+import com.yelbota.plugins.nd.utils.StreamUnpackMethod;
+import com.yelbota.plugins.nd.utils.UnpackMethod;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.repository.RepositorySystem;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author Aleksey Fomkin
@@ -39,6 +67,24 @@ public abstract class DependencyHelper {
     public static final String OS_CLASSIFIER_WINDOWS = "windows";
     public static final String OS_CLASSIFIER_LINUX = "linux";
 
+    /**
+     * Default number of artifacts resolved at once by {@link #resolveAll}.
+     */
+    public static final int DEFAULT_RESOLVE_THREADS = 4;
+
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 60 * 1000;
+
+    /**
+     * Prefetches started in this JVM by target directory and artifact, so
+     * they are found by helpers of later mojos.
+     */
+    private static final ConcurrentMap<String, Future<Artifact>> PREFETCHES =
+            new ConcurrentHashMap<String, Future<Artifact>>();
+
+    private static final ExecutorService PREFETCH_EXECUTOR =
+            Executors.newCachedThreadPool(new NamedThreadFactory("native-prefetch"));
+
     //-------------------------------------------------------------------------
     //
     //  Inner classes
@@ -55,6 +101,106 @@ public abstract class DependencyHelper {
         }
     }
 
+    /**
+     * Thrown by {@link #resolveAll} when some of the artifacts were not
+     * resolved. Successfully resolved ones are available too.
+     */
+    public class BatchResolutionException extends MojoFailureException {
+
+        private final Map<ArtifactCoordinate, Artifact> resolved;
+
+        private final Map<ArtifactCoordinate, MojoFailureException> failures;
+
+        public BatchResolutionException(Map<ArtifactCoordinate, Artifact> resolved,
+                                        Map<ArtifactCoordinate, MojoFailureException> failures) {
+            super(buildMessage(failures));
+            this.resolved = Collections.unmodifiableMap(resolved);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        public Map<ArtifactCoordinate, Artifact> getResolved() {
+            return resolved;
+        }
+
+        /**
+         * @return failure of every unresolved artifact, usually an
+         * {@link ArtifactResolutionException} with the resolution result.
+         */
+        public Map<ArtifactCoordinate, MojoFailureException> getFailures() {
+            return failures;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private UnpackListener listener;
+
+    private ResolutionCache resolutionCache;
+
+    private RangeDownloader rangeDownloader;
+
+    private RepositoryRacer repositoryRacer;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public UnpackListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener notified with time of every resolution from repositories, may be null.
+     */
+    public void setListener(UnpackListener listener) {
+        this.listener = listener;
+    }
+
+    public ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    /**
+     * When set, artifacts found there are not resolved from repositories
+     * again. Null (default) resolves every time.
+     */
+    public void setResolutionCache(ResolutionCache resolutionCache) {
+        this.resolutionCache = resolutionCache;
+    }
+
+    public RangeDownloader getRangeDownloader() {
+        return rangeDownloader;
+    }
+
+    /**
+     * When set, large release artifacts missing in the local repository
+     * are downloaded in parallel byte ranges from the first http(s)
+     * repository having them, before the regular resolution. Null (default)
+     * leaves downloads to the repository system.
+     */
+    public void setRangeDownloader(RangeDownloader rangeDownloader) {
+        this.rangeDownloader = rangeDownloader;
+    }
+
+    public RepositoryRacer getRepositoryRacer() {
+        return repositoryRacer;
+    }
+
+    /**
+     * When set, artifacts missing in the local repository are looked up in
+     * all remote repositories at once and downloaded from the first one
+     * answering. Null (default) tries repositories in configured order.
+     */
+    public void setRepositoryRacer(RepositoryRacer repositoryRacer) {
+        this.repositoryRacer = repositoryRacer;
+    }
+
     //-------------------------------------------------------------------------
     //
     //  Protected methods
@@ -100,31 +246,15 @@ public abstract class DependencyHelper {
                             ArtifactRepository localRepository,
                             List<ArtifactRepository> remoteRepositories) throws MojoFailureException {
 
-        Artifact artifact = null;
-
-        if (pluginArtifacts != null) {
-
-            // Lookup plugin artifacts.
-            for (Artifact pluginArtifact : pluginArtifacts) {
-
-                boolean eqGroupId = pluginArtifact.getGroupId().equals(getDefaultGroupId());
-                boolean eqArtifactId = pluginArtifact.getArtifactId().equals(getDefaultArtifactId());
-
-                if (eqGroupId && eqArtifactId) {
-
-                    artifact = pluginArtifact;
-                    break;
-                }
-            }
-        }
+        // Lookup plugin artifacts.
+        Artifact artifact = findPluginArtifact(pluginArtifacts, getDefaultGroupId(), getDefaultArtifactId());
 
         if (artifact != null) {
             return artifact;
         } else {
             // Okay. Lets download sdk
             if (repositorySystem != null) {
-                artifact = repositorySystem.createArtifactWithClassifier(
-
+                ArtifactCoordinate coordinate = new ArtifactCoordinate(
                         getDefaultGroupId(),
                         getDefaultArtifactId(),
                         getDefaultVersion(),
@@ -132,23 +262,561 @@ public abstract class DependencyHelper {
                         getDefaultClassifier()
                 );
 
-                ArtifactResolutionRequest request = new ArtifactResolutionRequest();
+                artifact = resolve(coordinate, repositorySystem, localRepository, remoteRepositories);
+            }
+
+            return artifact;
+        }
+    }
+
+    /**
+     * Resolves native dependency artifact like {@link #resolve} and unpacks
+     * it to `directory`. When the artifact is neither a plugin dependency nor
+     * in the local repository and its unpack method is a
+     * {@link StreamUnpackMethod}, it is fetched from the first remote
+     * repository having it and extracted while downloading; the archive is
+     * still stored to the local repository. Only release artifacts are
+     * streamed, and only when every remote repository is an http(s) or file
+     * repository without authentication or proxy; otherwise the repository
+     * system, which applies them, resolves the artifact as usual.
+     *
+     * <p>When the same artifact is being prefetched into `directory`, see
+     * {@link #prefetch}, this waits for the prefetch instead.</p>
+     *
+     * @return Native dependency artifact
+     */
+    public Artifact resolveAndUnpack(List<Artifact> pluginArtifacts, RepositorySystem repositorySystem,
+                                     ArtifactRepository localRepository,
+                                     List<ArtifactRepository> remoteRepositories,
+                                     File directory, UnpackHelper unpackHelper,
+                                     Map<String, UnpackMethod> unpackMethods,
+                                     Log log) throws MojoFailureException {
+
+        Artifact prefetched = awaitPrefetch(directory, log);
+
+        if (prefetched != null) {
+            return prefetched;
+        }
+
+        return resolveAndUnpackNow(pluginArtifacts, repositorySystem, localRepository, remoteRepositories,
+                directory, unpackHelper, unpackMethods, log);
+    }
+
+    /**
+     * Starts {@link #resolveAndUnpack} on a background thread and returns at
+     * once. Meant for a light goal bound to an early phase such as
+     * `validate`: a later {@link #resolveAndUnpack} of the same artifact
+     * into the same directory, by any helper in this JVM, only waits for
+     * what is left. A failed prefetch is not reported; the later call
+     * resolves again and reports its own failure.
+     *
+     * @return false if the same prefetch was already started.
+     */
+    public boolean prefetch(final List<Artifact> pluginArtifacts, final RepositorySystem repositorySystem,
+                            final ArtifactRepository localRepository,
+                            final List<ArtifactRepository> remoteRepositories,
+                            final File directory, final UnpackHelper unpackHelper,
+                            final Map<String, UnpackMethod> unpackMethods,
+                            final Log log) throws MojoFailureException {
+
+        FutureTask<Artifact> task = new FutureTask<Artifact>(new Callable<Artifact>() {
+            @Override
+            public Artifact call() throws MojoFailureException {
+                return resolveAndUnpackNow(pluginArtifacts, repositorySystem, localRepository, remoteRepositories,
+                        directory, unpackHelper, unpackMethods, log);
+            }
+        });
+
+        if (PREFETCHES.putIfAbsent(getPrefetchKey(directory), task) != null) {
+            return false;
+        }
+
+        if (log != null) log.info("prefetching " + getDefaultArtifactId() + " into " + directory);
+        PREFETCH_EXECUTOR.execute(task);
+        return true;
+    }
+
+    private Artifact resolveAndUnpackNow(List<Artifact> pluginArtifacts, RepositorySystem repositorySystem,
+                                         ArtifactRepository localRepository,
+                                         List<ArtifactRepository> remoteRepositories,
+                                         File directory, UnpackHelper unpackHelper,
+                                         Map<String, UnpackMethod> unpackMethods,
+                                         Log log) throws MojoFailureException {
+
+        boolean streamed = false;
+
+        if (repositorySystem != null && localRepository != null && localRepository.getBasedir() != null
+                && findPluginArtifact(pluginArtifacts, getDefaultGroupId(), getDefaultArtifactId()) == null
+                && unpackMethods.get(getDefaultPackaging()) instanceof StreamUnpackMethod) {
 
-                request.setArtifact(artifact);
-                request.setLocalRepository(localRepository);
-                request.setRemoteRepositories(remoteRepositories);
+            Artifact artifact = repositorySystem.createArtifactWithClassifier(
+                    getDefaultGroupId(),
+                    getDefaultArtifactId(),
+                    getDefaultVersion(),
+                    getDefaultPackaging(),
+                    getDefaultClassifier()
+            );
 
-                ArtifactResolutionResult resolutionResult = repositorySystem.resolve(request);
+            File localFile = new File(localRepository.getBasedir(), localRepository.pathOf(artifact));
 
-                if (!resolutionResult.isSuccess()) {
+            if (!artifact.isSnapshot() && !localFile.exists()) {
 
-                    String message = "Failed to resolve artifact " + artifact;
-                    throw new ArtifactResolutionException(message, resolutionResult);
+                InputStream download = openRemote(artifact,
+                        orderRepositories(artifact, localRepository, remoteRepositories), localFile, log);
+
+                if (download != null) {
+                    artifact.setFile(localFile);
+                    unpackHelper.unpack(directory, artifact, download, unpackMethods, log);
+                    streamed = true;
                 }
             }
+        }
+
+        // Archive is in local repository now, this doesn't download it again.
+        Artifact artifact = resolve(pluginArtifacts, repositorySystem, localRepository, remoteRepositories);
+
+        if (!streamed) {
+            unpackHelper.unpack(directory, artifact, unpackMethods, log);
+        }
+
+        return artifact;
+    }
+
+    public Map<ArtifactCoordinate, Artifact> resolveAll(List<ArtifactCoordinate> coordinates,
+                                                        List<Artifact> pluginArtifacts,
+                                                        RepositorySystem repositorySystem,
+                                                        ArtifactRepository localRepository,
+                                                        List<ArtifactRepository> remoteRepositories) throws MojoFailureException {
+
+        return resolveAll(coordinates, pluginArtifacts, repositorySystem, localRepository, remoteRepositories,
+                DEFAULT_RESOLVE_THREADS);
+    }
+
+    /**
+     * Resolves many artifacts at once. Duplicate coordinates are resolved
+     * once. Artifacts found in plugin dependencies (by groupId and
+     * artifactId) are used as is, others are resolved from repositories on
+     * up to `threads` threads.
+     *
+     * @return resolved artifacts in order of `coordinates`
+     * @throws BatchResolutionException when some artifacts are not resolved
+     */
+    public Map<ArtifactCoordinate, Artifact> resolveAll(List<ArtifactCoordinate> coordinates,
+                                                        List<Artifact> pluginArtifacts,
+                                                        final RepositorySystem repositorySystem,
+                                                        final ArtifactRepository localRepository,
+                                                        final List<ArtifactRepository> remoteRepositories,
+                                                        int threads) throws MojoFailureException {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        Map<ArtifactCoordinate, Artifact> resolved = new LinkedHashMap<ArtifactCoordinate, Artifact>();
+        Map<ArtifactCoordinate, MojoFailureException> failures = new LinkedHashMap<ArtifactCoordinate, MojoFailureException>();
+        List<ArtifactCoordinate> downloads = new ArrayList<ArtifactCoordinate>();
+
+        for (ArtifactCoordinate coordinate : new LinkedHashSet<ArtifactCoordinate>(coordinates)) {
+
+            Artifact artifact = findPluginArtifact(pluginArtifacts, coordinate.getGroupId(), coordinate.getArtifactId());
+
+            if (artifact != null) {
+                resolved.put(coordinate, artifact);
+            } else if (repositorySystem == null) {
+                resolved.put(coordinate, null);
+            } else {
+                downloads.add(coordinate);
+            }
+        }
+
+        if (!downloads.isEmpty()) {
+
+            int poolSize = Math.min(threads, downloads.size());
+            ExecutorService executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("artifact-resolve"));
+
+            try {
+                Map<ArtifactCoordinate, Future<Artifact>> futures = new LinkedHashMap<ArtifactCoordinate, Future<Artifact>>();
+
+                for (final ArtifactCoordinate coordinate : downloads) {
+                    futures.put(coordinate, executor.submit(new Callable<Artifact>() {
+                        @Override
+                        public Artifact call() throws Exception {
+                            return resolve(coordinate, repositorySystem, localRepository, remoteRepositories);
+                        }
+                    }));
+                }
+
+                for (Map.Entry<ArtifactCoordinate, Future<Artifact>> entry : futures.entrySet()) {
+                    try {
+                        resolved.put(entry.getKey(), entry.getValue().get());
+                    } catch (ExecutionException e) {
+                        failures.put(entry.getKey(), toMojoFailure(entry.getKey(), e.getCause()));
+                    }
+                }
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new MojoFailureException("Interrupted while resolving artifacts");
+
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new BatchResolutionException(resolved, failures);
+        }
+
+        // Keep order of requested coordinates.
+        Map<ArtifactCoordinate, Artifact> result = new LinkedHashMap<ArtifactCoordinate, Artifact>();
+
+        for (ArtifactCoordinate coordinate : coordinates) {
+            result.put(coordinate, resolved.get(coordinate));
+        }
+
+        return result;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private Artifact resolve(ArtifactCoordinate coordinate, RepositorySystem repositorySystem,
+                             ArtifactRepository localRepository,
+                             List<ArtifactRepository> remoteRepositories) throws ArtifactResolutionException {
+
+        Artifact artifact = repositorySystem.createArtifactWithClassifier(
+
+                coordinate.getGroupId(),
+                coordinate.getArtifactId(),
+                coordinate.getVersion(),
+                coordinate.getPackaging(),
+                coordinate.getClassifier()
+        );
+
+        long started = System.nanoTime();
+        File cached = getCached(coordinate, localRepository);
+
+        if (cached != null) {
+
+            artifact.setFile(cached);
+            artifact.setResolved(true);
+
+            if (listener != null) {
+                listener.artifactResolved(UnpackHelper.getSource(artifact), System.nanoTime() - started);
+            }
 
             return artifact;
         }
+
+        remoteRepositories = orderRepositories(artifact, localRepository, remoteRepositories);
+
+        if (rangeDownloader != null) {
+            // Regular resolution finds the file in local repository then.
+            downloadRanges(artifact, localRepository, remoteRepositories);
+        }
+
+        ArtifactResolutionRequest request = new ArtifactResolutionRequest();
+
+        request.setArtifact(artifact);
+        request.setLocalRepository(localRepository);
+        request.setRemoteRepositories(remoteRepositories);
+
+        ArtifactResolutionResult resolutionResult = repositorySystem.resolve(request);
+
+        if (listener != null) {
+            listener.artifactResolved(UnpackHelper.getSource(artifact), System.nanoTime() - started);
+        }
+
+        if (!resolutionResult.isSuccess()) {
+
+            String message = "Failed to resolve artifact " + artifact;
+            throw new ArtifactResolutionException(message, resolutionResult);
+        }
+
+        putCached(coordinate, localRepository, artifact.getFile());
+        return artifact;
+    }
+
+    private File getCached(ArtifactCoordinate coordinate, ArtifactRepository localRepository) {
+
+        if (resolutionCache == null) {
+            return null;
+        }
+
+        try {
+            return resolutionCache.get(coordinate, localRepository);
+        } catch (IOException e) {
+            // Unreadable cache is not a reason to fail, resolve as usual.
+            return null;
+        }
+    }
+
+    private void putCached(ArtifactCoordinate coordinate, ArtifactRepository localRepository, File file) {
+
+        if (resolutionCache == null) {
+            return;
+        }
+
+        try {
+            resolutionCache.put(coordinate, localRepository, file);
+        } catch (IOException e) {
+            // Next build resolves from repositories again.
+        }
+    }
+
+    /**
+     * `.sha1` file of the artifact is stored next to `localFile`, so the
+     * download can be checked before it is stored. Stream fails at its end
+     * when it is shorter or longer than the announced Content-Length.
+     *
+     * @return stream of `artifact` from the first repository having it, or null.
+     */
+    private static InputStream openRemote(Artifact artifact, List<ArtifactRepository> remoteRepositories,
+                                          File localFile, Log log) {
+
+        if (!canFetchDirectly(remoteRepositories, log)) {
+            return null;
+        }
+
+        for (ArtifactRepository repository : remoteRepositories) {
+
+            String location = getLocation(repository, artifact);
+
+            try {
+                URLConnection connection = new URL(location).openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                connection.setReadTimeout(READ_TIMEOUT);
+
+                if (connection instanceof HttpURLConnection
+                        && ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    ((HttpURLConnection) connection).disconnect();
+                    continue;
+                }
+
+                storeChecksum(location + ".sha1", new File(localFile.getPath() + ".sha1"), log);
+
+                if (log != null) log.info("streaming " + location);
+                long length = connection.getContentLengthLong();
+                InputStream in = connection.getInputStream();
+                return length >= 0 ? new LengthCheckedInputStream(in, length) : in;
+
+            } catch (IOException e) {
+                if (log != null) log.debug("can't stream " + location + ": " + e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return artifact of a finished prefetch into `directory`, null if
+     * there was none or it failed.
+     */
+    private Artifact awaitPrefetch(File directory, Log log) throws MojoFailureException {
+
+        String key = getPrefetchKey(directory);
+        Future<Artifact> prefetch = PREFETCHES.get(key);
+
+        if (prefetch == null) {
+            return null;
+        }
+
+        if (!prefetch.isDone() && log != null) log.info("waiting for prefetch into " + directory);
+
+        try {
+            return prefetch.get();
+        } catch (ExecutionException e) {
+            if (log != null) log.warn("prefetch into " + directory + " failed, trying again: " + e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while waiting for prefetch into " + directory);
+        } finally {
+            if (prefetch.isDone()) {
+                PREFETCHES.remove(key, prefetch);
+            }
+        }
+    }
+
+    private String getPrefetchKey(File directory) throws MojoFailureException {
+        return directory.getAbsolutePath() + "|" + getDefaultGroupId() + ":" + getDefaultArtifactId() + ":"
+                + getDefaultPackaging() + ":" + getDefaultClassifier() + ":" + getDefaultVersion();
+    }
+
+    private void downloadRanges(Artifact artifact, ArtifactRepository localRepository,
+                                List<ArtifactRepository> remoteRepositories) {
+
+        if (localRepository == null || localRepository.getBasedir() == null || artifact.isSnapshot()
+                || !canFetchDirectly(remoteRepositories, null)) {
+            return;
+        }
+
+        File localFile = new File(localRepository.getBasedir(), localRepository.pathOf(artifact));
+
+        if (localFile.exists()) {
+            return;
+        }
+
+        for (ArtifactRepository repository : remoteRepositories) {
+
+            String location = getLocation(repository, artifact);
+
+            if (location.startsWith("file:")) {
+                continue;
+            }
+
+            try {
+                if (rangeDownloader.download(location, localFile)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Repository system downloads it the usual way.
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return `remoteRepositories` with the fastest having `artifact` first,
+     * unchanged when there is no racer or nothing to download.
+     */
+    private List<ArtifactRepository> orderRepositories(Artifact artifact, ArtifactRepository localRepository,
+                                                       List<ArtifactRepository> remoteRepositories) {
+
+        if (repositoryRacer == null || remoteRepositories == null || localRepository == null
+                || localRepository.getBasedir() != null
+                && new File(localRepository.getBasedir(), localRepository.pathOf(artifact)).exists()) {
+            return remoteRepositories;
+        }
+
+        return repositoryRacer.order(artifact, remoteRepositories);
+    }
+
+    /**
+     * Authentication and proxies configured for a repository, like wagon
+     * protocols, are applied by the repository system only. When any
+     * repository needs one, artifacts aren't fetched bypassing it, so the
+     * order and settings of repositories are kept.
+     *
+     * @return true if every repository of `remoteRepositories` is an
+     * http(s) or file repository without authentication or proxy.
+     */
+    static boolean canFetchDirectly(List<ArtifactRepository> remoteRepositories, Log log) {
+
+        if (remoteRepositories == null) {
+            return false;
+        }
+
+        for (ArtifactRepository repository : remoteRepositories) {
+            if (!isDirect(repository)) {
+                if (log != null) log.debug(repository.getId() + " needs the repository system, not streaming");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return URL of `artifact` in `repository`, null unless it is an
+     * http(s) or file repository without authentication or proxy.
+     */
+    static String getLocation(ArtifactRepository repository, Artifact artifact) {
+
+        if (!isDirect(repository)) {
+            return null;
+        }
+
+        String url = repository.getUrl();
+        return (url.endsWith("/") ? url : url + "/") + repository.pathOf(artifact);
+    }
+
+    private static boolean isDirect(ArtifactRepository repository) {
+
+        String url = repository.getUrl();
+
+        return url != null && repository.getAuthentication() == null && repository.getProxy() == null
+                && (url.startsWith("http:") || url.startsWith("https:") || url.startsWith("file:"));
+    }
+
+    private static void storeChecksum(String location, File file, Log log) {
+
+        try {
+            URLConnection connection = new URL(location).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+
+            if (connection instanceof HttpURLConnection
+                    && ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK) {
+                ((HttpURLConnection) connection).disconnect();
+                // Checksum left from an earlier artifact would fail this download.
+                Files.deleteIfExists(file.toPath());
+                return;
+            }
+
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("could not create directory: " + parent);
+            }
+
+            Path temporary = new File(parent, file.getName() + "." + UUID.randomUUID() + ".part").toPath();
+            InputStream in = connection.getInputStream();
+
+            try {
+                Files.copy(in, temporary);
+                Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                in.close();
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            // Download is unpacked unchecked then.
+            if (log != null) log.debug("can't fetch " + location + ": " + e);
+        }
+    }
+
+    private static Artifact findPluginArtifact(List<Artifact> pluginArtifacts, String groupId, String artifactId) {
+
+        if (pluginArtifacts != null) {
+
+            for (Artifact pluginArtifact : pluginArtifacts) {
+
+                boolean eqGroupId = pluginArtifact.getGroupId().equals(groupId);
+                boolean eqArtifactId = pluginArtifact.getArtifactId().equals(artifactId);
+
+                if (eqGroupId && eqArtifactId) {
+                    return pluginArtifact;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static MojoFailureException toMojoFailure(ArtifactCoordinate coordinate, Throwable cause) {
+
+        if (cause instanceof MojoFailureException) {
+            return (MojoFailureException) cause;
+        }
+
+        MojoFailureException failure = new MojoFailureException("Failed to resolve artifact " + coordinate);
+        failure.initCause(cause);
+        return failure;
+    }
+
+    private static String buildMessage(Map<ArtifactCoordinate, MojoFailureException> failures) {
+
+        StringBuilder message = new StringBuilder("Failed to resolve " + failures.size() + " artifact(s):");
+
+        for (Map.Entry<ArtifactCoordinate, MojoFailureException> entry : failures.entrySet()) {
+            message.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue().getMessage());
+        }
+
+        return message.toString();
     }
 
     //-------------------------------------------------------------------------
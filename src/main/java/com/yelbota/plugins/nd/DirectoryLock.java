@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on an unpack directory, held across threads of this JVM
+ * (`mvn -T`) and across processes. File lock is taken on a `.name.lock` file
+ * next to the directory, so the directory itself may be renamed into place
+ * while the lock is held. Lock files are left behind on purpose: deleting
+ * them would let two processes lock different files.
+ *
+ * <p>A thread may acquire a directory it already holds, the inner lock
+ * relies on the file lock of the outer one. Another copy of this class in
+ * the JVM, i.e. the plugin loaded by two class loaders, doesn't share
+ * thread locks with this one; its file lock is waited for by retrying.</p>
+ */
+public class DirectoryLock {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    private static final long MIN_BACKOFF_MILLIS = 10;
+
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Class variables
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * FileChannel.lock is held by the whole JVM, threads are serialized here.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> threadLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final ReentrantLock threadLock;
+
+    /**
+     * Null for a nested lock.
+     */
+    private final FileChannel channel;
+
+    private final FileLock fileLock;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    private DirectoryLock(ReentrantLock threadLock, FileChannel channel, FileLock fileLock) {
+        this.threadLock = threadLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Blocks until `directory` is locked by the calling thread.
+     */
+    public static DirectoryLock acquire(File directory, Log log) throws IOException {
+
+        File canonical = directory.getCanonicalFile();
+        File lockFile = new File(canonical.getParentFile(), "." + canonical.getName() + ".lock");
+        ReentrantLock threadLock = getThreadLock(canonical.getPath());
+
+        if (threadLock.isHeldByCurrentThread()) {
+            threadLock.lock();
+            return new DirectoryLock(threadLock, null, null);
+        }
+
+        if (!threadLock.tryLock()) {
+            if (log != null) log.info("waiting for another thread unpacking into " + directory);
+            threadLock.lock();
+        }
+
+        FileChannel channel = null;
+        DirectoryLock lock = null;
+
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = new DirectoryLock(threadLock, channel, lockFile(channel, directory, log));
+            return lock;
+
+        } finally {
+            if (lock == null) {
+                try {
+                    if (channel != null) channel.close();
+                } finally {
+                    threadLock.unlock();
+                }
+            }
+        }
+    }
+
+    public void release() throws IOException {
+
+        try {
+            if (fileLock != null) {
+                try {
+                    fileLock.release();
+                } finally {
+                    channel.close();
+                }
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Waits for other processes in {@link FileChannel#lock()}. Lock held in
+     * this JVM by another class loader fails with
+     * {@link OverlappingFileLockException} instead, so it is polled with
+     * growing delays.
+     */
+    private static FileLock lockFile(FileChannel channel, File directory, Log log) throws IOException {
+
+        long backoff = MIN_BACKOFF_MILLIS;
+        boolean logged = false;
+
+        while (true) {
+            try {
+                FileLock fileLock = channel.tryLock();
+
+                if (fileLock == null) {
+                    if (log != null) log.info("waiting for another process unpacking into " + directory);
+                    fileLock = channel.lock();
+                }
+
+                return fileLock;
+
+            } catch (OverlappingFileLockException e) {
+
+                if (log != null && !logged) log.info("waiting for another plugin instance unpacking into " + directory);
+                logged = true;
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for lock of " + directory);
+                }
+
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private static ReentrantLock getThreadLock(String path) {
+
+        ReentrantLock lock = threadLocks.get(path);
+
+        if (lock == null) {
+            ReentrantLock created = new ReentrantLock();
+            lock = threadLocks.putIfAbsent(path, created);
+
+            if (lock == null) {
+                lock = created;
+            }
+        }
+
+        return lock;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link UnpackListener} keeping a JSON summary of every artifact in a file,
+ * for build dashboards. The file is rewritten after every event, so it is
+ * complete whenever the build stops:
+ * <pre>
+ * [
+ *   {"artifact": "group:sdk:zip:linux:1.0", "resolveMillis": 1200, "alreadyUnpacked": false, ...}
+ * ]
+ * </pre>
+ */
+public class JsonUnpackReport implements UnpackListener {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long NANOS_IN_MILLI = 1000 * 1000;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File file;
+
+    private final Map<String, Long> resolveNanos = new LinkedHashMap<String, Long>();
+
+    private final Map<String, UnpackMetrics> unpacked = new LinkedHashMap<String, UnpackMetrics>();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public JsonUnpackReport(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackListener
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public synchronized void artifactResolved(String artifact, long nanos) {
+        resolveNanos.put(artifact, nanos);
+        write();
+    }
+
+    @Override
+    public synchronized void artifactUnpacked(UnpackMetrics metrics) {
+        unpacked.put(metrics.getArtifact() + "|" + metrics.getDirectory(), metrics);
+        write();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Report is best effort, it never fails the build.
+     */
+    private void write() {
+
+        Path path = file.toPath();
+        Path temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+
+            Writer writer = Files.newBufferedWriter(temporary, UTF_8);
+
+            try {
+                writer.write(toJson());
+            } finally {
+                writer.close();
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            temporary.toFile().delete();
+        }
+    }
+
+    private String toJson() {
+
+        StringBuilder json = new StringBuilder("[");
+        String separator = "\n";
+
+        for (UnpackMetrics metrics : unpacked.values()) {
+
+            Long resolve = resolveNanos.get(metrics.getArtifact());
+
+            json.append(separator).append("  {");
+            appendField(json, "artifact", quote(metrics.getArtifact())).append(", ");
+            appendField(json, "directory", quote(metrics.getDirectory().getPath())).append(", ");
+            appendField(json, "resolveMillis", resolve != null ? Long.toString(resolve / NANOS_IN_MILLI) : "null").append(", ");
+            appendField(json, "alreadyUnpacked", metrics.isAlreadyUnpacked()).append(", ");
+            appendField(json, "sharedCacheHit", metrics.isSharedCacheHit()).append(", ");
+            appendField(json, "streamed", metrics.isStreamed()).append(", ");
+            appendField(json, "bytesRead", metrics.getBytesRead()).append(", ");
+            appendField(json, "bytesWritten", metrics.getBytesWritten()).append(", ");
+            appendField(json, "entries", metrics.getEntryCount()).append(", ");
+            appendField(json, "unpackMillis", metrics.getUnpackNanos() / NANOS_IN_MILLI).append(", ");
+            appendField(json, "decompressMillis", metrics.getDecompressNanos() / NANOS_IN_MILLI).append(", ");
+            appendField(json, "writeMillis", metrics.getWriteNanos() / NANOS_IN_MILLI);
+            json.append("}");
+            separator = ",\n";
+        }
+
+        // Resolved but not unpacked (yet).
+        for (Map.Entry<String, Long> entry : resolveNanos.entrySet()) {
+
+            if (isUnpacked(entry.getKey())) {
+                continue;
+            }
+
+            json.append(separator).append("  {");
+            appendField(json, "artifact", quote(entry.getKey())).append(", ");
+            appendField(json, "resolveMillis", entry.getValue() / NANOS_IN_MILLI);
+            json.append("}");
+            separator = ",\n";
+        }
+
+        return json.append("\n]\n").toString();
+    }
+
+    private boolean isUnpacked(String artifact) {
+
+        for (UnpackMetrics metrics : unpacked.values()) {
+            if (metrics.getArtifact().equals(artifact)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static StringBuilder appendField(StringBuilder json, String name, Object value) {
+        return json.append('"').append(name).append("\": ").append(value);
+    }
+
+    private static String quote(String value) {
+
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+}
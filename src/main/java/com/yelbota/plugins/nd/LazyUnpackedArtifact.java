@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.yelbota.plugins.nd.utils.ArchiveIndex;
+import com.yelbota.plugins.nd.utils.EntryWriter;
+import com.yelbota.plugins.nd.utils.FileTrees;
+import com.yelbota.plugins.nd.utils.IndexedUnpackMethod;
+import com.yelbota.plugins.nd.utils.UnpackMethod;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Artifact unpacked on demand, see {@link UnpackHelper#unpackLazily}. The
+ * target directory holds an index of the archive and only the entries
+ * asked for with {@link #getFile} or {@link #getFiles}. Every entry is
+ * extracted into a private staging directory and renamed into place, so
+ * an existing file is always complete and concurrent callers, in this
+ * or other processes, need no locking.
+ *
+ * <p>Symbolic links are followed: asking for a link materializes its
+ * target too, when the target is inside the directory.</p>
+ */
+public class LazyUnpackedArtifact {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    private static final int MAX_LINK_DEPTH = 8;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File directory;
+
+    private final Path root;
+
+    private final File artifactFile;
+
+    private final IndexedUnpackMethod unpackMethod;
+
+    private final ArchiveIndex index;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @param unpackMethod method which built `index`, null when `directory` is fully unpacked.
+     * @param index index of `artifactFile`, null when `directory` is fully unpacked.
+     */
+    public LazyUnpackedArtifact(File directory, File artifactFile, IndexedUnpackMethod unpackMethod,
+                                ArchiveIndex index) {
+
+        this.directory = directory;
+        this.root = Paths.get(directory.getAbsolutePath()).normalize();
+        this.artifactFile = artifactFile;
+        this.unpackMethod = unpackMethod;
+        this.index = index;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return index of the archive, null when directory is fully unpacked.
+     */
+    public ArchiveIndex getIndex() {
+        return index;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @param path entry path relative to archive root
+     * @return file of the entry, extracted if it wasn't yet.
+     * @throws FileNotFoundException if archive has no such entry.
+     */
+    public File getFile(String path) throws IOException {
+        return getFiles(Collections.singletonList(path)).get(0);
+    }
+
+    /**
+     * Same as {@link #getFile}, but all missing entries are extracted in
+     * one pass over the archive.
+     */
+    public List<File> getFiles(Collection<String> paths) throws IOException {
+
+        List<File> files = new ArrayList<File>(paths.size());
+        List<String> pending = new ArrayList<String>(paths);
+
+        for (String path : paths) {
+            files.add(resolve(path).toFile());
+        }
+
+        for (int depth = 0; !pending.isEmpty(); depth++) {
+
+            if (depth > MAX_LINK_DEPTH) {
+                throw new IOException("Too many levels of symbolic links below " + directory);
+            }
+
+            pending = materialize(pending);
+        }
+
+        return files;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Extracts entries at `paths` which are not on disk yet.
+     *
+     * @return paths of symbolic link targets which are to be extracted next.
+     */
+    private List<String> materialize(List<String> paths) throws IOException {
+
+        Map<String, ArchiveIndex.Entry> extracted = new LinkedHashMap<String, ArchiveIndex.Entry>();
+        List<ArchiveIndex.Entry> hardLinks = new ArrayList<ArchiveIndex.Entry>();
+        List<Path> links = new ArrayList<Path>();
+
+        for (String path : paths) {
+
+            Path file = resolve(path);
+
+            if (Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+
+                if (Files.isSymbolicLink(file)) {
+                    links.add(file);
+                }
+
+                continue;
+            }
+
+            ArchiveIndex.Entry entry = index != null ? index.get(path) : null;
+
+            if (entry == null) {
+
+                if (!isImplicitDirectory(path)) {
+                    throw new FileNotFoundException("No entry '" + path + "' in " + artifactFile);
+                }
+
+                Files.createDirectories(file);
+                continue;
+            }
+
+            switch (entry.getType()) {
+
+                case ArchiveIndex.DIRECTORY:
+                    Files.createDirectories(file);
+                    break;
+
+                case ArchiveIndex.HARDLINK:
+                    ArchiveIndex.Entry target = index.get(entry.getLinkName());
+
+                    if (target != null && target.getType() == ArchiveIndex.FILE
+                            && !Files.exists(resolve(target.getName()), LinkOption.NOFOLLOW_LINKS)) {
+                        extracted.put(target.getName(), target);
+                    }
+
+                    hardLinks.add(entry);
+                    break;
+
+                case ArchiveIndex.SYMLINK:
+                    links.add(file);
+                    extracted.put(entry.getName(), entry);
+                    break;
+
+                default:
+                    extracted.put(entry.getName(), entry);
+                    break;
+            }
+        }
+
+        if (!extracted.isEmpty()) {
+            extract(new ArrayList<ArchiveIndex.Entry>(extracted.values()));
+        }
+
+        for (ArchiveIndex.Entry entry : hardLinks) {
+            link(entry);
+        }
+
+        List<String> targets = new ArrayList<String>();
+
+        for (Path link : links) {
+
+            Path target = link.getParent().resolve(Files.readSymbolicLink(link)).normalize();
+
+            if (target.startsWith(root) && !target.equals(root) && !Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                targets.add(relative(target));
+            }
+        }
+
+        return targets;
+    }
+
+    private void extract(List<ArchiveIndex.Entry> entries) throws IOException {
+
+        File staging = new File(directory.getAbsoluteFile().getParentFile(),
+                "." + directory.getName() + ".lazy-" + UUID.randomUUID());
+
+        if (!staging.mkdir()) {
+            throw new IOException("could not create directory: " + staging);
+        }
+
+        try {
+            EntryWriter writer = new EntryWriter(staging);
+
+            try {
+                unpackMethod.extract(artifactFile, entries, writer);
+            } catch (UnpackMethod.UnpackMethodException e) {
+                throw new IOException("Can't extract entries of " + artifactFile, e);
+            }
+
+            for (ArchiveIndex.Entry entry : entries) {
+
+                Path source = writer.resolve(entry.getName());
+                Path destination = resolveWritable(entry.getName());
+
+                Files.createDirectories(destination.getParent());
+                Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            FileTrees.delete(staging.toPath());
+        }
+    }
+
+    private void link(ArchiveIndex.Entry entry) throws IOException {
+
+        Path path = resolveWritable(entry.getName());
+        Path existing = resolveWritable(entry.getLinkName());
+
+        if (!Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileNotFoundException("No entry '" + entry.getLinkName() + "' in " + artifactFile
+                    + ", which is linked from " + entry.getName());
+        }
+
+        Files.createDirectories(path.getParent());
+
+        try {
+            Files.createLink(path, existing);
+        } catch (FileAlreadyExistsException e) {
+            // Linked concurrently.
+        } catch (UnsupportedOperationException e) {
+            copy(existing, path);
+        }
+    }
+
+    private void copy(Path source, Path destination) throws IOException {
+
+        Path temporary = destination.resolveSibling(destination.getFileName() + "." + UUID.randomUUID());
+
+        try {
+            Files.copy(source, temporary, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return true if `path` is a parent of some entry, in archives which
+     * don't list directories.
+     */
+    private boolean isImplicitDirectory(String path) throws IOException {
+
+        if (index == null) {
+            return false;
+        }
+
+        String prefix = relative(resolve(path)) + "/";
+
+        for (ArchiveIndex.Entry entry : index.getEntries()) {
+            if (relative(resolve(entry.getName())).startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Path resolve(String name) throws IOException {
+
+        Path path = root.resolve(name.replace('\\', '/').replaceFirst("^/+", "")).normalize();
+
+        if (!path.startsWith(root)) {
+            throw new IOException("Entry '" + name + "' is outside of " + root);
+        }
+
+        return path;
+    }
+
+    /**
+     * Same as {@link #resolve} for paths written to, which must not lead
+     * through a symbolic link extracted earlier.
+     */
+    private Path resolveWritable(String name) throws IOException {
+
+        Path path = resolve(name);
+        Path link = FileTrees.findLinkedParent(root, path);
+
+        if (link != null) {
+            throw new IOException("Entry '" + name + "' is below symbolic link " + relative(link));
+        }
+
+        return path;
+    }
+
+    private String relative(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.yelbota.plugins.nd.utils.Checksum;
+import com.yelbota.plugins.nd.utils.EntryWriter;
+import com.yelbota.plugins.nd.utils.NamedThreadFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads large files from http(s) repositories over several connections
+ * at once, each fetching one byte range, so a download isn't capped by
+ * per-connection throughput. Ranges are written with positional channel
+ * writes into a temporary file which is checked against the repository's
+ * `.sha1` file before it is renamed into place. The checksum is computed
+ * while ranges arrive: bytes continuing the digested prefix are digested
+ * from memory, bytes written ahead of it are read back once the prefix
+ * reaches them. Files without a checksum,
+ * smaller than the threshold or served without range support are left to
+ * the regular resolution.
+ */
+public class RangeDownloader {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    public static final long DEFAULT_THRESHOLD = 64 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d{1,18})-(\\d{1,18})/(\\d{1,18}|\\*)");
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * SHA-1 of a file written in ranges, in any order. Keeps how far each
+     * range is written and digests the file up to the first gap.
+     */
+    private static class RangeDigest {
+
+        private final MessageDigest digest;
+
+        private final FileChannel channel;
+
+        private final long length;
+
+        private final long rangeLength;
+
+        private final long[] written;
+
+        private final byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+
+        private long digested;
+
+        RangeDigest(MessageDigest digest, FileChannel channel, long length, long rangeLength) {
+
+            this.digest = digest;
+            this.channel = channel;
+            this.length = length;
+            this.rangeLength = rangeLength;
+            this.written = new long[(int) ((length + rangeLength - 1) / rangeLength)];
+
+            for (int i = 0; i < written.length; i++) {
+                written[i] = i * rangeLength;
+            }
+        }
+
+        /**
+         * Records `count` bytes of `data` written at `position`.
+         */
+        synchronized void written(long position, byte[] data, int count) throws IOException {
+
+            written[(int) (position / rangeLength)] = position + count;
+
+            if (position == digested) {
+                digest.update(data, 0, count);
+                digested += count;
+            }
+
+            // Ranges behind the one just finished may be written already.
+            while (digested < length) {
+
+                long available = written[(int) (digested / rangeLength)] - digested;
+
+                if (available <= 0) {
+                    return;
+                }
+
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, available));
+
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, digested + chunk.position()) < 0) {
+                        throw new EOFException("Range ends at " + (digested + chunk.position()));
+                    }
+                }
+
+                digest.update(buffer, 0, chunk.position());
+                digested += chunk.position();
+            }
+        }
+
+        /**
+         * @return hex digest of the whole file.
+         */
+        synchronized String finish() throws IOException {
+
+            if (digested != length) {
+                throw new IOException("Digested " + digested + " of " + length + " bytes");
+            }
+
+            return UnpackCache.hex(digest.digest());
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int connections;
+
+    private final long threshold;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public RangeDownloader() {
+        this(DEFAULT_CONNECTIONS, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param connections connections per file
+     * @param threshold smallest file size in bytes downloaded in ranges.
+     */
+    public RangeDownloader(int connections, long threshold) {
+
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be positive, got " + connections);
+        }
+
+        this.connections = connections;
+        this.threshold = threshold;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Downloads `location` to `file` and stores its checksum next to it as
+     * `file.sha1`.
+     *
+     * @return false if `location` is not to be downloaded in ranges, nothing is written then.
+     * @throws IOException if download fails or doesn't match its checksum.
+     */
+    public boolean download(String location, File file) throws IOException {
+
+        URLConnection head = new URL(location).openConnection();
+
+        if (!(head instanceof HttpURLConnection)) {
+            return false;
+        }
+
+        long length;
+        String acceptRanges;
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) head;
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return false;
+            }
+
+            length = connection.getContentLengthLong();
+            acceptRanges = connection.getHeaderField("Accept-Ranges");
+        } finally {
+            ((HttpURLConnection) head).disconnect();
+        }
+
+        if (length < threshold || length <= 0 || acceptRanges == null || !acceptRanges.contains("bytes")) {
+            return false;
+        }
+
+        String checksumContent = fetchChecksum(location + ".sha1");
+
+        if (checksumContent == null) {
+            return false;
+        }
+
+        Checksum checksum;
+
+        try {
+            checksum = new Checksum(Checksum.SHA_1, checksumContent.trim().split("\\s+")[0]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed checksum file " + location + ".sha1", e);
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create directory: " + parent);
+        }
+
+        Path partFile = new File(parent, file.getName() + "." + UUID.randomUUID() + ".part").toPath();
+
+        try {
+            String digest = fetchRanges(location, partFile, length, checksum.createDigest());
+
+            if (!checksum.matches(digest)) {
+                throw new IOException(location + " doesn't match checksum " + checksum + ", actual is " + digest);
+            }
+
+            Files.write(new File(file.getPath() + ".sha1").toPath(), (checksum.getValue() + "\n").getBytes(UTF_8));
+            Files.move(partFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return hex digest of downloaded file.
+     */
+    private String fetchRanges(final String location, Path partFile, final long length, MessageDigest digest)
+            throws IOException {
+
+        final FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int count = (int) Math.min(connections, (length + EntryWriter.BUFFER_SIZE - 1) / EntryWriter.BUFFER_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(count, new NamedThreadFactory("range-download"));
+
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(count);
+            long rangeLength = (length + count - 1) / count;
+            final RangeDigest rangeDigest = new RangeDigest(digest, channel, length, rangeLength);
+
+            for (long start = 0; start < length; start += rangeLength) {
+
+                final long first = start;
+                final long last = Math.min(length, start + rangeLength) - 1;
+
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        fetchRange(location, channel, rangeDigest, first, last, length);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+            return rangeDigest.finish();
+
+        } catch (ExecutionException e) {
+
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Can't download " + location, e.getCause());
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + location, e);
+
+        } finally {
+            executor.shutdownNow();
+            channel.close();
+        }
+    }
+
+    private static void fetchRange(String location, FileChannel channel, RangeDigest digest,
+                                   long first, long last, long length) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(location).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException(location + " answered " + connection.getResponseCode() + " to a range request");
+            }
+
+            checkContentRange(location, connection.getHeaderField("Content-Range"), first, last, length);
+
+            InputStream in = connection.getInputStream();
+
+            try {
+                byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+                long position = first;
+                int count;
+
+                while (position <= last && (count = in.read(buffer, 0, (int) Math.min(buffer.length, last - position + 1))) != -1) {
+
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk, position + chunk.position());
+                    }
+
+                    digest.written(position, buffer, count);
+                    position += count;
+                }
+
+                if (position <= last) {
+                    throw new EOFException("Range " + first + "-" + last + " of " + location + " ended at " + position);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @throws IOException unless `contentRange` is exactly `first`-`last` of `length` bytes.
+     */
+    private static void checkContentRange(String location, String contentRange, long first, long last, long length)
+            throws IOException {
+
+        Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange.trim()) : null;
+
+        if (matcher == null || !matcher.matches()
+                || Long.parseLong(matcher.group(1)) != first
+                || Long.parseLong(matcher.group(2)) != last
+                || !("*".equals(matcher.group(3)) || Long.parseLong(matcher.group(3)) == length)) {
+            throw new IOException(location + " answered range " + contentRange + " to a request of "
+                    + first + "-" + last + "/" + length);
+        }
+    }
+
+    /**
+     * @return content of checksum file, null if there is none.
+     */
+    private static String fetchChecksum(String location) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(location).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            InputStream in = connection.getInputStream();
+
+            try {
+                byte[] buffer = new byte[1024];
+                StringBuilder content = new StringBuilder();
+                int count;
+
+                while ((count = in.read(buffer)) != -1 && content.length() < 4096) {
+                    content.append(new String(buffer, 0, count, UTF_8));
+                }
+
+                return content.toString();
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
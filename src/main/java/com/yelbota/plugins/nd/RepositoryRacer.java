@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.yelbota.plugins.nd.utils.NamedThreadFactory;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders remote repositories by how fast they serve an artifact. Every
+ * repository reachable without authentication or proxy is probed at once,
+ * with a HEAD request for http(s); the first to answer that it has the
+ * artifact goes to the front and probes still running are cancelled.
+ * Probe latencies are smoothed and kept in a properties file across builds;
+ * other repositories follow in the order of those latencies, the ones
+ * never probed keeping their configured place ahead of slow ones.
+ */
+public class RepositoryRacer {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final int DEFAULT_PROBE_TIMEOUT = 5 * 1000;
+
+    public static final long UNKNOWN = -1;
+
+    private static final String STATS_FILE = "repositories.properties";
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File statsFile;
+
+    private final int probeTimeout;
+
+    /**
+     * Smoothed latency in millis by repository URL, loaded on first use.
+     */
+    private Properties latencies;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public RepositoryRacer(File statsFile) {
+        this(statsFile, DEFAULT_PROBE_TIMEOUT);
+    }
+
+    /**
+     * @param statsFile properties file latencies are kept in.
+     * @param probeTimeout time in millis to wait for a repository to answer.
+     */
+    public RepositoryRacer(File statsFile, int probeTimeout) {
+
+        if (probeTimeout < 1) {
+            throw new IllegalArgumentException("probeTimeout must be positive, got " + probeTimeout);
+        }
+
+        this.statsFile = statsFile;
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * @return racer keeping latencies next to the default {@link UnpackCache}.
+     */
+    public static RepositoryRacer createDefault() {
+        return new RepositoryRacer(new File(UnpackCache.createDefault().getRoot(), STATS_FILE));
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public File getStatsFile() {
+        return statsFile;
+    }
+
+    public int getProbeTimeout() {
+        return probeTimeout;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return smoothed probe latency in millis of repository at `url`,
+     * {@link #UNKNOWN} if it was never probed.
+     */
+    public synchronized long getLatency(String url) {
+
+        String value = getLatencies().getProperty(url);
+
+        try {
+            return value != null ? Long.parseLong(value) : UNKNOWN;
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Races repositories for `artifact`. Nothing is probed when fewer than
+     * two repositories can be.
+     *
+     * @return new list of `repositories`, the first to answer having
+     * `artifact` at the front followed by the others by latency.
+     */
+    public List<ArtifactRepository> order(Artifact artifact, List<ArtifactRepository> repositories) {
+
+        if (repositories == null) {
+            return null;
+        }
+
+        Map<ArtifactRepository, String> locations = new LinkedHashMap<ArtifactRepository, String>();
+
+        for (ArtifactRepository repository : repositories) {
+
+            String location = DependencyHelper.getLocation(repository, artifact);
+
+            if (location != null) {
+                locations.put(repository, location);
+            }
+        }
+
+        if (locations.size() < 2) {
+            return new ArrayList<ArtifactRepository>(repositories);
+        }
+
+        Map<String, Long> samples = new HashMap<String, Long>();
+        ArtifactRepository winner = race(locations, samples);
+
+        synchronized (this) {
+
+            for (Map.Entry<String, Long> sample : samples.entrySet()) {
+                record(sample.getKey(), sample.getValue());
+            }
+
+            store();
+        }
+
+        return sort(repositories, winner);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Probes all `locations` at once and fills `samples` with latencies by
+     * repository URL. Repositories cancelled or timed out are sampled with
+     * the time waited for them, unreachable ones with the probe timeout.
+     *
+     * @return first repository to answer it has the artifact, null if none did.
+     */
+    private ArtifactRepository race(Map<ArtifactRepository, String> locations, Map<String, Long> samples) {
+
+        final List<URLConnection> connections = Collections.synchronizedList(new ArrayList<URLConnection>());
+        ExecutorService executor = Executors.newFixedThreadPool(locations.size(),
+                new NamedThreadFactory("repository-probe"));
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+        Map<Future<Boolean>, ArtifactRepository> probes = new HashMap<Future<Boolean>, ArtifactRepository>();
+        ArtifactRepository winner = null;
+        long started = System.nanoTime();
+
+        try {
+            for (Map.Entry<ArtifactRepository, String> entry : locations.entrySet()) {
+
+                final String location = entry.getValue();
+
+                probes.put(completion.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return probe(location, connections);
+                    }
+                }), entry.getKey());
+            }
+
+            long deadline = started + TimeUnit.MILLISECONDS.toNanos(probeTimeout);
+
+            while (winner == null && !probes.isEmpty()) {
+
+                Future<Boolean> future = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+                if (future == null) {
+                    break;
+                }
+
+                ArtifactRepository repository = probes.remove(future);
+
+                try {
+                    samples.put(repository.getUrl(), elapsed(started));
+
+                    if (future.get()) {
+                        winner = repository;
+                    }
+                } catch (ExecutionException e) {
+                    samples.put(repository.getUrl(), (long) probeTimeout);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+
+            // Interruption doesn't stop blocking socket reads.
+            synchronized (connections) {
+                for (URLConnection connection : connections) {
+                    if (connection instanceof HttpURLConnection) {
+                        ((HttpURLConnection) connection).disconnect();
+                    }
+                }
+            }
+        }
+
+        long waited = elapsed(started);
+
+        for (ArtifactRepository repository : probes.values()) {
+            samples.put(repository.getUrl(), waited);
+        }
+
+        return winner;
+    }
+
+    /**
+     * @return true if `location` exists.
+     */
+    private boolean probe(String location, List<URLConnection> connections) throws IOException {
+
+        URLConnection connection = new URL(location).openConnection();
+        connection.setConnectTimeout(probeTimeout);
+        connection.setReadTimeout(probeTimeout);
+        connections.add(connection);
+
+        if (connection instanceof HttpURLConnection) {
+
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setRequestMethod("HEAD");
+
+            try {
+                return http.getResponseCode() == HttpURLConnection.HTTP_OK;
+            } finally {
+                http.disconnect();
+            }
+        }
+
+        try {
+            connection.getInputStream().close();
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
+    private List<ArtifactRepository> sort(List<ArtifactRepository> repositories, final ArtifactRepository winner) {
+
+        final Map<ArtifactRepository, Long> known = new HashMap<ArtifactRepository, Long>();
+
+        for (ArtifactRepository repository : repositories) {
+            // Never probed ones stay ahead of everything measured.
+            known.put(repository, Math.max(0, getLatency(repository.getUrl())));
+        }
+
+        List<ArtifactRepository> sorted = new ArrayList<ArtifactRepository>(repositories);
+
+        Collections.sort(sorted, new Comparator<ArtifactRepository>() {
+            @Override
+            public int compare(ArtifactRepository a, ArtifactRepository b) {
+
+                if (a == winner || b == winner) {
+                    return a == b ? 0 : a == winner ? -1 : 1;
+                }
+
+                return known.get(a).compareTo(known.get(b));
+            }
+        });
+
+        return sorted;
+    }
+
+    private void record(String url, long sample) {
+
+        long previous = getLatency(url);
+        long latency = previous == UNKNOWN ? sample : (previous * 3 + sample) / 4;
+
+        getLatencies().setProperty(url, Long.toString(latency));
+    }
+
+    private Properties getLatencies() {
+
+        if (latencies == null) {
+
+            latencies = new Properties();
+
+            try {
+                if (statsFile.isFile()) {
+
+                    InputStream in = Files.newInputStream(statsFile.toPath());
+
+                    try {
+                        latencies.load(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } catch (IOException e) {
+                // Unreadable stats, measured again.
+            } catch (IllegalArgumentException e) {
+                // Malformed stats, measured again.
+            }
+        }
+
+        return latencies;
+    }
+
+    private void store() {
+
+        Path path = statsFile.getAbsoluteFile().toPath();
+        Path temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+
+        try {
+            Files.createDirectories(path.getParent());
+            OutputStream out = Files.newOutputStream(temporary);
+
+            try {
+                latencies.store(out, "repository probe latency, millis");
+            } finally {
+                out.close();
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            // Ordering works with in-memory stats for this build.
+        } finally {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                // Nothing else to do.
+            }
+        }
+    }
+
+    private static long elapsed(long started) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.yelbota.plugins.nd.utils.Checksum;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Machine-wide memory of artifact resolutions, so artifacts resolved once
+ * are not looked up in repositories again. Every entry keeps path, size
+ * and modification time of the resolved file and is used only while the
+ * file is unchanged. The checksum stored next to the file by the
+ * repository is kept too, so a file that was only touched is recognized
+ * by content; the file itself is read for that only then. Entries of fixed release versions never expire;
+ * those of snapshots, ranges and LATEST/RELEASE expire after {@link #getTtl()}.
+ */
+public class ResolutionCache {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Default time to live of changing versions: not cached at all.
+     */
+    public static final long DEFAULT_TTL = 0;
+
+    private static final String RESOLUTIONS_DIRECTORY = "resolutions";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FILE = "file";
+    private static final String SIZE = "size";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String CHECKSUM = "checksum";
+    private static final String LEGACY_CHECKSUM = "sha1";
+    private static final String RESOLVED = "resolved";
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File root;
+
+    private long ttl = DEFAULT_TTL;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ResolutionCache(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @return cache next to the default {@link UnpackCache}.
+     */
+    public static ResolutionCache createDefault() {
+        return new ResolutionCache(UnpackCache.createDefault().getRoot());
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public File getRoot() {
+        return root;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl time in millis resolutions of changing versions are kept, 0 to not keep them.
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return file `coordinate` was resolved to in `localRepository`, or
+     * null when there is no valid entry.
+     */
+    public File get(ArtifactCoordinate coordinate, ArtifactRepository localRepository) throws IOException {
+
+        Path entryFile = getEntryFile(coordinate, localRepository);
+
+        if (!Files.isRegularFile(entryFile)) {
+            return null;
+        }
+
+        Properties entry = new Properties();
+        InputStream in = Files.newInputStream(entryFile);
+
+        try {
+            entry.load(in);
+        } finally {
+            in.close();
+        }
+
+        try {
+            File file = new File(entry.getProperty(FILE));
+            long resolved = Long.parseLong(entry.getProperty(RESOLVED));
+
+            if (!isFixedRelease(coordinate.getVersion()) && System.currentTimeMillis() - resolved >= ttl) {
+                return null;
+            }
+
+            if (!file.isFile() || file.length() != Long.parseLong(entry.getProperty(SIZE))) {
+                return null;
+            }
+
+            if (file.lastModified() != Long.parseLong(entry.getProperty(LAST_MODIFIED))) {
+
+                // Touched, i.e. copied with the repository; content decides.
+                Checksum checksum = getChecksum(entry);
+
+                if (checksum == null
+                        || !checksum.matches(UnpackCache.hex(UnpackCache.hash(file, checksum.getAlgorithm())))) {
+                    return null;
+                }
+
+                write(entryFile, file, resolved, checksum);
+            }
+
+            return file;
+
+        } catch (RuntimeException e) {
+            // Truncated or foreign entry, same as none.
+            return null;
+        }
+    }
+
+    /**
+     * Remembers that `coordinate` was resolved to `file`. Does nothing for
+     * changing versions when they are not kept.
+     */
+    public void put(ArtifactCoordinate coordinate, ArtifactRepository localRepository, File file) throws IOException {
+
+        if (file == null || !file.isFile() || !isFixedRelease(coordinate.getVersion()) && ttl <= 0) {
+            return;
+        }
+
+        Checksum checksum;
+
+        try {
+            checksum = Checksum.readSidecar(file);
+        } catch (IOException e) {
+            // Malformed, the entry is dropped once the file is touched.
+            checksum = null;
+        }
+
+        write(getEntryFile(coordinate, localRepository), file, System.currentTimeMillis(), checksum);
+    }
+
+    public void remove(ArtifactCoordinate coordinate, ArtifactRepository localRepository) throws IOException {
+        Files.deleteIfExists(getEntryFile(coordinate, localRepository));
+    }
+
+    /**
+     * @return true if `version` always denotes the same artifact content.
+     */
+    public static boolean isFixedRelease(String version) {
+
+        return version != null
+                && !version.endsWith("-SNAPSHOT")
+                && !"LATEST".equals(version)
+                && !"RELEASE".equals(version)
+                && version.indexOf('[') < 0
+                && version.indexOf('(') < 0
+                && version.indexOf(',') < 0;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private Path getEntryFile(ArtifactCoordinate coordinate, ArtifactRepository localRepository) {
+
+        String basedir = localRepository != null ? localRepository.getBasedir() : null;
+        String key = coordinate + "|" + basedir;
+
+        return new File(new File(root, RESOLUTIONS_DIRECTORY), UnpackCache.hex(UnpackCache.sha256(key.getBytes(UTF_8)))).toPath();
+    }
+
+    private static void write(Path entryFile, File file, long resolved, Checksum checksum) throws IOException {
+
+        Properties entry = new Properties();
+        entry.setProperty(FILE, file.getAbsolutePath());
+        entry.setProperty(SIZE, Long.toString(file.length()));
+        entry.setProperty(LAST_MODIFIED, Long.toString(file.lastModified()));
+        entry.setProperty(RESOLVED, Long.toString(resolved));
+
+        if (checksum != null) {
+            entry.setProperty(CHECKSUM, checksum.toString());
+        }
+
+        Files.createDirectories(entryFile.getParent());
+        Path temporary = entryFile.resolveSibling(entryFile.getFileName() + "." + UUID.randomUUID());
+        OutputStream out = Files.newOutputStream(temporary);
+
+        try {
+            entry.store(out, null);
+        } finally {
+            out.close();
+        }
+
+        try {
+            Files.move(temporary, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return checksum of `entry`, "algorithm:digest", or SHA-1 of entries
+     * written before other algorithms were kept; null if there is none.
+     */
+    private static Checksum getChecksum(Properties entry) {
+
+        String value = entry.getProperty(CHECKSUM);
+
+        if (value != null) {
+            int separator = value.indexOf(':');
+            return new Checksum(value.substring(0, separator), value.substring(separator + 1));
+        }
+
+        value = entry.getProperty(LEGACY_CHECKSUM);
+        return value != null ? new Checksum(Checksum.SHA_1, value) : null;
+    }
+}
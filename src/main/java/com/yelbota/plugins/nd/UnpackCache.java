@@ -0,0 +1,635 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.yelbota.plugins.nd.utils.Checksum;
+import com.yelbota.plugins.nd.utils.EntryFilter;
+import com.yelbota.plugins.nd.utils.FileTrees;
+import com.yelbota.plugins.nd.utils.UnpackMethod;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Machine-wide store of extracted artifacts. Trees are keyed by SHA-256 of
+ * the artifact file, so the same archive is extracted once per machine and
+ * target directories are populated from the store.
+ *
+ * <p>By default they are populated with {@link LinkMode#REFLINK}: files
+ * share only unmodified data blocks with the store, so populating a
+ * directory is a metadata operation on copy-on-write file systems, and a
+ * plain copy elsewhere. Targets may be modified freely either way.</p>
+ *
+ * <p>Files in target directories populated with {@link LinkMode#HARDLINK},
+ * which has to be asked for, share content with the store and must not be
+ * modified in place.</p>
+ */
+public class UnpackCache {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final String CACHE_DIRECTORY_PROPERTY = "nativeDependency.cacheDirectory";
+
+    /**
+     * Name of a {@link LinkMode} to populate target directories with.
+     */
+    public static final String LINK_MODE_PROPERTY = "nativeDependency.cacheLinkMode";
+
+    private static final String TREES_DIRECTORY = "trees";
+    private static final String DIGESTS_DIRECTORY = "digests";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Files cloned by one `cp` process. */
+    private static final int REFLINK_BATCH = 256;
+    private static final int MAX_CLONE_OUTPUT = 4096;
+
+    /** Parts of `cp` messages telling that cloning isn't possible at all. */
+    private static final String[] CLONE_UNSUPPORTED = {
+            "operation not supported",
+            "invalid cross-device link",
+            "inappropriate ioctl for device",
+            "invalid argument",
+            "unrecognized option",
+            "illegal option",
+            "invalid option",
+            "cannot run program"
+    };
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    public enum LinkMode {
+
+        /**
+         * Hard link every file, copy when store is on another file system.
+         * Modifying a target file in place modifies the store.
+         */
+        HARDLINK,
+
+        /** Symbolic link every file to the store. */
+        SYMLINK,
+
+        /** Plain copy, target directory is independent from the store. */
+        COPY,
+
+        /**
+         * Copy-on-write clone of every file (FICLONE through
+         * `cp --reflink`) on file systems supporting it, such as btrfs and
+         * XFS; plain copy elsewhere. Target directory is independent from
+         * the store, yet file data is not written again.
+         */
+        REFLINK
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File root;
+
+    private LinkMode linkMode = LinkMode.REFLINK;
+
+    /** Set once cloning is found unsupported, the store is copied from then on. */
+    private volatile boolean reflinkUnsupported;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public UnpackCache(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @return cache in `nativeDependency.cacheDirectory` system property
+     * directory or in ~/.m2/native-dependency-cache, with link mode of
+     * `nativeDependency.cacheLinkMode` property if set.
+     */
+    public static UnpackCache createDefault() {
+
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+
+        if (directory == null) {
+            directory = System.getProperty("user.home") + "/.m2/native-dependency-cache";
+        }
+
+        UnpackCache cache = new UnpackCache(new File(directory));
+        String linkMode = System.getProperty(LINK_MODE_PROPERTY);
+
+        if (linkMode != null) {
+            cache.setLinkMode(LinkMode.valueOf(linkMode.trim().toUpperCase(Locale.ENGLISH)));
+        }
+
+        return cache;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public File getRoot() {
+        return root;
+    }
+
+    public LinkMode getLinkMode() {
+        return linkMode;
+    }
+
+    public void setLinkMode(LinkMode linkMode) {
+        this.linkMode = linkMode;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Populates `directory` with extracted content of `artifactFile`,
+     * extracting it into the store first if needed.
+     *
+     * @return true if tree was already in the store
+     */
+    public boolean unpack(File artifactFile, UnpackMethod unpackMethod, File directory,
+                          Log log) throws IOException, UnpackMethod.UnpackMethodException {
+        return unpack(artifactFile, unpackMethod, directory, null, log);
+    }
+
+    /**
+     * Same as {@link #unpack(File, UnpackMethod, File, Log)}, but only
+     * entries selected by `filter` are populated. The tree in the store is
+     * always complete, so it is shared by all selections.
+     */
+    public boolean unpack(File artifactFile, UnpackMethod unpackMethod, File directory, EntryFilter filter,
+                          Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        File tree = getTree(digest(artifactFile));
+        boolean hit = tree.isDirectory();
+
+        if (linkMode == LinkMode.HARDLINK && log != null) {
+            log.warn("files in " + directory + " are hard links into unpack cache " + root
+                    + ", modifying them in place corrupts the cache");
+        }
+
+        if (hit) {
+            if (log != null) log.info("using cached tree " + tree);
+        } else {
+            extract(artifactFile, unpackMethod, tree, log);
+        }
+
+        populate(tree.toPath(), directory.toPath(), filter);
+        return hit;
+    }
+
+    /**
+     * @return hex SHA-256 of `file`. Digest is remembered by path, size and
+     * modification time, so unchanged artifacts are read only once.
+     */
+    public String digest(File file) throws IOException {
+        return digest(file, Checksum.SHA_256);
+    }
+
+    /**
+     * @return hex digest of `file` in `algorithm`, i.e. "SHA-1". Digests are
+     * remembered like {@link #digest(File)}; SHA-256, which names the tree,
+     * is computed in the same read as any other.
+     */
+    public String digest(File file, String algorithm) throws IOException {
+
+        File canonical = file.getCanonicalFile();
+        String stamp = canonical.length() + ":" + canonical.lastModified();
+        Path memo = new File(new File(root, DIGESTS_DIRECTORY), hex(sha256(canonical.getPath().getBytes(UTF_8)))).toPath();
+        List<String> lines = new ArrayList<String>();
+
+        if (Files.isRegularFile(memo)) {
+
+            List<String> stored = Files.readAllLines(memo, UTF_8);
+
+            // Stamp, SHA-256, then "algorithm digest" lines.
+            if (stored.size() >= 2 && stored.get(0).equals(stamp)) {
+
+                if (Checksum.SHA_256.equals(algorithm)) {
+                    return stored.get(1);
+                }
+
+                for (String line : stored.subList(2, stored.size())) {
+                    if (line.startsWith(algorithm + " ")) {
+                        return line.substring(algorithm.length() + 1);
+                    }
+                }
+
+                lines.addAll(stored);
+            }
+        }
+
+        MessageDigest sha256 = createDigest(Checksum.SHA_256);
+        MessageDigest other = Checksum.SHA_256.equals(algorithm) ? null : createDigest(algorithm);
+        InputStream in = Files.newInputStream(canonical.toPath());
+
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+
+                sha256.update(buffer, 0, count);
+
+                if (other != null) {
+                    other.update(buffer, 0, count);
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (lines.isEmpty()) {
+            lines.add(stamp);
+            lines.add(hex(sha256.digest()));
+        }
+
+        String digest = other != null ? hex(other.digest()) : lines.get(1);
+
+        if (other != null) {
+            lines.add(algorithm + " " + digest);
+        }
+
+        StringBuilder content = new StringBuilder();
+
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+
+        Files.createDirectories(memo.getParent());
+        Path temporary = memo.resolveSibling(memo.getFileName() + "." + UUID.randomUUID());
+        Files.write(temporary, content.toString().getBytes(UTF_8));
+        Files.move(temporary, memo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return digest;
+    }
+
+    public File getTree(String digest) {
+        return new File(new File(root, TREES_DIRECTORY), digest);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Protected methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Extracts into a private staging directory which is then renamed into
+     * place, so a tree in the store is always complete. When another process
+     * wins the race, its tree is used.
+     */
+    protected void extract(File artifactFile, UnpackMethod unpackMethod, File tree,
+                           Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        File staging = new File(tree.getParentFile(), "." + tree.getName() + "-" + UUID.randomUUID());
+
+        if (!staging.mkdirs()) {
+            throw new IOException("could not create directory: " + staging);
+        }
+
+        try {
+            if (log != null) log.info("extracting " + artifactFile + " into cache " + tree);
+            unpackMethod.unpack(artifactFile, staging, log);
+
+            try {
+                Files.move(staging.toPath(), tree.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+
+                if (!tree.isDirectory()) {
+                    throw e;
+                }
+
+                if (log != null) log.debug("tree " + tree + " was extracted concurrently");
+            }
+        } finally {
+            if (staging.exists()) {
+                FileTrees.delete(staging.toPath());
+            }
+        }
+    }
+
+    /**
+     * Mirrors `tree` into `target` according to link mode.
+     */
+    protected void populate(Path tree, Path target) throws IOException {
+        populate(tree, target, null);
+    }
+
+    /**
+     * Mirrors entries of `tree` selected by `filter` (all when null) into
+     * `target` according to link mode. Directory permissions are mirrored
+     * once their entries are in place, so read-only ones can be filled.
+     */
+    protected void populate(final Path tree, final Path target, final EntryFilter filter) throws IOException {
+
+        final List<String> clones = new ArrayList<String>();
+        final List<String> directories = new ArrayList<String>();
+
+        Files.walkFileTree(tree, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+
+                String name = relative(tree, dir);
+
+                // Rejected directory may still have selected entries below.
+                if (filter == null || filter.accepts(name)) {
+                    Files.createDirectories(target.resolve(name));
+                }
+
+                // Read-only since an earlier populate, permissions are mirrored again below.
+                if (!dir.equals(tree)) {
+                    FileTrees.makeWritable(target.resolve(name));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+
+                String name = relative(tree, file);
+
+                if (filter != null && !filter.accepts(name)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                Path destination = target.resolve(name);
+                Files.createDirectories(destination.getParent());
+                Files.deleteIfExists(destination);
+
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(destination, Files.readSymbolicLink(file));
+                } else if (linkMode == LinkMode.REFLINK) {
+                    clones.add(name);
+                } else {
+                    link(file, destination);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+
+                if (e != null) {
+                    throw e;
+                }
+
+                if (!dir.equals(tree)) {
+                    directories.add(relative(tree, dir));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        if (!clones.isEmpty()) {
+            reflink(tree, target, clones);
+        }
+
+        // Children come first.
+        for (String name : directories) {
+
+            Path destination = target.resolve(name);
+
+            if (Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+                FileTrees.copyPermissions(tree.resolve(name), destination);
+            }
+        }
+    }
+
+    /**
+     * Clones files `names` of `tree` into `target`, many files per `cp`
+     * process. When cloning is unsupported, i.e. the file system can't share
+     * extents or there is no GNU cp, files are copied.
+     *
+     * @throws IOException if `cp` fails for another reason.
+     */
+    protected void reflink(Path tree, Path target, List<String> names) throws IOException {
+
+        for (int start = 0; start < names.size(); start += REFLINK_BATCH) {
+
+            List<String> batch = names.subList(start, Math.min(names.size(), start + REFLINK_BATCH));
+
+            if (!reflinkUnsupported) {
+
+                String failure = cloneFiles(tree, target, batch);
+
+                if (failure == null) {
+                    continue;
+                }
+
+                if (!isCloneUnsupported(failure)) {
+                    throw new IOException("Can't clone " + tree + " into " + target + ": " + failure.trim());
+                }
+
+                reflinkUnsupported = true;
+            }
+
+            for (String name : batch) {
+                Files.copy(tree.resolve(name), target.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            }
+        }
+    }
+
+    protected void link(Path source, Path destination) throws IOException {
+
+        switch (linkMode) {
+
+            case HARDLINK:
+                try {
+                    Files.createLink(destination, source);
+                    return;
+                } catch (UnsupportedOperationException e) {
+                    // Fall through to copy.
+                } catch (FileSystemException e) {
+                    // Store is on another device.
+                }
+                break;
+
+            case SYMLINK:
+                Files.createSymbolicLink(destination, source.toAbsolutePath());
+                return;
+
+            default:
+                break;
+        }
+
+        Files.copy(source, destination, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private static String relative(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return null if `cp` cloned all `names`, its output otherwise.
+     */
+    private static String cloneFiles(Path tree, Path target, List<String> names) throws IOException {
+
+        List<String> command = new ArrayList<String>();
+        command.add("cp");
+        command.add("--reflink=always");
+        command.add("--preserve=mode,timestamps");
+        command.add("--parents");
+        command.add("--");
+        command.addAll(names);
+        command.add(target.toAbsolutePath().toString());
+
+        Process process;
+
+        try {
+            ProcessBuilder builder = new ProcessBuilder(command).directory(tree.toFile()).redirectErrorStream(true);
+            // Messages are classified by text.
+            builder.environment().put("LC_ALL", "C");
+            process = builder.start();
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+
+        try {
+            InputStream in = process.getInputStream();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+
+            try {
+                while ((count = in.read(buffer)) != -1) {
+                    if (output.size() < MAX_CLONE_OUTPUT) {
+                        output.write(buffer, 0, count);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            int status = process.waitFor();
+            return status == 0 ? null : "exit status " + status + ", " + output.toString("UTF-8");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning " + tree);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * @return true if `cp` output tells that cloning isn't possible here at
+     * all, i.e. EOPNOTSUPP, EXDEV or no `--reflink` option.
+     */
+    static boolean isCloneUnsupported(String output) {
+
+        String message = output != null ? output.toLowerCase(Locale.ENGLISH) : "";
+
+        for (String reason : CLONE_UNSUPPORTED) {
+            if (message.contains(reason)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static byte[] hash(File file, String algorithm) throws IOException {
+
+        MessageDigest digest = createDigest(algorithm);
+        InputStream in = Files.newInputStream(file.toPath());
+
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return digest.digest();
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        return createDigest("SHA-256").digest(bytes);
+    }
+
+    static MessageDigest createDigest(String algorithm) {
+
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return builder.toString();
+    }
+}
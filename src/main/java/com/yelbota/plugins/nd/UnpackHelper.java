@@ -15,25 +15,108 @@
  */
 package com.yelbota.plugins.nd;
 
+import com.yelbota.plugins.nd.utils.ArchiveIndex;
+import com.yelbota.plugins.nd.utils.CheckpointingUnpackMethod;
+import com.yelbota.plugins.nd.utils.Checksum;
+import com.yelbota.plugins.nd.utils.DefaultUnpackMethods;
+import com.yelbota.plugins.nd.utils.DigestingUnpackMethod;
+import com.yelbota.plugins.nd.utils.EntryFilter;
+import com.yelbota.plugins.nd.utils.EntryUnpackMethod;
+import com.yelbota.plugins.nd.utils.EntryWriter;
+import com.yelbota.plugins.nd.utils.FileDigest;
+import com.yelbota.plugins.nd.utils.FileTrees;
+import com.yelbota.plugins.nd.utils.GzipCheckpointIndex;
+import com.yelbota.plugins.nd.utils.IndexedUnpackMethod;
+import com.yelbota.plugins.nd.utils.NamedThreadFactory;
+import com.yelbota.plugins.nd.utils.ParallelBZip2InputStream;
+import com.yelbota.plugins.nd.utils.SelectiveUnpackMethod;
+import com.yelbota.plugins.nd.utils.StreamUnpackMethod;
+import com.yelbota.plugins.nd.utils.TeeInputStream;
+import com.yelbota.plugins.nd.utils.UnpackManifest;
 import com.yelbota.plugins.nd.utils.UnpackMethod;
+import com.yelbota.plugins.nd.utils.ZipCentralDirectory;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.sonatype.aether.spi.connector.ArtifactDownload;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Aleksey Fomkin
  */
 public class UnpackHelper {
 
+    /**
+     * Manifest of unpacked content, see {@link UnpackManifest}. Its presence
+     * with matching source identity means artifact is already unpacked.
+     */
+    public static final String UNPACK_MANIFEST_FILE = "unpack-manifest.txt";
+
+    /**
+     * Index of a lazily unpacked artifact, see {@link ArchiveIndex}.
+     */
+    public static final String UNPACK_INDEX_FILE = "unpack-index.txt";
+
+    /**
+     * @deprecated replaced with {@link #UNPACK_MANIFEST_FILE}. Directories
+     * having only this flag are unpacked again and the flag is removed.
+     */
+    @Deprecated
     public static final String UNPACKED_COMPLETED_FLAG_FILE = "unpack-completed.flag";
 
+    /**
+     * Default number of artifacts unpacked at once by {@link #unpackAll}.
+     */
+    public static final int DEFAULT_UNPACK_THREADS = 4;
+
+    private enum StreamingResult {
+        NOT_STARTED, DOWNLOADED, UNPACKED
+    }
+
+    /**
+     * What to do when an artifact file doesn't match its expected checksum.
+     */
+    public enum ChecksumPolicy {
+
+        /** Checksums are not computed. */
+        IGNORE,
+
+        /** Mismatch is logged, unpacked content is kept. */
+        WARN,
+
+        /** Mismatch fails the unpack and the artifact isn't recorded as unpacked. */
+        FAIL
+    }
+
     /**
      * @author Aleksey Fomkin
      */
@@ -44,6 +127,122 @@ public class UnpackHelper {
         }
     }
 
+    /**
+     * Thrown by {@link #unpackAll} when some artifacts are not unpacked.
+     */
+    public class BatchUnpackException extends MojoFailureException {
+
+        private final List<File> unpacked;
+
+        private final Map<File, MojoFailureException> failures;
+
+        public BatchUnpackException(List<File> unpacked, Map<File, MojoFailureException> failures) {
+            super(buildMessage(failures));
+            this.unpacked = Collections.unmodifiableList(unpacked);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return directories unpacked successfully.
+         */
+        public List<File> getUnpacked() {
+            return unpacked;
+        }
+
+        /**
+         * @return failure of every directory which is not unpacked.
+         */
+        public Map<File, MojoFailureException> getFailures() {
+            return failures;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private UnpackCache unpackCache;
+
+    private UnpackListener listener;
+
+    private ChecksumPolicy checksumPolicy = ChecksumPolicy.IGNORE;
+
+    private Map<String, Checksum> checksums = new HashMap<String, Checksum>();
+
+    private boolean sync;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public UnpackCache getUnpackCache() {
+        return unpackCache;
+    }
+
+    /**
+     * When set, artifacts are extracted once into the shared cache and
+     * directories are populated from it. Null (default) extracts directly.
+     */
+    public void setUnpackCache(UnpackCache unpackCache) {
+        this.unpackCache = unpackCache;
+    }
+
+    public UnpackListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener notified after every successful unpack call, may be null.
+     */
+    public void setListener(UnpackListener listener) {
+        this.listener = listener;
+    }
+
+    public ChecksumPolicy getChecksumPolicy() {
+        return checksumPolicy;
+    }
+
+    /**
+     * Unless {@link ChecksumPolicy#IGNORE} (default), artifact files are
+     * checked against a configured checksum or the `.sha256` or `.sha1`
+     * file stored next to them by the repository. Digest is computed while
+     * the archive is read for extraction. Artifacts without any checksum are
+     * unpacked unchecked.
+     */
+    public void setChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        this.checksumPolicy = checksumPolicy;
+    }
+
+    public Map<String, Checksum> getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * @param checksums expected checksums by artifact
+     * `groupId:artifactId:type:classifier:version`, preferred over checksum files.
+     */
+    public void setChecksums(Map<String, Checksum> checksums) {
+        this.checksums = checksums;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * When true, files written by {@link EntryUnpackMethod}s are forced to
+     * disk, and their directories once per unpack, before the manifest is
+     * written. False by default, so after a system crash the manifest may
+     * describe data which never reached the disk.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
     //-------------------------------------------------------------------------
     //
     //  Public methods
@@ -58,7 +257,239 @@ public class UnpackHelper {
     public void unpack(File directory, Artifact artifact,
                        Map<String, UnpackMethod> unpackMethods,
                        Log log) throws MojoFailureException {
-        unpack(directory, artifact.getFile(), getUnpackMethod(artifact.getType(), unpackMethods, log), log);
+        unpack(directory, artifact, unpackMethods, null, log);
+    }
+
+    /**
+     * Unpacks only the entries of `artifact` selected by `filter`. Selection
+     * is a part of the unpacked content identity, so changing it unpacks
+     * the artifact again; entries no longer selected are removed as stale.
+     * Unpack method must be a {@link SelectiveUnpackMethod} unless an unpack
+     * cache is set.
+     *
+     * @param filter selection of entries, null for all.
+     */
+    public void unpack(File directory, Artifact artifact,
+                       Map<String, UnpackMethod> unpackMethods,
+                       EntryFilter filter, Log log) throws MojoFailureException {
+        unpack(directory, artifact.getFile(), getSource(artifact),
+                getUnpackMethod(artifact.getType(), unpackMethods, log), normalize(filter), log);
+    }
+
+    /**
+     * Unpacks `artifact` while it is being downloaded from `download`. All
+     * downloaded bytes are stored to `artifact.getFile()`, which must not
+     * exist yet. Extraction overlaps the transfer only for a fresh
+     * `directory`, a {@link StreamUnpackMethod} and no unpack cache;
+     * otherwise, or if streamed extraction fails, the artifact is unpacked
+     * from the stored file. Stream is closed.
+     *
+     * Whatever the checksum policy, downloaded bytes are checked against a
+     * configured checksum or the `.sha1` file stored next to the artifact
+     * before they are stored; on a mismatch nothing is stored.
+     */
+    public void unpack(File directory, Artifact artifact, InputStream download,
+                       Map<String, UnpackMethod> unpackMethods,
+                       Log log) throws MojoFailureException {
+        unpack(directory, artifact, download, unpackMethods, null, log);
+    }
+
+    /**
+     * Same as {@link #unpack(File, Artifact, InputStream, Map, Log)}, but
+     * only entries selected by `filter` are extracted.
+     *
+     * @param filter selection of entries, null for all.
+     */
+    public void unpack(File directory, Artifact artifact, InputStream download,
+                       Map<String, UnpackMethod> unpackMethods,
+                       EntryFilter filter, Log log) throws MojoFailureException {
+
+        filter = normalize(filter);
+        File artifactFile = artifact.getFile();
+        String source = getSource(artifact);
+        UnpackMethod unpackMethod = getUnpackMethod(artifact.getType(), unpackMethods, log);
+        UnpackMetrics metrics = new UnpackMetrics(source, directory);
+        long started = System.nanoTime();
+
+        try {
+            try {
+                prepareDirectory(directory, log);
+
+                StreamingResult result = StreamingResult.NOT_STARTED;
+
+                Checksum checksum = findChecksum(source, artifactFile);
+
+                if (unpackCache == null && unpackMethod instanceof StreamUnpackMethod) {
+                    result = unpackStreaming(directory, artifactFile, source, download,
+                            (StreamUnpackMethod) unpackMethod, filter, checksum, metrics, log);
+                }
+
+                if (result == StreamingResult.UNPACKED) {
+                    metrics.setUnpackNanos(System.nanoTime() - started);
+                    fireUnpacked(metrics);
+                    return;
+                }
+
+                if (result == StreamingResult.NOT_STARTED) {
+                    store(download, artifactFile, checksum);
+                }
+            } finally {
+                download.close();
+            }
+        } catch (IOException e) {
+            throw new UnpackHelperException("Can't download " + artifactFile, e);
+        } catch (UnpackMethod.UnpackMethodException e) {
+            throw new UnpackHelperException("Can't download " + artifactFile, e);
+        }
+
+        unpack(directory, artifactFile, source, unpackMethod, filter, log);
+    }
+
+    /**
+     * Indexes `artifact` into `directory` instead of unpacking it; entries
+     * are extracted when asked for through the returned object. Building
+     * the index reads only the zip central directory, or decompresses a
+     * tar archive once without writing anything. Entries of another
+     * artifact version unpacked there before are removed. When the unpack
+     * method isn't an {@link IndexedUnpackMethod}, artifact is unpacked
+     * fully.
+     */
+    public LazyUnpackedArtifact unpackLazily(File directory, Artifact artifact,
+                                             Map<String, UnpackMethod> unpackMethods,
+                                             Log log) throws MojoFailureException {
+
+        File artifactFile = artifact.getFile();
+        String source = getSource(artifact);
+        UnpackMethod unpackMethod = getUnpackMethod(artifact.getType(), unpackMethods, log);
+
+        if (!(unpackMethod instanceof IndexedUnpackMethod)) {
+            if (log != null) log.info(artifact.getType() + " can't be unpacked lazily, unpacking all");
+            unpack(directory, artifactFile, source, unpackMethod, null, log);
+            return new LazyUnpackedArtifact(directory, artifactFile, null, null);
+        }
+
+        prepareDirectory(directory, log);
+
+        IndexedUnpackMethod indexedUnpackMethod = (IndexedUnpackMethod) unpackMethod;
+        File indexFile = new File(directory, UNPACK_INDEX_FILE);
+        String identity = getIdentity(source, artifactFile, null);
+        UnpackMetrics metrics = new UnpackMetrics(source, directory);
+        long started = System.nanoTime();
+        ArchiveIndex index;
+
+        try {
+            index = readIndex(indexFile, identity);
+
+            if (index != null) {
+                logAlreadyUnpacked();
+                metrics.setAlreadyUnpacked(true);
+            } else {
+                DirectoryLock lock = DirectoryLock.acquire(directory, log);
+
+                try {
+                    index = readIndex(indexFile, identity);
+
+                    if (index != null) {
+                        logAlreadyUnpacked();
+                        metrics.setAlreadyUnpacked(true);
+                    } else {
+                        index = createIndex(directory, artifactFile, identity, indexedUnpackMethod, log);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new UnpackHelperException("Can't index " + artifactFile, e);
+        } catch (UnpackMethod.UnpackMethodException e) {
+            throw new UnpackHelperException("Can't index " + artifactFile, e);
+        }
+
+        metrics.setEntryCount(index.getEntries().size());
+        metrics.setUnpackNanos(System.nanoTime() - started);
+        fireUnpacked(metrics);
+
+        return new LazyUnpackedArtifact(directory, artifactFile, indexedUnpackMethod, index);
+    }
+
+    public void unpackAll(Map<File, Artifact> artifacts, Map<String, UnpackMethod> unpackMethods,
+                          Log log) throws MojoFailureException {
+        unpackAll(artifacts, unpackMethods, DEFAULT_UNPACK_THREADS, log);
+    }
+
+    /**
+     * Unpacks every artifact into its directory, up to `threads` artifacts
+     * at once. The limit bounds concurrent disk I/O; unpack methods may
+     * still use several threads for one artifact. Largest artifacts start
+     * first, so the batch doesn't end waiting for one of them. Every
+     * directory is handled the same way as by {@link #unpack(File, Artifact, Map, Log)},
+     * so directories already unpacked are skipped and those unpacked by
+     * other processes at the same time are waited for.
+     *
+     * @param artifacts artifacts by target directory
+     * @throws BatchUnpackException when some artifacts are not unpacked,
+     * after all others are.
+     */
+    public void unpackAll(Map<File, Artifact> artifacts, final Map<String, UnpackMethod> unpackMethods,
+                          int threads, final Log log) throws MojoFailureException {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        if (artifacts.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<File, Artifact>> entries = new ArrayList<Map.Entry<File, Artifact>>(artifacts.entrySet());
+
+        Collections.sort(entries, new Comparator<Map.Entry<File, Artifact>>() {
+            @Override
+            public int compare(Map.Entry<File, Artifact> a, Map.Entry<File, Artifact> b) {
+                return Long.valueOf(getLength(b.getValue())).compareTo(getLength(a.getValue()));
+            }
+        });
+
+        int poolSize = Math.min(threads, entries.size());
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("artifact-unpack"));
+        List<File> unpacked = new ArrayList<File>();
+        Map<File, MojoFailureException> failures = new LinkedHashMap<File, MojoFailureException>();
+
+        try {
+            Map<File, Future<Void>> futures = new LinkedHashMap<File, Future<Void>>();
+
+            for (final Map.Entry<File, Artifact> entry : entries) {
+                futures.put(entry.getKey(), executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws MojoFailureException {
+                        unpack(entry.getKey(), entry.getValue(), unpackMethods, log);
+                        return null;
+                    }
+                }));
+            }
+
+            // Report in order of `artifacts`.
+            for (File directory : artifacts.keySet()) {
+                try {
+                    futures.get(directory).get();
+                    unpacked.add(directory);
+                } catch (ExecutionException e) {
+                    failures.put(directory, toMojoFailure(directory, e.getCause()));
+                }
+            }
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while unpacking artifacts");
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new BatchUnpackException(unpacked, failures);
+        }
     }
 
     public void unpack(File directory, ArtifactDownload artifactDownload,
@@ -72,7 +503,8 @@ public class UnpackHelper {
                        Log log) throws MojoFailureException {
         org.sonatype.aether.artifact.Artifact artifact = artifactDownload.getArtifact();
         if (artifact != null) {
-            unpack(directory, artifactDownload.getFile(), getUnpackMethod(artifact.getExtension(), unpackMethods, log), log);
+            unpack(directory, artifactDownload.getFile(), artifact.toString(),
+                    getUnpackMethod(artifact.getExtension(), unpackMethods, log), null, log);
         } else {
             throw new MojoFailureException(artifactDownload + " has no valid artifact reference.");
         }
@@ -81,6 +513,10 @@ public class UnpackHelper {
     private UnpackMethod getUnpackMethod(String type, Map<String, UnpackMethod> unpackMethodMap, Log log) throws MojoFailureException {
         if (log != null) log.info("getting method for artifact type " + type);
         UnpackMethod unpackMethod = unpackMethodMap.get(type);
+        if (unpackMethod == null && unpackMethodMap.containsKey(DefaultUnpackMethods.AUTO)) {
+            if (log != null) log.info("no method for artifact type " + type + ", detecting archive format");
+            unpackMethod = unpackMethodMap.get(DefaultUnpackMethods.AUTO);
+        }
         if (unpackMethod == null) {
             throw new MojoFailureException(String.format("unknown type: %s", type));
         }
@@ -88,16 +524,547 @@ public class UnpackHelper {
     }
 
     /**
-     * Unpack `artifact` to `directory`.
+     * Unpack `artifact` to `directory`. When the directory has a manifest of
+     * another artifact version, only changed entries are rewritten (for
+     * {@link EntryUnpackMethod}s) and stale ones are removed (also for zip
+     * files unpacked by other methods). Concurrent unpacks
+     * into the same directory, from threads or other processes, are
+     * serialized with {@link DirectoryLock}; the first one extracts and the
+     * others find the manifest once they get the lock.
      * @throws UnpackHelperException
      */
-    private void unpack(File directory, File artifactFile,
-                        UnpackMethod unpackMethod,
+    private void unpack(File directory, File artifactFile, String source,
+                        UnpackMethod unpackMethod, EntryFilter filter,
                         Log log) throws MojoFailureException {
 
+        prepareDirectory(directory, log);
+
+        File manifestFile = new File(directory, UNPACK_MANIFEST_FILE);
+        String identity = getIdentity(source, artifactFile, filter);
+        UnpackMetrics metrics = new UnpackMetrics(source, directory);
+        long started = System.nanoTime();
+
+        try {
+            if (isUnpacked(manifestFile, identity)) {
+                if (log != null) log.info("already unpacked?");
+                logAlreadyUnpacked();
+                metrics.setAlreadyUnpacked(true);
+            } else {
+                DirectoryLock lock = DirectoryLock.acquire(directory, log);
+
+                try {
+                    UnpackManifest previous = UnpackManifest.read(manifestFile);
+
+                    if (previous != null && identity.equals(previous.getSource())) {
+                        if (log != null) log.info("unpacked concurrently");
+                        logAlreadyUnpacked();
+                        metrics.setAlreadyUnpacked(true);
+                    } else {
+                        tryUnpacking(directory, artifactFile, identity, previous, unpackMethod, filter,
+                                getExpectedChecksum(source, artifactFile), metrics, log);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new UnpackHelperException("Can't read manifest " + manifestFile, e);
+        }
+
+        metrics.setUnpackNanos(System.nanoTime() - started);
+        fireUnpacked(metrics);
+    }
+
+    /**
+     * Must be called holding {@link DirectoryLock} of `directory`.
+     */
+    private void tryUnpacking(File directory, File artifactFile, String identity, UnpackManifest previous,
+                              UnpackMethod unpackMethod, EntryFilter filter, Checksum checksum,
+                              UnpackMetrics metrics, Log log) throws UnpackHelperException {
+        try {
+            logUnpacking();
+            if (log != null) log.info("artifact file: " + artifactFile);
+
+            File manifestFile = new File(directory, UNPACK_MANIFEST_FILE);
+
+            if (previous == null && FileTrees.isEmpty(directory.toPath())) {
+                unpackStaged(directory, artifactFile, identity, unpackMethod, filter, checksum, metrics, log);
+                return;
+            }
+
+            if (previous == null) {
+                // Entries materialized from an index of an earlier lazy unpack.
+                previous = toManifest(ArchiveIndex.read(new File(directory, UNPACK_INDEX_FILE)));
+            }
+
+            // Directory content is in flux until the new manifest is written.
+            Files.deleteIfExists(manifestFile.toPath());
+            Files.deleteIfExists(new File(directory, UNPACK_INDEX_FILE).toPath());
+
+            // Checksum mismatch leaves no manifest, so the directory is unpacked again next time.
+            UnpackManifest manifest = unpackInto(directory, artifactFile, previous, unpackMethod, filter,
+                    checksum, metrics, log);
+
+            int removed = manifest.removeStale(previous, directory);
+            if (log != null && removed > 0) log.info("removed " + removed + " stale entries");
+
+            manifest.setSource(identity);
+            manifest.write(manifestFile);
+            Files.deleteIfExists(Paths.get(directory.getAbsolutePath(), UNPACKED_COMPLETED_FLAG_FILE));
+        } catch (IOException e) {
+            throw new UnpackHelperException("Can't unpack " + artifactFile, e);
+        } catch (UnpackMethod.UnpackMethodException e) {
+            throw new UnpackHelperException("Can't unpack " + artifactFile, e);
+        }
+    }
+
+    /**
+     * Fresh unpack goes to a sibling staging directory which is renamed over
+     * the empty `directory`, so its content appears complete or not at all.
+     */
+    private void unpackStaged(File directory, File artifactFile, String identity, UnpackMethod unpackMethod,
+                              EntryFilter filter, Checksum checksum, UnpackMetrics metrics,
+                              Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        File staging = createStaging(directory);
+
+        try {
+            UnpackManifest manifest = unpackInto(staging, artifactFile, null, unpackMethod, filter,
+                    checksum, metrics, log);
+            manifest.setSource(identity);
+            manifest.write(new File(staging, UNPACK_MANIFEST_FILE));
+            moveIntoPlace(staging, directory);
+        } finally {
+            FileTrees.delete(staging.toPath());
+        }
+    }
+
+    /**
+     * Removes what an earlier unpack left in `directory` and writes index of
+     * `artifactFile`. Must be called holding {@link DirectoryLock} of `directory`.
+     */
+    private ArchiveIndex createIndex(File directory, File artifactFile, String identity,
+                                     IndexedUnpackMethod unpackMethod,
+                                     Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        logUnpacking();
+        if (log != null) log.info("indexing " + artifactFile);
+
+        File indexFile = new File(directory, UNPACK_INDEX_FILE);
+        File manifestFile = new File(directory, UNPACK_MANIFEST_FILE);
+        UnpackManifest empty = new UnpackManifest();
+
+        empty.removeStale(toManifest(ArchiveIndex.read(indexFile)), directory);
+        empty.removeStale(UnpackManifest.read(manifestFile), directory);
+        Files.deleteIfExists(manifestFile.toPath());
+        Files.deleteIfExists(Paths.get(directory.getAbsolutePath(), UNPACKED_COMPLETED_FLAG_FILE));
+
+        ArchiveIndex index = unpackMethod.index(artifactFile);
+        index.setSource(identity);
+        index.write(indexFile);
+
+        return index;
+    }
+
+    /**
+     * Extracts `download` into staging directory and stores it to
+     * `artifactFile` in one pass. Checkpoints a
+     * {@link CheckpointingUnpackMethod} records on the way are stored next
+     * to `artifactFile`.
+     *
+     * When `checksum` is not null, it is checked before `artifactFile` is
+     * stored, also when extraction failed. A download failing the check
+     * isn't stored.
+     *
+     * @return {@link StreamingResult#DOWNLOADED} when extraction failed but
+     * `artifactFile` is complete.
+     */
+    private StreamingResult unpackStreaming(File directory, File artifactFile, String source, InputStream download,
+                                            StreamUnpackMethod unpackMethod, EntryFilter filter, Checksum checksum,
+                                            UnpackMetrics metrics,
+                                            Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        DirectoryLock lock = DirectoryLock.acquire(directory, log);
+
+        try {
+            if (!FileTrees.isEmpty(directory.toPath())) {
+                return StreamingResult.NOT_STARTED;
+            }
+
+            logUnpacking();
+            if (log != null) log.info("unpacking " + artifactFile + " while downloading");
+
+            File parent = artifactFile.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("could not create directory: " + parent);
+            }
+
+            File partFile = new File(parent, artifactFile.getName() + "." + UUID.randomUUID() + ".part");
+            File staging = createStaging(directory);
+
+            try {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(partFile), EntryWriter.BUFFER_SIZE);
+                MessageDigest digest = checksum != null ? checksum.createDigest() : null;
+                TeeInputStream tee = new TeeInputStream(
+                        digest != null ? new DigestInputStream(download, digest) : download, out);
+                EntryWriter writer = createWriter(staging, null, filter);
+                GzipCheckpointIndex checkpoints = null;
+                Exception failure = null;
+
+                try {
+                    try {
+                        if (unpackMethod instanceof CheckpointingUnpackMethod) {
+                            checkpoints = ((CheckpointingUnpackMethod) unpackMethod)
+                                    .unpackCheckpointed(tee, writer, log);
+                        } else {
+                            unpackMethod.unpack(tee, writer, log);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (UnpackMethod.UnpackMethodException e) {
+                        failure = e;
+                    }
+
+                    if (tee.getSourceFailure() != null) {
+                        throw tee.getSourceFailure();
+                    }
+
+                    tee.drain();
+                } finally {
+                    out.close();
+                }
+
+                if (digest != null) {
+                    verifyDownload(checksum, UnpackCache.hex(digest.digest()), artifactFile, log);
+                }
+
+                Files.move(partFile.toPath(), artifactFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                if (failure != null) {
+                    // Downloaded file is complete, unpack it the usual way.
+                    if (log != null) log.warn("streamed unpack of " + artifactFile + " failed: " + failure.getMessage());
+                    return StreamingResult.DOWNLOADED;
+                }
+
+                if (checkpoints != null) {
+                    try {
+                        checkpoints.write(artifactFile);
+                    } catch (IOException e) {
+                        if (log != null) log.debug("Can't store checkpoints of " + artifactFile + ": " + e);
+                    }
+                }
+
+                writer.finish();
+                UnpackManifest manifest = writer.getManifest();
+                metrics.setStreamed(true);
+                metrics.setBytesRead(tee.getCount());
+                recordWriter(metrics, writer);
+
+                manifest.setSource(getIdentity(source, artifactFile, filter));
+                manifest.write(new File(staging, UNPACK_MANIFEST_FILE));
+                moveIntoPlace(staging, directory);
+                return StreamingResult.UNPACKED;
+
+            } finally {
+                Files.deleteIfExists(partFile.toPath());
+                FileTrees.delete(staging.toPath());
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * When `checksum` is not null, digest of `artifactFile` is computed from
+     * the reads of extraction for {@link DigestingUnpackMethod}s, parallel
+     * ones included, and {@link StreamUnpackMethod}s. For others it is
+     * computed on a concurrent sequential read, which is served by the page
+     * cache the extraction warms up. With an unpack cache, it is computed in
+     * the read naming the cached tree.
+     *
+     * @return manifest of unpacked entries, empty when unpack method can't tell them.
+     */
+    private UnpackManifest unpackInto(File directory, File artifactFile, UnpackManifest previous,
+                                      UnpackMethod unpackMethod, EntryFilter filter, Checksum checksum,
+                                      UnpackMetrics metrics,
+                                      Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        if (unpackCache != null) {
+
+            if (checksum != null) {
+                // Remembered with the store digest, only the first build reads the file for it.
+                verify(checksum, unpackCache.digest(artifactFile, checksum.getAlgorithm()), artifactFile, log);
+            }
+
+            boolean hit = unpackCache.unpack(artifactFile, unpackMethod, directory, filter, log);
+            UnpackManifest manifest = UnpackManifest.scan(unpackCache.getTree(unpackCache.digest(artifactFile)));
+
+            if (filter != null) {
+                manifest = manifest.select(filter);
+            }
+
+            metrics.setSharedCacheHit(hit);
+            metrics.setBytesRead(hit ? 0 : artifactFile.length());
+            metrics.setEntryCount(manifest.getEntries().size());
+            return manifest;
+        }
+
+        metrics.setBytesRead(artifactFile.length());
+
+        if (checksum == null) {
+            return unpackFile(directory, artifactFile, previous, unpackMethod, filter, metrics, log);
+        }
+
+        if (unpackMethod instanceof DigestingUnpackMethod) {
+
+            EntryWriter writer = createWriter(directory, previous, filter);
+            FileDigest digest = new FileDigest(artifactFile, checksum.createDigest());
+            ((DigestingUnpackMethod) unpackMethod).unpack(artifactFile, writer, digest, log);
+
+            verify(checksum, UnpackCache.hex(digest.finish()), artifactFile, log);
+            writer.finish();
+            recordWriter(metrics, writer);
+            return writer.getManifest();
+        }
+
+        if (unpackMethod instanceof StreamUnpackMethod) {
+
+            UnpackManifest manifest = unpackDigesting(directory, artifactFile, previous,
+                    (StreamUnpackMethod) unpackMethod, filter, checksum, metrics, log);
+
+            if (manifest != null) {
+                return manifest;
+            }
+        }
+
+        Future<String> digest = startDigest(artifactFile, checksum);
+
+        try {
+            UnpackManifest manifest = unpackFile(directory, artifactFile, previous, unpackMethod, filter, metrics, log);
+            verify(checksum, getDigest(digest), artifactFile, log);
+            return manifest;
+        } finally {
+            digest.cancel(true);
+        }
+    }
+
+    private UnpackManifest unpackFile(File directory, File artifactFile, UnpackManifest previous,
+                                      UnpackMethod unpackMethod, EntryFilter filter, UnpackMetrics metrics,
+                                      Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        if (unpackMethod instanceof EntryUnpackMethod) {
+            EntryWriter writer = createWriter(directory, previous, filter);
+            ((EntryUnpackMethod) unpackMethod).unpack(artifactFile, writer, log);
+            writer.finish();
+            recordWriter(metrics, writer);
+            return writer.getManifest();
+        }
+
+        if (filter == null) {
+            unpackMethod.unpack(artifactFile, directory, log);
+        } else if (unpackMethod instanceof SelectiveUnpackMethod) {
+            ((SelectiveUnpackMethod) unpackMethod).unpack(artifactFile, directory, filter, log);
+        } else {
+            throw new UnpackMethod.UnpackMethodException(unpackMethod.getClass().getName()
+                    + " doesn't support include and exclude patterns");
+        }
+
+        // Other unpack methods don't tell what they wrote. A scan also lists
+        // what an earlier unpack left, so stale entries aren't removed then.
+        UnpackManifest manifest = listZip(directory, artifactFile, filter);
+        UnpackManifest scanned = manifest == null || listener != null ? UnpackManifest.scan(directory) : null;
+
+        if (listener != null) {
+            recordScan(metrics, scanned);
+        }
+
+        return manifest != null ? manifest : scanned;
+    }
+
+    /**
+     * Extracts `artifactFile` read as a stream through the digest.
+     *
+     * @return null when extraction hit a false bzip2 block boundary, what
+     * was written is removed then and the file has to be unpacked the usual
+     * way.
+     */
+    private UnpackManifest unpackDigesting(File directory, File artifactFile, UnpackManifest previous,
+                                           StreamUnpackMethod unpackMethod, EntryFilter filter, Checksum checksum,
+                                           UnpackMetrics metrics,
+                                           Log log) throws IOException, UnpackMethod.UnpackMethodException {
+
+        MessageDigest digest = checksum.createDigest();
+        InputStream in = new DigestInputStream(
+                new BufferedInputStream(new FileInputStream(artifactFile), EntryWriter.BUFFER_SIZE), digest);
+        EntryWriter writer = createWriter(directory, previous, filter);
+
+        try {
+            try {
+                unpackMethod.unpack(in, writer, log);
+            } catch (IOException e) {
+
+                if (!ParallelBZip2InputStream.isBlockDecodeFailure(e)) {
+                    throw e;
+                }
+
+                if (log != null) log.warn("unpack of " + artifactFile + " failed, unpacking again: " + e.getMessage());
+                writer.discard();
+                return null;
+            }
+
+            // Digest covers trailing bytes after the end of archive too.
+            byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Data goes to digest.
+            }
+        } finally {
+            in.close();
+        }
+
+        verify(checksum, UnpackCache.hex(digest.digest()), artifactFile, log);
+        writer.finish();
+        recordWriter(metrics, writer);
+        return writer.getManifest();
+    }
+
+    private static Future<String> startDigest(final File artifactFile, final Checksum checksum) {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("checksum"));
+
+        try {
+            return executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return UnpackCache.hex(UnpackCache.hash(artifactFile, checksum.getAlgorithm()));
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String getDigest(Future<String> digest) throws IOException, UnpackMethod.UnpackMethodException {
+
+        try {
+            return digest.get();
+        } catch (ExecutionException e) {
+
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new UnpackMethod.UnpackMethodException("Can't compute checksum", e.getCause());
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new UnpackMethod.UnpackMethodException("Interrupted while computing checksum", e);
+        }
+    }
+
+    /**
+     * @return checksum `artifactFile` must match, or null when it isn't checked.
+     */
+    private Checksum getExpectedChecksum(String source, File artifactFile) throws UnpackHelperException {
+
+        return checksumPolicy != ChecksumPolicy.IGNORE ? findChecksum(source, artifactFile) : null;
+    }
+
+    /**
+     * @return configured checksum of `source` or the one stored next to
+     * `artifactFile`, null when there is none.
+     */
+    private Checksum findChecksum(String source, File artifactFile) throws UnpackHelperException {
+
+        Checksum checksum = checksums != null ? checksums.get(source) : null;
+
+        if (checksum != null) {
+            return checksum;
+        }
+
+        try {
+            return Checksum.readSidecar(artifactFile);
+        } catch (IOException e) {
+            throw new UnpackHelperException("Can't read checksum of " + artifactFile, e);
+        }
+    }
+
+    /**
+     * Unlike {@link #verify(Checksum, String, File, Log)}, fails on mismatch
+     * whatever the policy: a corrupt download must not reach the local
+     * repository.
+     */
+    private static void verifyDownload(Checksum expected, String digest, File artifactFile,
+                                       Log log) throws UnpackMethod.UnpackMethodException {
+
+        if (!expected.matches(digest)) {
+            throw new UnpackMethod.UnpackMethodException(
+                    artifactFile + " doesn't match checksum " + expected + ", actual is " + digest);
+        }
+
+        if (log != null) log.debug(artifactFile + " matches " + expected);
+    }
+
+    private void verify(Checksum expected, String digest, File artifactFile,
+                        Log log) throws UnpackMethod.UnpackMethodException {
+
+        if (expected.matches(digest)) {
+            if (log != null) log.debug(artifactFile + " matches " + expected);
+            return;
+        }
+
+        String message = artifactFile + " doesn't match checksum " + expected + ", actual is " + digest;
+
+        if (checksumPolicy == ChecksumPolicy.FAIL) {
+            throw new UnpackMethod.UnpackMethodException(message);
+        }
+
+        if (log != null) log.warn(message);
+    }
+
+    private void fireUnpacked(UnpackMetrics metrics) {
+        if (listener != null) listener.artifactUnpacked(metrics);
+    }
+
+    /**
+     * @return writer applying attributes in one batch, {@link EntryWriter#finish()} must be called.
+     */
+    private EntryWriter createWriter(File directory, UnpackManifest previous, EntryFilter filter) {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setPreviousManifest(previous);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        writer.setSync(sync);
+        return writer;
+    }
+
+    private static void recordWriter(UnpackMetrics metrics, EntryWriter writer) {
+        metrics.setEntryCount(writer.getManifest().getEntries().size());
+        metrics.setBytesWritten(writer.getBytesWritten());
+        metrics.setDecompressNanos(writer.getReadNanos());
+        metrics.setWriteNanos(writer.getWriteNanos());
+    }
+
+    private static void recordScan(UnpackMetrics metrics, UnpackManifest manifest) {
+
+        long bytes = 0;
+
+        for (UnpackManifest.Entry entry : manifest.getEntries()) {
+            if (entry.getType() == UnpackManifest.FILE) {
+                bytes += entry.getSize();
+            }
+        }
+
+        metrics.setEntryCount(manifest.getEntries().size());
+        metrics.setBytesWritten(bytes);
+    }
+
+    private static void prepareDirectory(File directory, Log log) throws MojoFailureException {
+
         if (!directory.exists()) {
             if (log != null) log.info("dir '" + directory + "' does not exist");
-            if (!directory.mkdirs()) {
+            if (!directory.mkdirs() && !directory.isDirectory()) {
                 throw new MojoFailureException(String.format("could not create directory: %s", directory.getAbsolutePath()));
             }
         }
@@ -105,26 +1072,172 @@ public class UnpackHelper {
         if (!directory.isDirectory()) {
             throw new MojoFailureException(directory.getAbsolutePath() + ", which must be directory for unpacking, now is file");
         }
+    }
 
-        if (Files.exists(Paths.get(directory.getAbsolutePath(), UNPACKED_COMPLETED_FLAG_FILE))) {
-            if (log != null) log.info("already unpacked?");
-            logAlreadyUnpacked();
-        } else {
-            tryUnpacking(directory, artifactFile, unpackMethod, log);
+    private static File createStaging(File directory) throws IOException {
+
+        File staging = new File(directory.getParentFile(), "." + directory.getName() + ".staging-" + UUID.randomUUID());
+
+        if (!staging.mkdir()) {
+            throw new IOException("could not create directory: " + staging);
         }
+
+        return staging;
     }
 
-    private void tryUnpacking(File directory, File artifactFile, UnpackMethod unpackMethod, Log log) throws UnpackHelperException {
+    private static void moveIntoPlace(File staging, File directory) throws IOException {
+
         try {
-            logUnpacking();
-            if (log != null) log.info("artifact file: " + artifactFile);
-            unpackMethod.unpack(artifactFile, directory, log);
-            Files.createFile(Paths.get(directory.getAbsolutePath(), UNPACKED_COMPLETED_FLAG_FILE));
+            Files.move(staging.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
-            throw new UnpackHelperException("Can't unpack " + artifactFile, e);
-        } catch (UnpackMethod.UnpackMethodException e) {
-            throw new UnpackHelperException("Can't unpack " + artifactFile, e);
+            // Renaming over an empty directory is not allowed everywhere.
+            Files.delete(directory.toPath());
+            Files.move(staging.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void store(InputStream download, File artifactFile,
+                              Checksum checksum) throws IOException, UnpackMethod.UnpackMethodException {
+
+        File parent = artifactFile.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create directory: " + parent);
+        }
+
+        Path partFile = new File(parent, artifactFile.getName() + "." + UUID.randomUUID() + ".part").toPath();
+
+        try {
+            MessageDigest digest = checksum != null ? checksum.createDigest() : null;
+            Files.copy(digest != null ? new DigestInputStream(download, digest) : download, partFile);
+
+            if (digest != null) {
+                verifyDownload(checksum, UnpackCache.hex(digest.digest()), artifactFile, null);
+            }
+
+            Files.move(partFile, artifactFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    private static String getIdentity(String source, File artifactFile, EntryFilter filter) {
+
+        String identity = source + "|" + artifactFile.length() + "|" + artifactFile.lastModified();
+        return filter == null ? identity : identity + "|" + filter;
+    }
+
+    private static ArchiveIndex readIndex(File indexFile, String identity) throws IOException {
+        ArchiveIndex index = ArchiveIndex.read(indexFile);
+        return index != null && identity.equals(index.getSource()) ? index : null;
+    }
+
+    /**
+     * @return manifest listing entries of `index` with their size and CRC, null if `index` is null.
+     */
+    private static UnpackManifest toManifest(ArchiveIndex index) {
+
+        if (index == null) {
+            return null;
         }
+
+        UnpackManifest manifest = new UnpackManifest(index.getSource());
+
+        for (ArchiveIndex.Entry entry : index.getEntries()) {
+
+            char type = entry.getType() == ArchiveIndex.DIRECTORY ? UnpackManifest.DIRECTORY
+                    : entry.getType() == ArchiveIndex.SYMLINK ? UnpackManifest.LINK : UnpackManifest.FILE;
+
+            manifest.add(new UnpackManifest.Entry(type, entry.getName(), entry.getSize(), entry.getCrc()));
+        }
+
+        return manifest;
+    }
+
+    /**
+     * @return manifest listing entries of zip `artifactFile` selected by
+     * `filter` as they are unpacked into `directory`, with their size and
+     * CRC, null if it isn't a zip file.
+     */
+    private static UnpackManifest listZip(File directory, File artifactFile, EntryFilter filter) throws IOException {
+
+        FileChannel channel = FileChannel.open(artifactFile.toPath(), StandardOpenOption.READ);
+        ZipCentralDirectory zip;
+
+        try {
+            zip = ZipCentralDirectory.read(channel);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            channel.close();
+        }
+
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        UnpackManifest manifest = new UnpackManifest();
+
+        for (ZipCentralDirectory.Entry entry : zip.getEntries()) {
+
+            if (filter != null && !filter.accepts(entry.getName())) {
+                continue;
+            }
+
+            Path path = root.resolve(entry.getName().replaceFirst("^[/\\\\]+", "")).normalize();
+
+            if (!path.startsWith(root) || path.equals(root)) {
+                continue;
+            }
+
+            String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+
+            if (entry.isDirectory()) {
+                manifest.add(new UnpackManifest.Entry(UnpackManifest.DIRECTORY, name + "/",
+                        UnpackManifest.UNKNOWN, UnpackManifest.UNKNOWN));
+            } else {
+                char type = entry.isSymlink() ? UnpackManifest.LINK : UnpackManifest.FILE;
+                manifest.add(new UnpackManifest.Entry(type, name, entry.getSize(), entry.getCrc()));
+            }
+        }
+
+        return manifest;
+    }
+
+    private static long getLength(Artifact artifact) {
+        return artifact.getFile() != null ? artifact.getFile().length() : 0;
+    }
+
+    private static MojoFailureException toMojoFailure(File directory, Throwable cause) {
+
+        if (cause instanceof MojoFailureException) {
+            return (MojoFailureException) cause;
+        }
+
+        MojoFailureException failure = new MojoFailureException("Failed to unpack into " + directory);
+        failure.initCause(cause);
+        return failure;
+    }
+
+    private static String buildMessage(Map<File, MojoFailureException> failures) {
+
+        StringBuilder message = new StringBuilder("Failed to unpack " + failures.size() + " artifact(s):");
+
+        for (Map.Entry<File, MojoFailureException> entry : failures.entrySet()) {
+            message.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue().getMessage());
+        }
+
+        return message.toString();
+    }
+
+    private static EntryFilter normalize(EntryFilter filter) {
+        return filter == null || filter.isEmpty() ? null : filter;
+    }
+
+    static String getSource(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType()
+                + ":" + artifact.getClassifier() + ":" + artifact.getVersion();
+    }
+
+    private static boolean isUnpacked(File manifestFile, String identity) throws IOException {
+        UnpackManifest manifest = UnpackManifest.read(manifestFile);
+        return manifest != null && identity.equals(manifest.getSource());
     }
 
     //-------------------------------------------------------------------------
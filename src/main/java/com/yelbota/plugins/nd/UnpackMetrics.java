@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import java.io.File;
+
+/**
+ * What one {@link UnpackHelper#unpack} call did. Decompress and write
+ * times are summed over all threads of parallel unpack methods and are
+ * known only for {@link com.yelbota.plugins.nd.utils.EntryUnpackMethod}s
+ * and streamed unpacks.
+ */
+public class UnpackMetrics {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final String artifact;
+
+    private final File directory;
+
+    private boolean alreadyUnpacked;
+
+    private boolean sharedCacheHit;
+
+    private boolean streamed;
+
+    private long bytesRead;
+
+    private long bytesWritten;
+
+    private int entryCount;
+
+    private long unpackNanos;
+
+    private long decompressNanos;
+
+    private long writeNanos;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public UnpackMetrics(String artifact, File directory) {
+        this.artifact = artifact;
+        this.directory = directory;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public String getArtifact() {
+        return artifact;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return true if the manifest check found the artifact unpacked and nothing was done.
+     */
+    public boolean isAlreadyUnpacked() {
+        return alreadyUnpacked;
+    }
+
+    void setAlreadyUnpacked(boolean alreadyUnpacked) {
+        this.alreadyUnpacked = alreadyUnpacked;
+    }
+
+    /**
+     * @return true if the tree was taken from {@link UnpackCache} without extraction.
+     */
+    public boolean isSharedCacheHit() {
+        return sharedCacheHit;
+    }
+
+    void setSharedCacheHit(boolean sharedCacheHit) {
+        this.sharedCacheHit = sharedCacheHit;
+    }
+
+    /**
+     * @return true if the artifact was unpacked while downloading.
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+
+    void setStreamed(boolean streamed) {
+        this.streamed = streamed;
+    }
+
+    /**
+     * @return compressed bytes of the artifact read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    void setEntryCount(int entryCount) {
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * @return wall time of the whole call.
+     */
+    public long getUnpackNanos() {
+        return unpackNanos;
+    }
+
+    void setUnpackNanos(long unpackNanos) {
+        this.unpackNanos = unpackNanos;
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    void setDecompressNanos(long decompressNanos) {
+        this.decompressNanos = decompressNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    void setWriteNanos(long writeNanos) {
+        this.writeNanos = writeNanos;
+    }
+}
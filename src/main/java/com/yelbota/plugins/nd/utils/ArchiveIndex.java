@@ -0,0 +1,381 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of contents of an archive: for every entry its type, attributes and
+ * location in the archive, so a single entry can be extracted later without
+ * unpacking the rest. Location meaning is up to the {@link IndexedUnpackMethod}
+ * which built the index. Stored as a small text file:
+ * <pre>
+ * # native dependency archive index v1
+ * source group:artifact:zip:linux:1.0|1024|1346348640000
+ * D 0 0 0 0 - 755 1346348640000 lib/
+ * F 38 7 8 7 3b8f1a2c 644 1346348640000 lib/file%201
+ * H 1536 0 0 0 - 644 1346348640000 lib/file-2 lib/file%201
+ * </pre>
+ * Columns are type, offset, length, method, size, CRC, octal mode, last
+ * modification time, name and link target; names are percent-escaped.
+ * Instances are safe for concurrent use.
+ */
+public class ArchiveIndex {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final char FILE = 'F';
+    public static final char DIRECTORY = 'D';
+    public static final char SYMLINK = 'L';
+    public static final char HARDLINK = 'H';
+
+    private static final String HEADER = "# native dependency archive index v1";
+    private static final String SOURCE_PREFIX = "source ";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    public static class Entry {
+
+        private char type;
+        private String name;
+        private long offset;
+        private long length;
+        private int method;
+        private long size;
+        private long crc = UnpackManifest.UNKNOWN;
+        private int mode;
+        private long lastModified = -1;
+        private String linkName;
+
+        public Entry(char type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        public char getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return position of entry data, or of its header, in the archive.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        void setOffset(long offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * @return number of bytes entry data takes in the archive.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        void setLength(long length) {
+            this.length = length;
+        }
+
+        /**
+         * @return compression method of the entry, 0 when not applicable.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        void setMethod(int method) {
+            this.method = method;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        void setSize(long size) {
+            this.size = size;
+        }
+
+        /**
+         * @return CRC-32 of entry content, {@link UnpackManifest#UNKNOWN} when not known.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        void setCrc(long crc) {
+            this.crc = crc;
+        }
+
+        /**
+         * @return unix permission bits, 0 when unknown.
+         */
+        public int getMode() {
+            return mode;
+        }
+
+        void setMode(int mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * @return modification time in millis, -1 when unknown.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return link target, null when it is not known without reading entry data.
+         */
+        public String getLinkName() {
+            return linkName;
+        }
+
+        void setLinkName(String linkName) {
+            this.linkName = linkName;
+        }
+
+        @Override
+        public String toString() {
+
+            StringBuilder builder = new StringBuilder();
+
+            builder.append(type).append(' ').append(offset).append(' ').append(length).append(' ')
+                    .append(method).append(' ').append(size).append(' ')
+                    .append(crc == UnpackManifest.UNKNOWN ? "-" : Long.toHexString(crc)).append(' ')
+                    .append(Integer.toOctalString(mode)).append(' ').append(lastModified).append(' ')
+                    .append(escape(name));
+
+            if (linkName != null) {
+                builder.append(' ').append(escape(linkName));
+            }
+
+            return builder.toString();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private String source;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public synchronized String getSource() {
+        return source;
+    }
+
+    public synchronized void setSource(String source) {
+        this.source = source;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Adds entry, replacing an earlier one with the same path.
+     */
+    public synchronized void add(Entry entry) {
+        entries.put(UnpackManifest.normalize(entry.getName()), entry);
+    }
+
+    /**
+     * @return entry at `path` relative to archive root, or null.
+     */
+    public synchronized Entry get(String path) {
+        return entries.get(UnpackManifest.normalize(path));
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * @return index stored in `file`, or null if there is no readable index.
+     */
+    public static ArchiveIndex read(File file) throws IOException {
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        ArchiveIndex index = new ArchiveIndex();
+        BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8);
+
+        try {
+            String line = reader.readLine();
+
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.startsWith(SOURCE_PREFIX)) {
+                    index.source = line.substring(SOURCE_PREFIX.length());
+                } else if (line.length() > 0) {
+                    index.add(parseEntry(line));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Truncated or foreign file, same as no index at all.
+            return null;
+        } finally {
+            reader.close();
+        }
+
+        return index;
+    }
+
+    /**
+     * Writes index to a temporary file which is then renamed to `file`.
+     */
+    public synchronized void write(File file) throws IOException {
+
+        Path path = file.toPath();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Writer writer = Files.newBufferedWriter(temporary, UTF_8);
+
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+
+            if (source != null) {
+                writer.write(SOURCE_PREFIX + source);
+                writer.write('\n');
+            }
+
+            for (Entry entry : entries.values()) {
+                writer.write(entry.toString());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private static Entry parseEntry(String line) {
+
+        String[] fields = line.split(" ");
+
+        if (fields.length < 9 || fields[0].length() != 1) {
+            throw new IllegalArgumentException("Malformed index entry: " + line);
+        }
+
+        Entry entry = new Entry(fields[0].charAt(0), unescape(fields[8]));
+        entry.offset = Long.parseLong(fields[1]);
+        entry.length = Long.parseLong(fields[2]);
+        entry.method = Integer.parseInt(fields[3]);
+        entry.size = Long.parseLong(fields[4]);
+        entry.crc = "-".equals(fields[5]) ? UnpackManifest.UNKNOWN : Long.parseLong(fields[5], 16);
+        entry.mode = Integer.parseInt(fields[6], 8);
+        entry.lastModified = Long.parseLong(fields[7]);
+        entry.linkName = fields.length > 9 ? unescape(fields[9]) : null;
+
+        return entry;
+    }
+
+    private static String escape(String value) {
+
+        StringBuilder builder = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            if (c == '%' || c == ' ' || c == '\n' || c == '\r') {
+                builder.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static String unescape(String value) {
+
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            if (c == '%') {
+                builder.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+}
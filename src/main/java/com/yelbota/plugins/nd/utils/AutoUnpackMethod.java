@@ -0,0 +1,593 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Unpack method which picks an engine by archive content rather than by
+ * artifact type. Format is told by magic bytes; for zip the central
+ * directory is sampled for entry count and share of stored entries, for
+ * other formats the file size is the shape. Candidate engines are tried in
+ * turn, the next one taking over when one fails. Each engine writes
+ * through a writer of its own; what a failed one wrote is removed before
+ * the next one starts. Throughput of every engine
+ * is kept per archive shape: engines not yet measured for a shape are tried
+ * first, then the fastest measured one wins.
+ *
+ * @see DefaultUnpackMethods#AUTO
+ */
+public class AutoUnpackMethod implements EntryUnpackMethod {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final String ZIP = "zip";
+    public static final String GZIP = "gzip";
+    public static final String BZIP2 = "bzip2";
+    public static final String XZ = "xz";
+    public static final String ZSTD = "zstd";
+
+    /**
+     * Fewer entries per thread don't pay for a worker pool.
+     */
+    private static final int ENTRIES_PER_THREAD = 4;
+
+    /**
+     * Compressed tarballs smaller than this aren't worth forking `tar`.
+     */
+    private static final long EXTERNAL_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int MAGIC_SIZE = 6;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Way to extract archives of one format.
+     */
+    public static abstract class Engine {
+
+        private final String name;
+
+        protected Engine(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return false if this engine can't write through `writer`, i.e. the
+         * writer filters entries.
+         */
+        public boolean supports(EntryWriter writer) {
+            return true;
+        }
+
+        public abstract void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException;
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int threads;
+
+    /**
+     * Smoothed bytes per second by `engine|shape`.
+     */
+    private final Properties history = new Properties();
+
+    private File historyFile;
+
+    private boolean historyLoaded;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public AutoUnpackMethod() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public AutoUnpackMethod(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        this.threads = threads;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public synchronized File getHistoryFile() {
+        return historyFile;
+    }
+
+    /**
+     * @param historyFile properties file timings are kept in across builds,
+     * null (default) keeps them only in memory.
+     */
+    public synchronized void setHistoryFile(File historyFile) {
+        this.historyFile = historyFile;
+        this.historyLoaded = false;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
+
+    @Override
+    public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        unpack(file, writer, log);
+        writer.finish();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  EntryUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+
+        String shape = getShape(file);
+        List<Engine> engines = order(getEngines(file, shape, writer), shape);
+
+        if (log != null) log.info("unpacking " + shape + " archive with " + engines);
+
+        Exception failure = null;
+
+        for (Engine engine : engines) {
+
+            EntryWriter attempt = createAttempt(writer);
+            long started = System.nanoTime();
+
+            try {
+                engine.unpack(file, attempt, log);
+                attempt.finish();
+                writer.include(attempt);
+                record(engine, shape, file.length(), System.nanoTime() - started);
+                return;
+            } catch (IOException e) {
+                failure = e;
+            } catch (UnpackMethodException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            record(engine, shape, 0, 0);
+            if (log != null) log.warn("engine " + engine + " failed on " + file + ": " + failure);
+            attempt.discard();
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof UnpackMethodException) {
+            throw (UnpackMethodException) failure;
+        } else if (failure != null) {
+            throw new UnpackMethodException("Can't unpack " + file, failure);
+        }
+
+        throw new UnpackMethodException("No engine can unpack " + shape + " archive " + file);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return archive format by magic bytes, i.e. {@link #ZIP}, null if it is not known.
+     */
+    public static String detectFormat(File file) throws IOException {
+
+        byte[] magic = new byte[MAGIC_SIZE];
+        InputStream in = new FileInputStream(file);
+        int count = 0;
+
+        try {
+            int read;
+
+            while (count < magic.length && (read = in.read(magic, count, magic.length - count)) != -1) {
+                count += read;
+            }
+        } finally {
+            in.close();
+        }
+
+        if (startsWith(magic, count, 'P', 'K', 3, 4) || startsWith(magic, count, 'P', 'K', 5, 6)) {
+            return ZIP;
+        } else if (startsWith(magic, count, 0x1f, 0x8b)) {
+            return GZIP;
+        } else if (startsWith(magic, count, 'B', 'Z', 'h')) {
+            return BZIP2;
+        } else if (startsWith(magic, count, 0xfd, '7', 'z', 'X', 'Z', 0)) {
+            return XZ;
+        } else if (startsWith(magic, count, 0x28, 0xb5, 0x2f, 0xfd)) {
+            return ZSTD;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return smoothed throughput in bytes per second of `engine` on
+     * archives of `shape`, -1 if it was never measured.
+     */
+    public synchronized long getThroughput(String engine, String shape) {
+
+        loadHistory();
+        String value = history.getProperty(engine + "|" + shape);
+
+        try {
+            return value != null ? Long.parseLong(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Protected methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return engines able to unpack archive of `shape`, fastest expected first.
+     */
+    protected List<Engine> getEngines(File file, String shape, EntryWriter writer) throws IOException {
+
+        String format = shape.substring(0, shape.indexOf('-'));
+        List<Engine> engines = new ArrayList<Engine>();
+
+        if (ZIP.equals(format)) {
+
+            Engine parallel = createEntryEngine("zip-parallel", new ParallelZipUnpackMethod(threads));
+            Engine sequential = createEntryEngine("zip-sequential", new ParallelZipUnpackMethod(1));
+
+            // Stored entries are copied by the kernel, one thread keeps up with the disk.
+            boolean serial = threads == 1 || shape.contains("-few") || shape.contains("-stored");
+            engines.addAll(serial ? Arrays.asList(sequential, parallel) : Arrays.asList(parallel, sequential));
+
+        } else if (GZIP.equals(format)) {
+
+            Engine stream = createEntryEngine("tgz-indexed", new TarGZipUnpackMethod(threads));
+            Engine external = createExternalEngine("tgz-external", ExternalTarUnpackMethod.GZIP);
+
+            // Forked gzip decompresses while tar writes, worth it for large tarballs.
+            boolean large = file.length() >= EXTERNAL_THRESHOLD;
+            engines.addAll(large ? Arrays.asList(external, stream) : Arrays.asList(stream, external));
+
+        } else if (BZIP2.equals(format)) {
+
+            engines.add(createEntryEngine("tbz2-parallel", new TarBZip2UnpackMethod(threads)));
+            engines.add(createExternalEngine("tbz2-external", ExternalTarUnpackMethod.BZIP2));
+
+        } else if (XZ.equals(format)) {
+
+            engines.add(createEntryEngine("txz-parallel", new TarXZUnpackMethod(threads)));
+
+        } else if (ZSTD.equals(format)) {
+
+            engines.add(createEntryEngine("tzst-stream", new TarZstdUnpackMethod()));
+        }
+
+        List<Engine> supported = new ArrayList<Engine>(engines.size());
+
+        for (Engine engine : engines) {
+            if (engine.supports(writer)) {
+                supported.add(engine);
+            }
+        }
+
+        return supported;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Engines not measured for `shape` keep their place ahead of measured
+     * ones, which go fastest first.
+     */
+    private List<Engine> order(List<Engine> engines, final String shape) {
+
+        List<Engine> ordered = new ArrayList<Engine>(engines);
+
+        Collections.sort(ordered, new Comparator<Engine>() {
+            @Override
+            public int compare(Engine a, Engine b) {
+
+                long aThroughput = getThroughput(a.getName(), shape);
+                long bThroughput = getThroughput(b.getName(), shape);
+
+                if (aThroughput < 0 || bThroughput < 0) {
+                    return aThroughput < 0 && bThroughput < 0 ? 0 : aThroughput < 0 ? -1 : 1;
+                }
+
+                return Long.valueOf(bThroughput).compareTo(aThroughput);
+            }
+        });
+
+        return ordered;
+    }
+
+    /**
+     * @param nanos 0 for a failure
+     */
+    private synchronized void record(Engine engine, String shape, long bytes, long nanos) {
+
+        long sample = nanos > 0 ? bytes * 1000000000L / nanos : 0;
+        long previous = getThroughput(engine.getName(), shape);
+        long throughput = previous < 0 ? sample : (previous * 3 + sample) / 4;
+
+        history.setProperty(engine.getName() + "|" + shape, Long.toString(throughput));
+        storeHistory();
+    }
+
+    private String getShape(File file) throws IOException, UnpackMethodException {
+
+        String format = detectFormat(file);
+
+        if (format == null) {
+            throw new UnpackMethodException("Unknown archive format of " + file);
+        }
+
+        String shape = format + "-" + getSizeClass(file.length());
+
+        if (!ZIP.equals(format)) {
+            return shape;
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        List<ZipCentralDirectory.Entry> entries;
+
+        try {
+            entries = ZipCentralDirectory.read(channel).getEntries();
+        } finally {
+            channel.close();
+        }
+
+        long stored = 0;
+        long total = 0;
+
+        for (ZipCentralDirectory.Entry entry : entries) {
+
+            total += entry.getSize();
+
+            if (entry.getMethod() == ZipCentralDirectory.METHOD_STORED) {
+                stored += entry.getSize();
+            }
+        }
+
+        return shape + (entries.size() < threads * ENTRIES_PER_THREAD ? "-few" : "-many")
+                + (total > 0 && stored * 10 >= total * 9 ? "-stored" : "");
+    }
+
+    /**
+     * @return writer into the directory of `writer` with its settings.
+     * Attributes are deferred, so a failed engine leaves no read-only
+     * directory behind.
+     */
+    private static EntryWriter createAttempt(EntryWriter writer) {
+
+        EntryWriter attempt = new EntryWriter(writer.getDirectory());
+        attempt.setFilter(writer.getFilter());
+        attempt.setPreviousManifest(writer.getPreviousManifest());
+        attempt.setSync(writer.isSync());
+        attempt.setDeferAttributes(true);
+        return attempt;
+    }
+
+    private Engine createEntryEngine(String name, final EntryUnpackMethod method) {
+
+        return new Engine(name) {
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+                method.unpack(file, writer, log);
+            }
+        };
+    }
+
+    /**
+     * `tar` writes straight into the directory, so it is used only for
+     * complete unpacks; written files are then added to the manifest. When
+     * `tar` fails, whatever it added to the directory is removed.
+     */
+    private Engine createExternalEngine(String name, String compressionFlag) {
+
+        final ExternalTarUnpackMethod method = new ExternalTarUnpackMethod(compressionFlag);
+
+        return new Engine(name) {
+
+            @Override
+            public boolean supports(EntryWriter writer) {
+                return writer.getFilter() == null && writer.getPreviousManifest() == null;
+            }
+
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+
+                UnpackManifest before = UnpackManifest.scan(writer.getDirectory());
+                boolean unpacked = false;
+
+                try {
+                    method.unpack(file, writer.getDirectory(), log);
+                    unpacked = true;
+                } finally {
+                    if (!unpacked) {
+                        before.removeStale(UnpackManifest.scan(writer.getDirectory()), writer.getDirectory());
+                    }
+                }
+
+                for (UnpackManifest.Entry entry : UnpackManifest.scan(writer.getDirectory()).getEntries()) {
+                    writer.getManifest().add(entry);
+                }
+            }
+        };
+    }
+
+    private void loadHistory() {
+
+        if (historyLoaded) {
+            return;
+        }
+
+        historyLoaded = true;
+
+        if (historyFile == null || !historyFile.isFile()) {
+            return;
+        }
+
+        try {
+            InputStream in = Files.newInputStream(historyFile.toPath());
+
+            try {
+                history.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Unreadable history, measured again.
+        } catch (IllegalArgumentException e) {
+            // Malformed history, measured again.
+        }
+    }
+
+    private void storeHistory() {
+
+        if (historyFile == null) {
+            return;
+        }
+
+        Path path = historyFile.getAbsoluteFile().toPath();
+        Path temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+
+        try {
+            Files.createDirectories(path.getParent());
+            OutputStream out = Files.newOutputStream(temporary);
+
+            try {
+                history.store(out, "unpack engine throughput, bytes per second");
+            } finally {
+                out.close();
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            // Picks use in-memory history for this build.
+        } finally {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                // Nothing else to do.
+            }
+        }
+    }
+
+    /**
+     * @return 0 below 1 MB, then one class per 4x size.
+     */
+    private static int getSizeClass(long length) {
+        return (64 - Long.numberOfLeadingZeros(length >> 20) + 1) / 2;
+    }
+
+    private static boolean startsWith(byte[] bytes, int count, int... prefix) {
+
+        if (count < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xff) != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of buffers for copying stream content to file channels. Each one
+ * is a heap array the stream is read into and a direct buffer handed to
+ * the channel, which otherwise copies through a temporary direct buffer
+ * cached per thread; such caches don't survive the worker pools created
+ * for every archive.
+ */
+class BufferPool {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    static class Buffers {
+
+        final byte[] array;
+
+        final ByteBuffer direct;
+
+        Buffers(int size) {
+            array = new byte[size];
+            direct = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int size;
+
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<Buffers> free = new ConcurrentLinkedQueue<Buffers>();
+
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @param size bytes in every buffer
+     * @param capacity most buffers kept when released, others are dropped.
+     */
+    BufferPool(int size, int capacity) {
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Methods
+    //
+    //-------------------------------------------------------------------------
+
+    Buffers acquire() {
+
+        Buffers buffers = free.poll();
+
+        if (buffers == null) {
+            return new Buffers(size);
+        }
+
+        freeCount.decrementAndGet();
+        buffers.direct.clear();
+        return buffers;
+    }
+
+    void release(Buffers buffers) {
+
+        if (freeCount.incrementAndGet() <= capacity) {
+            free.offer(buffers);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+}
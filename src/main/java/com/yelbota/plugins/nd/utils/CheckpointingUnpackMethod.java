@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream unpack method which records {@link GzipCheckpointIndex}
+ * checkpoints while extracting, so the file the stream is stored to can be
+ * decoded in parallel by later unpacks.
+ */
+public interface CheckpointingUnpackMethod extends StreamUnpackMethod {
+
+    /**
+     * Same as {@link #unpack(InputStream, EntryWriter, Log)}.
+     *
+     * @return checkpoints to {@link GzipCheckpointIndex#write} next to the
+     * file holding the whole stream, null if there are none worth storing.
+     */
+    GzipCheckpointIndex unpackCheckpointed(InputStream in, EntryWriter writer,
+                                           Log log) throws IOException, UnpackMethodException;
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Expected digest of an artifact file. Instances are immutable.
+ */
+public class Checksum {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final String SHA_256 = "SHA-256";
+    public static final String SHA_1 = "SHA-1";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final String algorithm;
+
+    private final String value;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @param algorithm {@link MessageDigest} algorithm name, i.e. {@link #SHA_256}
+     * @param value hex digest
+     */
+    public Checksum(String algorithm, String value) {
+
+        if (!value.matches("[0-9a-fA-F]+")) {
+            throw new IllegalArgumentException("Not a hex digest: " + value);
+        }
+
+        createDigest(algorithm);
+
+        this.algorithm = algorithm;
+        this.value = value.toLowerCase();
+    }
+
+    /**
+     * Reads checksum file stored next to `artifactFile` by repositories,
+     * `.sha256` or else `.sha1`.
+     *
+     * @return checksum, or null when there is no checksum file.
+     */
+    public static Checksum readSidecar(File artifactFile) throws IOException {
+
+        Checksum checksum = readSidecar(new File(artifactFile.getPath() + ".sha256"), SHA_256);
+        return checksum != null ? checksum : readSidecar(new File(artifactFile.getPath() + ".sha1"), SHA_1);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public MessageDigest createDigest() {
+        return createDigest(algorithm);
+    }
+
+    /**
+     * @param digest hex digest computed with {@link #getAlgorithm()}.
+     */
+    public boolean matches(String digest) {
+        return value.equalsIgnoreCase(digest);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + ":" + value;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Checksum files hold the digest optionally followed by file name.
+     */
+    private static Checksum readSidecar(File file, String algorithm) throws IOException {
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String content = new String(Files.readAllBytes(file.toPath()), UTF_8).trim();
+        String[] tokens = content.split("\\s+");
+
+        if (tokens.length == 0 || tokens[0].length() == 0) {
+            return null;
+        }
+
+        try {
+            return new Checksum(algorithm, tokens[0]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed checksum file " + file, e);
+        }
+    }
+
+    private static MessageDigest createDigest(String algorithm) {
+
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm " + algorithm, e);
+        }
+    }
+}
@@ -24,7 +24,10 @@ import java.io.InputStreamReader;
 
 /**
  * @author Aleksey Fomkin
+ * @deprecated logs every line on its own thread per stream and ignores exit
+ * status, use {@link ProcessOutput}.
  */
+@Deprecated
 public class CleanStream extends Thread {
 
     public enum CleanStreamType {
@@ -24,13 +24,34 @@ import java.util.HashMap;
  */
 public class DefaultUnpackMethods extends HashMap<String, UnpackMethod> {
 
+    /**
+     * Multi-threaded zip method. Plugins may switch to it with
+     * <code>put("zip", get(PARALLEL_ZIP))</code>.
+     */
+    public static final String PARALLEL_ZIP = "zip-parallel";
+
+    /**
+     * Method picking an engine by archive content, used for artifact
+     * types missing in the map.
+     *
+     * @see AutoUnpackMethod
+     */
+    public static final String AUTO = "auto";
+
     public DefaultUnpackMethods(Logger plexusLogger) {
 
         super();
 
         put("zip", new ZipUnpackMethod(plexusLogger));
-        put("tgz", new TarGZipUnpackMethod(plexusLogger));
-        put("tar.gz", new TarGZipUnpackMethod(plexusLogger));
+        put(PARALLEL_ZIP, new ParallelZipUnpackMethod());
+        put("tgz", new TarGZipUnpackMethod());
+        put("tar.gz", new TarGZipUnpackMethod());
         put("tbz2", new TarBZip2UnpackMethod());
+        put("tar.bz2", new TarBZip2UnpackMethod());
+        put("txz", new TarXZUnpackMethod());
+        put("tar.xz", new TarXZUnpackMethod());
+        put("tzst", new TarZstdUnpackMethod());
+        put("tar.zst", new TarZstdUnpackMethod());
+        put(AUTO, new AutoUnpackMethod());
     }
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Entry unpack method which passes the archive bytes it reads anyway to a
+ * {@link FileDigest}, so checking a checksum doesn't need a read of its
+ * own, also when parts of the file are read by several threads.
+ */
+public interface DigestingUnpackMethod extends EntryUnpackMethod {
+
+    /**
+     * Same as {@link #unpack(File, EntryWriter, Log)}, also passing what is
+     * read of `file` to `digest` with its position. Bytes it doesn't read
+     * are left to {@link FileDigest#finish()}.
+     */
+    void unpack(File file, EntryWriter writer, FileDigest digest, Log log) throws IOException, UnpackMethodException;
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.codehaus.plexus.components.io.fileselectors.FileInfo;
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects archive entries by Ant-style include and exclude patterns:
+ * `*` and `?` match within one path segment, `**` matches any number of
+ * segments and a pattern ending with `/` matches everything below it.
+ * An entry is selected when it matches some include (or there are no
+ * includes) and no exclude. Directory entries are matched by their name
+ * without the trailing slash. Instances are immutable.
+ *
+ * <p>A hard link is restored only together with its target, so include
+ * both when selecting one.</p>
+ */
+public class EntryFilter implements FileSelector {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final List<String> includes;
+
+    private final List<String> excludes;
+
+    private final List<Pattern> includePatterns;
+
+    private final List<Pattern> excludePatterns;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public EntryFilter(List<String> includes, List<String> excludes) {
+
+        this.includes = copy(includes);
+        this.excludes = copy(excludes);
+        this.includePatterns = compile(this.includes);
+        this.excludePatterns = compile(this.excludes);
+    }
+
+    /**
+     * @param includes comma separated include patterns, may be null
+     * @param excludes comma separated exclude patterns, may be null
+     */
+    public EntryFilter(String includes, String excludes) {
+        this(split(includes), split(excludes));
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * @return true if filter selects every entry.
+     */
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    public boolean accepts(String name) {
+
+        String path = normalize(name);
+
+        if (path.length() == 0) {
+            return true;
+        }
+
+        return (includePatterns.isEmpty() || matchesAny(includePatterns, path))
+                && !matchesAny(excludePatterns, path);
+    }
+
+    /**
+     * Adapts filter to plexus unarchivers.
+     */
+    @Override
+    public boolean isSelected(FileInfo fileInfo) {
+        return accepts(fileInfo.getName());
+    }
+
+    /**
+     * Stable description of the selection, suitable as part of an identity.
+     */
+    @Override
+    public String toString() {
+        return "includes=" + includes + ";excludes=" + excludes;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private static boolean matchesAny(List<Pattern> patterns, String path) {
+
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static List<Pattern> compile(List<String> globs) {
+
+        List<Pattern> patterns = new ArrayList<Pattern>(globs.size());
+
+        for (String glob : globs) {
+            patterns.add(Pattern.compile(toRegex(glob)));
+        }
+
+        return patterns;
+    }
+
+    static String toRegex(String glob) {
+
+        String pattern = glob.replace('\\', '/');
+
+        while (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+
+        if (pattern.startsWith("./")) {
+            pattern = pattern.substring(2);
+        }
+
+        if (pattern.endsWith("/")) {
+            pattern += "**";
+        }
+
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+
+        while (i < pattern.length()) {
+
+            if (pattern.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 3;
+            } else if (pattern.startsWith("/**", i) && i + 3 == pattern.length()) {
+                regex.append("(?:/.*)?");
+                i += 3;
+            } else if (pattern.startsWith("**", i)) {
+                regex.append(".*");
+                i += 2;
+            } else {
+
+                char c = pattern.charAt(i++);
+
+                if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+                    regex.append('\\').append(c);
+                } else {
+                    regex.append(c);
+                }
+            }
+        }
+
+        return regex.toString();
+    }
+
+    private static String normalize(String name) {
+
+        String path = name.replace('\\', '/');
+        int start = 0;
+
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+
+        if (path.startsWith("./", start)) {
+            start += 2;
+        }
+
+        int end = path.length();
+
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        return path.substring(start, end);
+    }
+
+    private static List<String> copy(List<String> patterns) {
+
+        List<String> result = new ArrayList<String>();
+
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (pattern != null && pattern.trim().length() > 0) {
+                    result.add(pattern.trim());
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private static List<String> split(String patterns) {
+        return patterns == null ? Collections.<String>emptyList() : Arrays.asList(patterns.split(","));
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unpack method which writes entries through a caller supplied
+ * {@link EntryWriter}, so the caller controls how entries are materialized
+ * and gets the manifest of unpacked content. Entries not accepted by the
+ * writer's filter are skipped.
+ */
+public interface EntryUnpackMethod extends SelectiveUnpackMethod {
+
+    void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException;
+}
@@ -0,0 +1,1015 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Materializes archive entries below a target directory. Shared by the unpack
+ * methods which read archives themselves instead of delegating to plexus
+ * unarchivers. All methods are safe to call from several threads at once.
+ *
+ * <p>Every written entry is recorded in {@link #getManifest()}. When a manifest
+ * of a previous unpack is set, files are updated in place: unchanged bytes are
+ * compared rather than rewritten, and entries with known size and CRC may be
+ * skipped altogether with {@link #keepIfUnchanged}.</p>
+ *
+ * <p>Entries below a symbolic link are rejected, like GNU tar does, so a
+ * link written earlier can't lead later entries outside of the target
+ * directory.</p>
+ *
+ * <p>When an {@link EntryFilter} is set, entries it doesn't select are
+ * silently dropped by the write methods. Unpack methods should check
+ * {@link #accepts} first, so that such entries aren't decoded at all.</p>
+ *
+ * <p>Bytes written and time spent reading entry data (which includes
+ * decompression for streamed archives) and writing it are counted, summed
+ * over all threads.</p>
+ *
+ * <p>With {@link #setDeferAttributes deferred attributes}, permissions and
+ * modification times are applied together by {@link #finish()}, so they
+ * don't interleave with data writes and read-only directories don't block
+ * their own entries. With {@link #setSync sync}, file data is forced to
+ * disk before a file is closed and every touched directory is forced once
+ * by {@link #finish()}.</p>
+ *
+ * <p>Read-only directories left by a previous unpack are made writable
+ * while their entries are written and get their permissions back from
+ * {@link #finish()}. Read-only files are replaced instead of updated in
+ * place.</p>
+ *
+ * @see EntryUnpackMethod
+ */
+public class EntryWriter {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BufferPool BUFFERS = new BufferPool(BUFFER_SIZE,
+            4 * Runtime.getRuntime().availableProcessors());
+
+    private static final PosixFilePermission[] PERMISSION_BITS = {
+            PosixFilePermission.OTHERS_EXECUTE,
+            PosixFilePermission.OTHERS_WRITE,
+            PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE,
+            PosixFilePermission.GROUP_WRITE,
+            PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE,
+            PosixFilePermission.OWNER_WRITE,
+            PosixFilePermission.OWNER_READ
+    };
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File directory;
+
+    private final Path root;
+
+    private final UnpackManifest manifest = new UnpackManifest();
+
+    private UnpackManifest previousManifest;
+
+    private EntryFilter filter;
+
+    private boolean deferAttributes;
+
+    private boolean sync;
+
+    private final ConcurrentLinkedQueue<Attributes> deferred = new ConcurrentLinkedQueue<Attributes>();
+
+    private final Set<Path> touchedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Directories known not to be symbolic links. The writer never replaces
+     * a directory, so they stay such.
+     */
+    private final Set<Path> checkedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Original permissions of read-only directories made writable to
+     * create or replace their entries.
+     */
+    private final Map<Path, Set<PosixFilePermission>> relaxedDirectories =
+            new ConcurrentHashMap<Path, Set<PosixFilePermission>>();
+
+    /**
+     * Files and links this writer created, replaced or opened for update,
+     * removed again by {@link #discard()}.
+     */
+    private final Set<Path> startedPaths = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Held exclusively while a symbolic link is created, shared while a path
+     * is checked and the file at it is opened or created.
+     */
+    private final ReadWriteLock linkLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong readNanos = new AtomicLong();
+
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    private static class Attributes {
+
+        final Path path;
+
+        final boolean directory;
+
+        final int mode;
+
+        final long lastModified;
+
+        Attributes(Path path, boolean directory, int mode, long lastModified) {
+            this.path = path;
+            this.directory = directory;
+            this.mode = mode;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class TimedInputStream extends FilterInputStream {
+
+        long nanos;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            long started = System.nanoTime();
+
+            try {
+                return in.read(b, off, len);
+            } finally {
+                nanos += System.nanoTime() - started;
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public EntryWriter(File directory) {
+
+        this.directory = directory;
+        this.root = Paths.get(directory.getAbsolutePath()).normalize();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return entries written (or kept) so far.
+     */
+    public UnpackManifest getManifest() {
+        return manifest;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return time spent reading entry content from unpack methods.
+     */
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+
+    /**
+     * @return time spent creating and writing files, links and directories.
+     */
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+
+    public UnpackManifest getPreviousManifest() {
+        return previousManifest;
+    }
+
+    /**
+     * @param previousManifest manifest of the content already in the directory, may be null.
+     */
+    public void setPreviousManifest(UnpackManifest previousManifest) {
+        this.previousManifest = previousManifest;
+    }
+
+    public EntryFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter selection of entries to write, null for all.
+     */
+    public void setFilter(EntryFilter filter) {
+        this.filter = filter;
+    }
+
+    public boolean isDeferAttributes() {
+        return deferAttributes;
+    }
+
+    /**
+     * @param deferAttributes when true, permissions and modification times
+     * are applied by {@link #finish()}, which must be called then.
+     */
+    public void setDeferAttributes(boolean deferAttributes) {
+        this.deferAttributes = deferAttributes;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * @param sync when true, written files and, on {@link #finish()}, their
+     * directories are forced to disk. False by default.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Restores permissions of directories made writable, applies deferred
+     * attributes, files first and then directories deepest first, and forces
+     * touched directories to disk when syncing. Call once, after the last
+     * entry is written.
+     */
+    public void finish() throws IOException {
+
+        long started = System.nanoTime();
+        restoreRelaxedDirectories();
+        List<Attributes> directories = new ArrayList<Attributes>();
+        Attributes attributes;
+
+        while ((attributes = deferred.poll()) != null) {
+
+            if (attributes.directory) {
+                directories.add(attributes);
+            } else {
+                applyMode(attributes.path, attributes.mode);
+                applyLastModified(attributes.path, attributes.lastModified);
+            }
+        }
+
+        Collections.sort(directories, new Comparator<Attributes>() {
+            @Override
+            public int compare(Attributes a, Attributes b) {
+                return b.path.getNameCount() - a.path.getNameCount();
+            }
+        });
+
+        for (Attributes directory : directories) {
+            applyMode(directory.path, directory.mode);
+        }
+
+        if (sync) {
+
+            List<Path> paths = new ArrayList<Path>(touchedDirectories);
+            touchedDirectories.clear();
+            paths.add(root);
+
+            for (Path path : paths) {
+                syncDirectory(path);
+            }
+        }
+
+        writeNanos.addAndGet(System.nanoTime() - started);
+    }
+
+    /**
+     * Deletes files and links this writer started to write, finished or
+     * not, and directories left empty by that, so that another unpack can
+     * start over. Content of a previous unpack updated by this writer is
+     * deleted too and has to be written again. Permissions of directories
+     * made writable are restored, deferred attributes are dropped.
+     */
+    public void discard() throws IOException {
+
+        Set<Path> directories = new HashSet<Path>();
+
+        for (Path path : startedPaths) {
+
+            Files.deleteIfExists(path);
+
+            for (Path parent = path.getParent(); parent != null && !parent.equals(root); parent = parent.getParent()) {
+                directories.add(parent);
+            }
+        }
+
+        for (UnpackManifest.Entry entry : manifest.getEntries()) {
+            if (entry.getType() == UnpackManifest.DIRECTORY) {
+                directories.add(root.resolve(entry.getPath()));
+            }
+        }
+
+        List<Path> deepestFirst = new ArrayList<Path>(directories);
+
+        Collections.sort(deepestFirst, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return b.getNameCount() - a.getNameCount();
+            }
+        });
+
+        for (Path path : deepestFirst) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (DirectoryNotEmptyException e) {
+                // Holds content this writer didn't write.
+            }
+        }
+
+        startedPaths.clear();
+        deferred.clear();
+        restoreRelaxedDirectories();
+    }
+
+    /**
+     * @return true if entry named `name` is to be written.
+     */
+    public boolean accepts(String name) {
+        return filter == null || filter.accepts(name);
+    }
+
+    /**
+     * Resolves archive entry name against target directory.
+     * @throws IOException if entry points outside of target directory or
+     * below a symbolic link, which could lead outside of it.
+     */
+    public Path resolve(String name) throws IOException {
+
+        Path path = root.resolve(stripLeadingSlashes(name)).normalize();
+
+        if (!path.startsWith(root)) {
+            throw new IOException("Entry '" + name + "' is outside of " + root);
+        }
+
+        checkParents(name, path);
+        return path;
+    }
+
+    public void writeDirectory(String name, int mode) throws IOException {
+
+        if (!accepts(name)) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        Path path;
+
+        linkLock.readLock().lock();
+
+        try {
+            path = resolve(name);
+
+            relaxParent(path);
+
+            // Replaced like a file, created directories must not lead elsewhere.
+            if (Files.isSymbolicLink(path)) {
+                Files.delete(path);
+            }
+
+            Files.createDirectories(path);
+        } finally {
+            linkLock.readLock().unlock();
+        }
+
+        setAttributes(path, true, mode, -1);
+        writeNanos.addAndGet(System.nanoTime() - started);
+
+        if (!path.equals(root)) {
+            record(UnpackManifest.DIRECTORY, path, UnpackManifest.UNKNOWN, UnpackManifest.UNKNOWN);
+        }
+    }
+
+    /**
+     * Records file as unpacked without writing it, if the previous manifest
+     * has the same size and CRC for it and the file on disk has that size.
+     *
+     * @return true if file doesn't need to be written
+     */
+    public boolean keepIfUnchanged(String name, long size, long crc) throws IOException {
+
+        if (previousManifest == null || crc == UnpackManifest.UNKNOWN) {
+            return false;
+        }
+
+        Path path = resolve(name);
+        UnpackManifest.Entry previous = previousManifest.get(relative(path));
+
+        if (previous == null || previous.getType() != UnpackManifest.FILE
+                || previous.getSize() != size || previous.getCrc() != crc) {
+            return false;
+        }
+
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) || Files.size(path) != size) {
+            return false;
+        }
+
+        record(UnpackManifest.FILE, path, size, crc);
+        return true;
+    }
+
+    /**
+     * Writes `in` to the file named `name`. Stream is not closed.
+     * @param mode unix permission bits, 0 when unknown
+     * @param lastModified modification time in millis, -1 when unknown
+     */
+    public void writeFile(String name, InputStream in, int mode, long lastModified) throws IOException {
+
+        if (!accepts(name)) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        TimedInputStream timed = new TimedInputStream(in);
+        CRC32 crc = new CRC32();
+        Path path;
+        FileChannel channel;
+        boolean inPlace;
+        long size;
+
+        linkLock.readLock().lock();
+
+        try {
+            path = resolve(name);
+            inPlace = canUpdateInPlace(path) && Files.isWritable(path);
+            channel = inPlace ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : createFile(prepareFile(name));
+        } finally {
+            linkLock.readLock().unlock();
+        }
+
+        startedPaths.add(path);
+
+        if (inPlace) {
+            size = update(channel, timed, crc);
+        } else {
+            size = write(channel, timed, crc);
+        }
+
+        record(UnpackManifest.FILE, path, size, crc.getValue());
+        setAttributes(path, false, mode, lastModified);
+
+        readNanos.addAndGet(timed.nanos);
+        writeNanos.addAndGet(System.nanoTime() - started - timed.nanos);
+    }
+
+    /**
+     * Copies `size` bytes at `position` of `source` to the file named `name`
+     * with {@link FileChannel#transferTo}, so content doesn't pass through
+     * the Java heap. Meant for entries stored without compression; `crc` is
+     * recorded as given, content is not read to check it.
+     */
+    public void transferFile(String name, FileChannel source, long position, long size, long crc,
+                             int mode, long lastModified) throws IOException {
+
+        if (!accepts(name)) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        Path path;
+        FileChannel out;
+
+        linkLock.readLock().lock();
+
+        try {
+            path = prepareFile(name);
+            out = createFile(path);
+        } finally {
+            linkLock.readLock().unlock();
+        }
+
+        try {
+            long transferred = 0;
+
+            while (transferred < size) {
+
+                long count = source.transferTo(position + transferred, size - transferred, out);
+
+                if (count <= 0) {
+                    throw new EOFException("Unexpected end of data of entry " + name);
+                }
+
+                transferred += count;
+            }
+
+            if (sync) {
+                out.force(false);
+            }
+        } finally {
+            out.close();
+        }
+
+        bytesWritten.addAndGet(size);
+        record(UnpackManifest.FILE, path, size, crc);
+        setAttributes(path, false, mode, lastModified);
+        writeNanos.addAndGet(System.nanoTime() - started);
+    }
+
+    /**
+     * Creates symbolic link. When file system doesn't support links, link
+     * target is written as regular file content.
+     */
+    public void writeSymlink(String name, String target) throws IOException {
+
+        if (!accepts(name)) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        Path path;
+
+        byte[] bytes = target.getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        // Nothing is written while a link appears, so no write follows it.
+        linkLock.writeLock().lock();
+
+        try {
+            path = prepareFile(name);
+
+            try {
+                Files.createSymbolicLink(path, Paths.get(target));
+            } catch (UnsupportedOperationException e) {
+                Files.write(path, bytes);
+            }
+        } finally {
+            linkLock.writeLock().unlock();
+        }
+
+        record(UnpackManifest.LINK, path, bytes.length, crc.getValue());
+        writeNanos.addAndGet(System.nanoTime() - started);
+    }
+
+    /**
+     * Creates hard link to previously extracted entry `target`. Falls back to
+     * copying when file system doesn't support hard links.
+     * @throws IOException if `target` is not selected by the filter.
+     */
+    public void writeHardLink(String name, String target) throws IOException {
+
+        if (!accepts(name)) {
+            return;
+        }
+
+        if (!accepts(target)) {
+            throw new IOException("Entry '" + name + "' is a hard link to '" + target
+                    + "' which is excluded, include it as well");
+        }
+
+        long started = System.nanoTime();
+        Path path;
+        Path existing;
+
+        linkLock.readLock().lock();
+
+        try {
+            path = prepareFile(name);
+            existing = resolve(target);
+
+            try {
+                Files.createLink(path, existing);
+            } catch (UnsupportedOperationException e) {
+                Files.copy(existing, path, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            }
+        } finally {
+            linkLock.readLock().unlock();
+        }
+
+        UnpackManifest.Entry linked = manifest.get(relative(existing));
+        long crc = linked != null ? linked.getCrc() : UnpackManifest.UNKNOWN;
+        record(UnpackManifest.FILE, path, Files.size(path), crc);
+        writeNanos.addAndGet(System.nanoTime() - started);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Protected methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Creates parent directories and removes stale file (or link) which would
+     * otherwise be followed or fail creation.
+     */
+    protected Path prepareFile(String name) throws IOException {
+
+        Path path = resolve(name);
+        Path parent = path.getParent();
+
+        relaxParent(path);
+        startedPaths.add(path);
+
+        if (parent != null) {
+            try {
+                Files.createDirectories(parent);
+            } catch (FileAlreadyExistsException e) {
+                // Concurrent writer created it or parent is a dangling link.
+                if (!Files.isDirectory(parent)) throw e;
+            }
+        }
+
+        if (Files.isSymbolicLink(path) || Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            Files.delete(path);
+        }
+
+        if (sync && parent != null) {
+            touchedDirectories.add(parent);
+        }
+
+        return path;
+    }
+
+    protected void applyMode(Path path, int mode) throws IOException {
+
+        if ((mode & 0777) == 0) {
+            return;
+        }
+
+        PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+
+        if (view != null) {
+            view.setPermissions(toPermissions(mode));
+        }
+    }
+
+    protected void applyLastModified(Path path, long lastModified) throws IOException {
+
+        if (lastModified >= 0) {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Takes over entries and counters of `other`, a finished writer into
+     * the same directory.
+     */
+    void include(EntryWriter other) {
+
+        for (UnpackManifest.Entry entry : other.getManifest().getEntries()) {
+            manifest.add(entry);
+        }
+
+        bytesWritten.addAndGet(other.getBytesWritten());
+        readNanos.addAndGet(other.getReadNanos());
+        writeNanos.addAndGet(other.getWriteNanos());
+    }
+
+    private void restoreRelaxedDirectories() throws IOException {
+
+        for (Map.Entry<Path, Set<PosixFilePermission>> relaxed : relaxedDirectories.entrySet()) {
+            try {
+                Files.setPosixFilePermissions(relaxed.getKey(), relaxed.getValue());
+            } catch (NoSuchFileException e) {
+                // Replaced by an entry of another type, or discarded.
+            }
+        }
+
+        relaxedDirectories.clear();
+    }
+
+    private void setAttributes(Path path, boolean directory, int mode, long lastModified) throws IOException {
+
+        if (deferAttributes) {
+            deferred.add(new Attributes(path, directory, mode, lastModified));
+            return;
+        }
+
+        applyMode(path, mode);
+        applyLastModified(path, lastModified);
+    }
+
+    private static void syncDirectory(Path path) throws IOException {
+
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Directories can't be opened everywhere, i.e. on Windows.
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks directories between target directory and `path` from the
+     * nearest one up, stopping at one already checked.
+     */
+    private void checkParents(String name, Path path) throws IOException {
+
+        List<Path> unchecked = new ArrayList<Path>();
+
+        for (Path parent = path.getParent(); parent != null && parent.startsWith(root) && !parent.equals(root)
+                && !checkedDirectories.contains(parent); parent = parent.getParent()) {
+
+            if (Files.isSymbolicLink(parent)) {
+                throw new IOException("Entry '" + name + "' is below symbolic link " + relative(parent));
+            }
+
+            unchecked.add(parent);
+        }
+
+        for (Path parent : unchecked) {
+            if (Files.isDirectory(parent, LinkOption.NOFOLLOW_LINKS)) {
+                checkedDirectories.add(parent);
+            }
+        }
+    }
+
+    /**
+     * Makes the nearest existing directory above `path` writable by owner,
+     * so `path` can be created or deleted. Nothing is changed for users who
+     * can already write there, root included.
+     */
+    private void relaxParent(Path path) throws IOException {
+
+        Path directory = path.getParent();
+
+        while (directory != null && directory.startsWith(root)
+                && !Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            directory = directory.getParent();
+        }
+
+        if (directory == null || !directory.startsWith(root) || Files.isWritable(directory)) {
+            return;
+        }
+
+        synchronized (relaxedDirectories) {
+
+            if (!relaxedDirectories.containsKey(directory)) {
+
+                Set<PosixFilePermission> permissions = FileTrees.makeWritable(directory);
+
+                if (permissions != null) {
+                    relaxedDirectories.put(directory, permissions);
+                }
+            }
+        }
+    }
+
+    private void record(char type, Path path, long size, long crc) {
+
+        String name = relative(path);
+        manifest.add(new UnpackManifest.Entry(type, type == UnpackManifest.DIRECTORY ? name + "/" : name, size, crc));
+    }
+
+    private String relative(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Only files of previous unpack which are not shared with other
+     * directories through hard links are updated in place.
+     */
+    private boolean canUpdateInPlace(Path path) throws IOException {
+
+        if (previousManifest == null || !Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+
+        UnpackManifest.Entry previous = previousManifest.get(relative(path));
+
+        if (previous == null || previous.getType() != UnpackManifest.FILE) {
+            return false;
+        }
+
+        try {
+            Object links = Files.getAttribute(path, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+            return links instanceof Number && ((Number) links).intValue() <= 1;
+        } catch (UnsupportedOperationException e) {
+            return true;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static FileChannel createFile(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private long write(FileChannel out, InputStream in, CRC32 crc) throws IOException {
+
+        BufferPool.Buffers buffers = BUFFERS.acquire();
+        long size = 0;
+
+        try {
+            byte[] buffer = buffers.array;
+            ByteBuffer direct = buffers.direct;
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+
+                crc.update(buffer, 0, count);
+                direct.clear();
+                direct.put(buffer, 0, count);
+                direct.flip();
+
+                while (direct.hasRemaining()) {
+                    out.write(direct);
+                }
+
+                size += count;
+            }
+
+            if (sync) {
+                out.force(false);
+            }
+        } finally {
+            BUFFERS.release(buffers);
+            out.close();
+        }
+
+        bytesWritten.addAndGet(size);
+
+        return size;
+    }
+
+    /**
+     * Compares `in` with existing file content and writes only from the first
+     * difference on, so an unchanged file is read but not written.
+     */
+    private long update(FileChannel channel, InputStream in, CRC32 crc) throws IOException {
+
+        BufferPool.Buffers buffers = BUFFERS.acquire();
+        long position = 0;
+        boolean same = true;
+
+        try {
+            byte[] buffer = buffers.array;
+            ByteBuffer direct = buffers.direct;
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+
+                crc.update(buffer, 0, count);
+
+                if (same) {
+
+                    direct.clear();
+                    direct.limit(count);
+
+                    while (direct.hasRemaining() && channel.read(direct, position + direct.position()) > 0) {
+                        // Read until chunk is complete or end of file.
+                    }
+
+                    if (!direct.hasRemaining() && equal(direct, buffer, count)) {
+                        position += count;
+                        continue;
+                    }
+
+                    same = false;
+                }
+
+                direct.clear();
+                direct.put(buffer, 0, count);
+                direct.flip();
+
+                while (direct.hasRemaining()) {
+                    position += channel.write(direct, position);
+                }
+
+                bytesWritten.addAndGet(count);
+            }
+
+            if (channel.size() != position) {
+                channel.truncate(position);
+                same = false;
+            }
+
+            if (sync && !same) {
+                channel.force(false);
+            }
+        } finally {
+            BUFFERS.release(buffers);
+            channel.close();
+        }
+
+        return position;
+    }
+
+    private static boolean equal(ByteBuffer a, byte[] b, int length) {
+
+        for (int i = 0; i < length; i++) {
+            if (a.get(i) != b[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Set<PosixFilePermission> toPermissions(int mode) {
+
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+
+        for (int i = 0; i < PERMISSION_BITS.length; i++) {
+            if ((mode & (1 << i)) != 0) {
+                permissions.add(PERMISSION_BITS[i]);
+            }
+        }
+
+        return permissions;
+    }
+
+    private static String stripLeadingSlashes(String name) {
+
+        int i = 0;
+
+        while (i < name.length() && (name.charAt(i) == '/' || name.charAt(i) == '\\')) {
+            i++;
+        }
+
+        return name.substring(i);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unpack method which forks system `tar`. Note: supported only in unix-like
+ * operation systems
+ *
+ * @author Aleksey Fomkin
+ */
+public class ExternalTarUnpackMethod implements UnpackMethod {
+
+    public static final String BZIP2 = "j";
+    public static final String GZIP = "z";
+
+    private final String compressionFlag;
+
+    /**
+     * @param compressionFlag tar flag selecting decompressor, i.e. {@link #BZIP2}
+     */
+    public ExternalTarUnpackMethod(String compressionFlag) {
+        this.compressionFlag = compressionFlag;
+    }
+
+    @Override
+
+    /**
+     * @inheritDoc
+     */
+    public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+
+        String os = System.getProperty("os.name").toLowerCase();
+
+        if (!(os.indexOf("mac") > -1 || os.indexOf("lin") > -1)) {
+            throw new UnpackMethodException("External tar supported only under Linux and Mac OS X.");
+        }
+
+        // Listing every entry is only worth it when it is going to be seen.
+        String flags = "-" + compressionFlag + (log != null && log.isDebugEnabled() ? "xvf" : "xf");
+
+        try {
+
+            // Java 6 doesn't support symlinks.
+            ProcessBuilder builder = new ProcessBuilder(
+                    "tar", flags, file.getAbsolutePath(),
+                    "-C", directory.getAbsolutePath()
+            );
+
+            ProcessOutput output = new ProcessOutput("tar", log);
+            int status = output.waitFor(builder.start());
+
+            if (status != 0) {
+                throw new UnpackMethodException("`tar` exited with status " + status + " unpacking " + file
+                        + ":\n" + output.getErrorTail());
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnpackMethodException("Something happened during running `tar`", e);
+        }
+    }
+
+    @Override
+
+    /**
+     * @inheritDoc
+     */
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Digest of a file computed from pieces read in any order, i.e. by threads
+ * extracting different parts of an archive. A piece continuing the
+ * digested prefix is digested at once, others wait in memory. When more
+ * than {@link #MAX_PENDING} bytes wait, or on {@link #finish()}, ranges
+ * nobody read are read from the file, so every byte is digested once and
+ * in order while waiting pieces stay bounded. Safe to use from several
+ * threads at once.
+ */
+public class FileDigest {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final long MAX_PENDING = 64 * 1024 * 1024;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final File file;
+
+    private final MessageDigest digest;
+
+    private final TreeMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+
+    private long pendingSize;
+
+    private long digested;
+
+    private long readBytes;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public FileDigest(File file, MessageDigest digest) {
+        this.file = file;
+        this.digest = digest;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return bytes read from the file by the digest itself, for ranges
+     * nobody else read.
+     */
+    public synchronized long getReadBytes() {
+        return readBytes;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Takes `len` bytes of `b` read at `position` of the file. Bytes
+     * digested already, i.e. read a second time, are ignored.
+     */
+    public synchronized void update(long position, byte[] b, int off, int len) throws IOException {
+
+        long end = position + len;
+
+        if (end <= digested) {
+            return;
+        }
+
+        if (position < digested) {
+            off += (int) (digested - position);
+            len = (int) (end - digested);
+            position = digested;
+        }
+
+        if (position == digested) {
+            digest.update(b, off, len);
+            digested = end;
+            drain();
+            return;
+        }
+
+        byte[] existing = pending.get(position);
+
+        if (existing == null || existing.length < len) {
+            pending.put(position, Arrays.copyOfRange(b, off, off + len));
+            pendingSize += len - (existing != null ? existing.length : 0);
+        }
+
+        while (pendingSize > MAX_PENDING) {
+            readUpTo(pending.firstKey());
+            drain();
+        }
+    }
+
+    /**
+     * @return `in`, which reads the file from `position`, passing what it
+     * reads to {@link #update}.
+     */
+    public InputStream tap(InputStream in, final long position) {
+
+        return new FilterInputStream(in) {
+
+            private long next = position;
+
+            @Override
+            public int read() throws IOException {
+
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+
+                int count = super.read(b, off, len);
+
+                if (count > 0) {
+                    update(next, b, off, count);
+                    next += count;
+                }
+
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+
+                // Skipped bytes are read by finish().
+                long skipped = super.skip(n);
+                next += skipped;
+                return skipped;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Reads what nobody read from the file and completes the digest.
+     */
+    public synchronized byte[] finish() throws IOException {
+
+        while (!pending.isEmpty()) {
+            readUpTo(pending.firstKey());
+            drain();
+        }
+
+        readUpTo(file.length());
+        return digest.digest();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void drain() {
+
+        while (!pending.isEmpty() && pending.firstKey() <= digested) {
+
+            Map.Entry<Long, byte[]> first = pending.pollFirstEntry();
+            byte[] bytes = first.getValue();
+            long end = first.getKey() + bytes.length;
+            pendingSize -= bytes.length;
+
+            if (end > digested) {
+                digest.update(bytes, (int) (digested - first.getKey()), (int) (end - digested));
+                digested = end;
+            }
+        }
+    }
+
+    private void readUpTo(long end) throws IOException {
+
+        if (end <= digested) {
+            return;
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(EntryWriter.BUFFER_SIZE);
+
+            while (digested < end) {
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - digested));
+                int count = channel.read(buffer, digested);
+
+                if (count < 0) {
+                    throw new IOException(file + " is shorter than " + end + " bytes");
+                }
+
+                digest.update(buffer.array(), 0, count);
+                digested += count;
+                readBytes += count;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
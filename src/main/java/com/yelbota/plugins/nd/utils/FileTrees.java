@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Directory tree helpers. Symbolic links are never followed.
+ */
+public final class FileTrees {
+
+    private FileTrees() {
+    }
+
+    /**
+     * Deletes `path` with all its content. Does nothing if it doesn't exist.
+     */
+    public static void delete(Path path) throws IOException {
+
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+
+                if (e != null) {
+                    throw e;
+                }
+
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return the first symbolic link among directories between `root` and
+     * `path`, or null if there is none. `path` itself is not checked.
+     */
+    public static Path findLinkedParent(Path root, Path path) {
+
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException(path + " is outside of " + root);
+        }
+
+        Path relative = root.relativize(path);
+        Path parent = root;
+
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+
+            parent = parent.resolve(relative.getName(i));
+
+            if (Files.isSymbolicLink(parent)) {
+                return parent;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Lets owner create and delete entries of `directory`.
+     *
+     * @return permissions `directory` had, or null if nothing was changed.
+     */
+    public static Set<PosixFilePermission> makeWritable(Path directory) throws IOException {
+
+        PosixFileAttributeView view = Files.getFileAttributeView(directory, PosixFileAttributeView.class,
+                LinkOption.NOFOLLOW_LINKS);
+
+        if (view == null || !Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            return null;
+        }
+
+        Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+
+        if (permissions.contains(PosixFilePermission.OWNER_WRITE)
+                && permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+            return null;
+        }
+
+        Set<PosixFilePermission> writable = EnumSet.noneOf(PosixFilePermission.class);
+        writable.addAll(permissions);
+        writable.add(PosixFilePermission.OWNER_WRITE);
+        writable.add(PosixFilePermission.OWNER_EXECUTE);
+        view.setPermissions(writable);
+
+        return permissions;
+    }
+
+    /**
+     * Gives `target` the POSIX permissions of `source`. Does nothing on
+     * file systems without them.
+     */
+    public static void copyPermissions(Path source, Path target) throws IOException {
+
+        PosixFileAttributeView from = Files.getFileAttributeView(source, PosixFileAttributeView.class,
+                LinkOption.NOFOLLOW_LINKS);
+        PosixFileAttributeView to = Files.getFileAttributeView(target, PosixFileAttributeView.class,
+                LinkOption.NOFOLLOW_LINKS);
+
+        if (from != null && to != null) {
+            to.setPermissions(from.readAttributes().permissions());
+        }
+    }
+
+    /**
+     * @return true if `directory` exists and has no entries.
+     */
+    public static boolean isEmpty(Path directory) throws IOException {
+
+        DirectoryStream<Path> stream;
+
+        try {
+            stream = Files.newDirectoryStream(directory);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        try {
+            return !stream.iterator().hasNext();
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,630 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Checkpoints of a tar.gz file at which decompression can start, zran
+ * style, together with the tar entry list, so parts of the archive are
+ * decoded independently on several cores. A checkpoint keeps the bit
+ * position of a deflate block in the file, the matching position in the
+ * tar stream, the 32 KB of tar stream before it and CRC-32 of the tar
+ * stream up to the next checkpoint. Stored next to the archive as
+ * `.gzi` (checkpoints, compressed) and `.gzi.entries` ({@link ArchiveIndex})
+ * files, valid while size and modification time of the archive don't change.
+ */
+public class GzipCheckpointIndex {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final long DEFAULT_SPACING = 4 * 1024 * 1024;
+
+    private static final String SUFFIX = ".gzi";
+    private static final String ENTRIES_SUFFIX = ".gzi.entries";
+    private static final String MAGIC = "native dependency gzip index v1";
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    public static class Checkpoint {
+
+        private final long bitPosition;
+        private final long position;
+        private final byte[] window;
+        private long crc;
+
+        Checkpoint(long bitPosition, long position, byte[] window) {
+            this.bitPosition = bitPosition;
+            this.position = position;
+            this.window = window;
+        }
+
+        /**
+         * @return position in the gzip file, in bits, of the deflate block starting here.
+         */
+        public long getBitPosition() {
+            return bitPosition;
+        }
+
+        /**
+         * @return position in the tar stream.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return CRC-32 of the tar stream from here to the next checkpoint.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        void setCrc(long crc) {
+            this.crc = crc;
+        }
+
+        byte[] getWindow() {
+            return window;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final String source;
+
+    private final List<Checkpoint> checkpoints;
+
+    private final long size;
+
+    private final ArchiveIndex entries;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    GzipCheckpointIndex(String source, List<Checkpoint> checkpoints, long size, ArchiveIndex entries) {
+        this.source = source;
+        this.checkpoints = Collections.unmodifiableList(new ArrayList<Checkpoint>(checkpoints));
+        this.size = size;
+        this.entries = entries;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public List<Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return length of the tar stream.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return tar entries, offsets are positions of entry data in the tar stream.
+     */
+    public ArchiveIndex getEntries() {
+        return entries;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Decodes the whole of `file`, recording a checkpoint every `spacing`
+     * bytes of tar stream.
+     *
+     * @throws IOException if `file` isn't a single member gzip of a tar archive.
+     */
+    public static GzipCheckpointIndex build(File file, long spacing) throws IOException {
+
+        if (spacing < 1) {
+            throw new IllegalArgumentException("spacing must be positive, got " + spacing);
+        }
+
+        String source = getSource(file);
+        IndexingInflaterInputStream in = new IndexingInflaterInputStream(new FileInputStream(file), spacing);
+
+        try {
+            ArchiveIndex entries = new TarStreamExtractor().index(in);
+            byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+
+            // Up to the trailer, which is checked at the end of stream.
+            while (in.read(buffer) != -1) {
+                // Nothing to do.
+            }
+
+            entries.setSource(source);
+            return new GzipCheckpointIndex(source, in.getCheckpoints(), in.getSize(), entries);
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return index stored next to `file`, null if there is none or it is
+     * not of the current `file`.
+     */
+    public static GzipCheckpointIndex read(File file) throws IOException {
+
+        File indexFile = new File(file.getPath() + SUFFIX);
+
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        String source = getSource(file);
+        ArchiveIndex entries = ArchiveIndex.read(new File(file.getPath() + ENTRIES_SUFFIX));
+
+        if (entries == null || !source.equals(entries.getSource())) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(indexFile))));
+
+        try {
+            if (!MAGIC.equals(in.readUTF()) || !source.equals(in.readUTF())) {
+                return null;
+            }
+
+            long size = in.readLong();
+            int count = in.readInt();
+            List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(count);
+
+            for (int i = 0; i < count; i++) {
+
+                long bitPosition = in.readLong();
+                long position = in.readLong();
+                long crc = in.readInt() & 0xffffffffL;
+                int windowLength = in.readInt();
+
+                if (windowLength < 0 || windowLength > IndexingInflaterInputStream.WINDOW_SIZE) {
+                    return null;
+                }
+
+                byte[] window = new byte[windowLength];
+                in.readFully(window);
+
+                Checkpoint checkpoint = new Checkpoint(bitPosition, position, window);
+                checkpoint.setCrc(crc);
+                checkpoints.add(checkpoint);
+            }
+
+            return new GzipCheckpointIndex(source, checkpoints, size, entries);
+
+        } catch (EOFException e) {
+            // Truncated file, same as none.
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes index next to `file`, each part to a temporary file which is
+     * then renamed. Index recorded from a stream, which has no source, is
+     * written for `file` as it is now.
+     */
+    public void write(File file) throws IOException {
+
+        String source = this.source != null ? this.source : getSource(file);
+
+        entries.setSource(source);
+        entries.write(new File(file.getPath() + ENTRIES_SUFFIX));
+
+        Path path = new File(file.getPath() + SUFFIX).toPath();
+        Path temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(temporary))));
+
+        try {
+            try {
+                out.writeUTF(MAGIC);
+                out.writeUTF(source);
+                out.writeLong(size);
+                out.writeInt(checkpoints.size());
+
+                for (Checkpoint checkpoint : checkpoints) {
+
+                    byte[] window = checkpoint.getWindow();
+
+                    out.writeLong(checkpoint.getBitPosition());
+                    out.writeLong(checkpoint.getPosition());
+                    out.writeInt((int) checkpoint.getCrc());
+                    out.writeInt(window.length);
+                    out.write(window);
+                }
+            } finally {
+                out.close();
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public static void delete(File file) throws IOException {
+        Files.deleteIfExists(new File(file.getPath() + SUFFIX).toPath());
+        Files.deleteIfExists(new File(file.getPath() + ENTRIES_SUFFIX).toPath());
+    }
+
+    /**
+     * @return what an index of `file` is valid for, size and modification time.
+     */
+    static String getSource(File file) {
+        return file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * @return index of the last checkpoint at or before `position` of the tar stream.
+     */
+    public int find(long position) {
+
+        int low = 0;
+        int high = checkpoints.size() - 1;
+
+        while (low < high) {
+
+            int middle = (low + high + 1) >>> 1;
+
+            if (checkpoints.get(middle).getPosition() <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return position in the tar stream where segment starting at checkpoint `index` ends.
+     */
+    public long getEnd(int index) {
+        return index + 1 < checkpoints.size() ? checkpoints.get(index + 1).getPosition() : size;
+    }
+
+    /**
+     * Opens tar stream of `file` at checkpoint `index`. CRC-32 of every
+     * segment read to its end is checked.
+     *
+     * <p>Data is decoded with {@link Inflater}, which can neither start in
+     * the middle of a byte nor be given a window, so it is fed a synthetic
+     * prefix first: a stored block holding the window, whose output is
+     * skipped, then empty blocks making up the bit offset of the checkpoint.</p>
+     */
+    public InputStream open(File file, int index) throws IOException {
+        return open(file, index, null);
+    }
+
+    /**
+     * Same as {@link #open(File, int)}, passing compressed bytes read to
+     * `digest` when it is not null.
+     */
+    public InputStream open(File file, int index, FileDigest digest) throws IOException {
+
+        Checkpoint checkpoint = checkpoints.get(index);
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            int bit = (int) (checkpoint.getBitPosition() & 7);
+            long position = checkpoint.getBitPosition() >>> 3;
+            in.getChannel().position(position);
+            InputStream compressed = digest != null ? digest.tap(in, position) : in;
+            int first = bit != 0 ? compressed.read() : 0;
+
+            if (first == -1) {
+                throw new EOFException("Checkpoint is past the end of " + file);
+            }
+
+            byte[] window = checkpoint.getWindow();
+            InputStream prefixed = new SequenceInputStream(
+                    new ByteArrayInputStream(createPrefix(window, bit, first)), compressed);
+
+            final Inflater inflater = new Inflater(true);
+            InputStream stream = new InflaterInputStream(prefixed, inflater, EntryWriter.BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+
+            skipFully(stream, window.length);
+            return new VerifyingInputStream(stream, index);
+
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and drops `count` bytes of `in`.
+     */
+    static void skipFully(InputStream in, long count) throws IOException {
+
+        byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+
+        while (count > 0) {
+
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+
+            if (read == -1) {
+                throw new EOFException("Unexpected end of stream");
+            }
+
+            count -= read;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    static byte[] createPrefix(byte[] window, int bit, int first) {
+
+        BitWriter writer = new BitWriter();
+
+        if (window.length > 0) {
+
+            // Stored block, not final.
+            writer.bits(0, 3);
+            writer.align();
+            writer.bits(window.length, 16);
+            writer.bits(~window.length & 0xffff, 16);
+            writer.bytes(window);
+        }
+
+        int fixedBlocks = bit / 2;
+
+        if (bit % 2 == 1) {
+            // 95 bits, the only odd sized empty block.
+            writeEmptyDynamicBlock(writer);
+            fixedBlocks = (bit + 1) % 8 / 2;
+        }
+
+        for (int i = 0; i < fixedBlocks; i++) {
+            // Not final, fixed codes, end of block: 10 bits.
+            writer.bits(2, 3);
+            writer.bits(0, 7);
+        }
+
+        if (bit != 0) {
+            writer.merge(first & (0xff << bit));
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Block whose only literal/length code is end of block, of length 1, and
+     * whose only distance code is unused. Code length code has 18 (run of
+     * zeros) as `0`, 0 as `10` and 1 as `11`.
+     */
+    private static void writeEmptyDynamicBlock(BitWriter writer) {
+
+        writer.bits(0, 1);
+        writer.bits(2, 2);
+        writer.bits(0, 5);
+        writer.bits(0, 5);
+        writer.bits(15, 4);
+
+        for (int symbol : IndexingInflaterInputStream.CODE_LENGTH_ORDER) {
+            writer.bits(symbol == 18 ? 1 : symbol == 0 || symbol == 1 ? 2 : 0, 3);
+        }
+
+        // Literals 0-255 unused: 138 and 118 zeros.
+        writer.bits(0, 1);
+        writer.bits(138 - 11, 7);
+        writer.bits(0, 1);
+        writer.bits(118 - 11, 7);
+
+        // End of block of length 1, distance code unused. Codes go MSB first.
+        writer.bits(3, 2);
+        writer.bits(1, 2);
+
+        // End of block.
+        writer.bits(0, 1);
+    }
+
+    /**
+     * Tar stream checked against CRC-32 of segments as it passes their ends.
+     */
+    private class VerifyingInputStream extends FilterInputStream {
+
+        private int segment;
+
+        private long position;
+
+        private long end;
+
+        private final CRC32 crc = new CRC32();
+
+        VerifyingInputStream(InputStream in, int segment) {
+            super(in);
+            this.segment = segment;
+            this.position = checkpoints.get(segment).getPosition();
+            this.end = getEnd(segment);
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            int count = in.read(b, off, len);
+
+            if (count == -1) {
+
+                if (position < size) {
+                    throw new EOFException("Tar stream ends at " + position + " instead of " + size);
+                }
+
+                return -1;
+            }
+
+            verify(b, off, count);
+            return count;
+        }
+
+        /**
+         * Skipped bytes are read, so they are checked too.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+
+            byte[] buffer = new byte[(int) Math.min(n, EntryWriter.BUFFER_SIZE)];
+            int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+
+        private void verify(byte[] b, int off, int len) throws IOException {
+
+            while (len > 0) {
+
+                int chunk = (int) Math.min(len, end - position);
+
+                crc.update(b, off, chunk);
+                position += chunk;
+                off += chunk;
+                len -= chunk;
+
+                if (position == end) {
+
+                    if (crc.getValue() != checkpoints.get(segment).getCrc()) {
+                        throw new IOException("Segment " + segment + " of tar stream doesn't match its checksum");
+                    }
+
+                    crc.reset();
+                    segment++;
+                    end = segment < checkpoints.size() ? getEnd(segment) : Long.MAX_VALUE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs bits LSB first, as deflate does.
+     */
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private int buffer;
+
+        private int count;
+
+        void bits(int value, int length) {
+
+            buffer |= value << count;
+            count += length;
+
+            while (count >= 8) {
+                out.write(buffer & 0xff);
+                buffer >>>= 8;
+                count -= 8;
+            }
+        }
+
+        void align() {
+
+            if (count > 0) {
+                out.write(buffer & 0xff);
+                buffer = 0;
+                count = 0;
+            }
+        }
+
+        void bytes(byte[] bytes) {
+            out.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Completes the pending bits with high bits of `value`.
+         */
+        void merge(int value) {
+            out.write((buffer & ((1 << count) - 1)) | value);
+            buffer = 0;
+            count = 0;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Unpack method able to list an archive without extracting it and to
+ * extract chosen entries afterwards, so content can be materialized on
+ * demand.
+ */
+public interface IndexedUnpackMethod extends UnpackMethod {
+
+    /**
+     * @return index of all entries of archive `file`.
+     */
+    ArchiveIndex index(File file) throws IOException, UnpackMethodException;
+
+    /**
+     * Extracts files and links listed in `entries`, which come from the
+     * index of the same `file`. Directories and hard links are left to
+     * the caller. Entries may be given in any order.
+     */
+    void extract(File file, List<ArchiveIndex.Entry> entries,
+                 EntryWriter writer) throws IOException, UnpackMethodException;
+}
@@ -0,0 +1,745 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Pure Java gzip decoder which, unlike {@link java.util.zip.Inflater}, knows
+ * where deflate blocks begin. Every `spacing` bytes of output it records a
+ * {@link GzipCheckpointIndex.Checkpoint} at the next block boundary: bit
+ * position in the file, output position, the last 32 KB of output and
+ * CRC-32 of the output up to the next checkpoint. Only single member gzip
+ * files are supported; CRC-32 and size in the trailer are checked at the
+ * end of stream.
+ */
+class IndexingInflaterInputStream extends InputStream {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    static final int WINDOW_SIZE = 32 * 1024;
+
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int MAX_BITS = 15;
+
+    /**
+     * Codes up to this length are decoded with one table lookup.
+     */
+    private static final int FAST_BITS = 10;
+
+    private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51,
+            59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4,
+            4, 5, 5, 5, 5, 0};
+
+    private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+            513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+
+    private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9,
+            10, 10, 11, 11, 12, 12, 13, 13};
+
+    static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        Arrays.fill(lengths, 0, 144, 8);
+        Arrays.fill(lengths, 144, 256, 9);
+        Arrays.fill(lengths, 256, 280, 7);
+        Arrays.fill(lengths, 280, 288, 8);
+
+        int[] distances = new int[30];
+        Arrays.fill(distances, 5);
+
+        try {
+            FIXED_LITERALS = new Huffman(288);
+            FIXED_LITERALS.build(lengths, 0, 288);
+            FIXED_DISTANCES = new Huffman(30);
+            FIXED_DISTANCES.build(distances, 0, 30);
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private enum State {HEADER, STORED, HUFFMAN, DONE}
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Thrown at the end of the first member of a multi-member gzip file,
+     * which {@link java.util.zip.GZIPInputStream} decodes instead.
+     */
+    static class MultiMemberException extends IOException {
+
+        MultiMemberException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Canonical Huffman code: counts of codes by length, symbols ordered by
+     * code and a lookup table of short codes indexed by bit-reversed code.
+     */
+    private static class Huffman {
+
+        final int[] count = new int[MAX_BITS + 1];
+        final int[] symbol;
+        final int[] fast = new int[1 << FAST_BITS];
+
+        Huffman(int size) {
+            symbol = new int[size];
+        }
+
+        void build(int[] lengths, int from, int size) throws IOException {
+
+            Arrays.fill(count, 0);
+            Arrays.fill(fast, 0);
+
+            for (int i = 0; i < size; i++) {
+                count[lengths[from + i]]++;
+            }
+
+            count[0] = 0;
+            int left = 1;
+
+            for (int length = 1; length <= MAX_BITS; length++) {
+
+                left = (left << 1) - count[length];
+
+                if (left < 0) {
+                    throw new IOException("Over-subscribed Huffman code");
+                }
+            }
+
+            int[] offsets = new int[MAX_BITS + 2];
+            int[] next = new int[MAX_BITS + 1];
+            int code = 0;
+
+            for (int length = 1; length <= MAX_BITS; length++) {
+                offsets[length + 1] = offsets[length] + count[length];
+                code = (code + count[length - 1]) << 1;
+                next[length] = code;
+            }
+
+            for (int i = 0; i < size; i++) {
+
+                int length = lengths[from + i];
+
+                if (length == 0) {
+                    continue;
+                }
+
+                symbol[offsets[length]++] = i;
+                int reversed = Integer.reverse(next[length]++) >>> (32 - length);
+
+                if (length <= FAST_BITS) {
+                    for (int k = reversed; k < fast.length; k += 1 << length) {
+                        fast[k] = i << 4 | length;
+                    }
+                }
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final InputStream in;
+
+    private final long spacing;
+
+    private final byte[] input = new byte[EntryWriter.BUFFER_SIZE];
+
+    private int inputPosition;
+
+    private int inputLimit;
+
+    /**
+     * Bytes moved from the file into the bit buffer.
+     */
+    private long bytesLoaded;
+
+    private long bitBuffer;
+
+    private int bitCount;
+
+    /**
+     * Zero bytes supplied past the end of file.
+     */
+    private int padding;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+
+    private long total;
+
+    private State state = State.HEADER;
+
+    private boolean lastBlock;
+
+    private int storedRemaining;
+
+    private int copyLength;
+
+    private int copyDistance;
+
+    private Huffman literals;
+
+    private Huffman distances;
+
+    private final Huffman dynamicLiterals = new Huffman(288);
+
+    private final Huffman dynamicDistances = new Huffman(30);
+
+    private final Huffman codeLengths = new Huffman(19);
+
+    private final int[] lengths = new int[288 + 30];
+
+    private final CRC32 crc = new CRC32();
+
+    private final CRC32 segmentCrc = new CRC32();
+
+    private final List<GzipCheckpointIndex.Checkpoint> checkpoints = new ArrayList<GzipCheckpointIndex.Checkpoint>();
+
+    private long nextCheckpoint;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Reads gzip header from `in`.
+     *
+     * @param spacing least number of output bytes between checkpoints.
+     */
+    IndexingInflaterInputStream(InputStream in, long spacing) throws IOException {
+
+        this.in = in;
+        this.spacing = spacing;
+
+        readHeader();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return checkpoints recorded so far, complete once the stream is read to the end.
+     */
+    List<GzipCheckpointIndex.Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return number of bytes decoded so far.
+     */
+    long getSize() {
+        return total;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  InputStream
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        int n = 0;
+        int checked = 0;
+
+        while (n < len) {
+
+            if (copyLength > 0) {
+
+                int count = Math.min(copyLength, len - n);
+
+                for (int i = 0; i < count; i++) {
+                    byte value = window[(int) (total - copyDistance) & WINDOW_MASK];
+                    window[(int) total & WINDOW_MASK] = value;
+                    b[off + n++] = value;
+                    total++;
+                }
+
+                copyLength -= count;
+                continue;
+            }
+
+            if (state == State.HUFFMAN) {
+
+                int symbol = decode(literals);
+
+                if (symbol < 256) {
+                    window[(int) total & WINDOW_MASK] = (byte) symbol;
+                    b[off + n++] = (byte) symbol;
+                    total++;
+                } else if (symbol == 256) {
+                    state = State.HEADER;
+                } else {
+                    readMatch(symbol - 257);
+                }
+
+            } else if (state == State.STORED) {
+
+                int count = Math.min(storedRemaining, len - n);
+
+                for (int i = 0; i < count; i++) {
+                    byte value = (byte) bits(8);
+                    window[(int) total & WINDOW_MASK] = value;
+                    b[off + n++] = value;
+                    total++;
+                }
+
+                storedRemaining -= count;
+
+                if (storedRemaining == 0) {
+                    state = State.HEADER;
+                }
+
+            } else if (state == State.HEADER) {
+
+                if (lastBlock) {
+
+                    if (n > 0) {
+                        // Trailer is checked on the next call, after CRC covers this output.
+                        break;
+                    }
+
+                    readTrailer();
+                    state = State.DONE;
+                    continue;
+                }
+
+                if (total >= nextCheckpoint && padding == 0) {
+                    updateCrc(b, off + checked, n - checked);
+                    checked = n;
+                    addCheckpoint();
+                }
+
+                readBlockHeader();
+
+            } else {
+                break;
+            }
+        }
+
+        updateCrc(b, off + checked, n - checked);
+        return n == 0 && state == State.DONE ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return true if `e` is caused by a {@link MultiMemberException},
+     * also when the tar reader wrapped it.
+     */
+    static boolean isMultiMember(Throwable e) {
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MultiMemberException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void readHeader() throws IOException {
+
+        if (bits(8) != 0x1f || bits(8) != 0x8b) {
+            throw new IOException("Not in gzip format");
+        }
+
+        if (bits(8) != 8) {
+            throw new IOException("Unsupported gzip compression method");
+        }
+
+        int flags = bits(8);
+
+        if ((flags & 0xe0) != 0) {
+            throw new IOException("Reserved gzip flags are set");
+        }
+
+        // Modification time, extra flags and OS.
+        for (int i = 0; i < 6; i++) {
+            bits(8);
+        }
+
+        if ((flags & 4) != 0) {
+
+            int length = bits(16);
+
+            for (int i = 0; i < length; i++) {
+                bits(8);
+            }
+        }
+
+        if ((flags & 8) != 0) {
+            skipString();
+        }
+
+        if ((flags & 16) != 0) {
+            skipString();
+        }
+
+        if ((flags & 2) != 0) {
+            bits(16);
+        }
+    }
+
+    private void skipString() throws IOException {
+
+        while (bits(8) != 0) {
+            if (padding > 0) {
+                throw new EOFException("Unexpected end of gzip header");
+            }
+        }
+    }
+
+    private void readBlockHeader() throws IOException {
+
+        lastBlock = bits(1) == 1;
+        int type = bits(2);
+
+        if (type == 0) {
+
+            bits(bitCount & 7);
+            int length = bits(16);
+
+            if ((bits(16) ^ 0xffff) != length) {
+                throw new IOException("Stored block length doesn't match its complement");
+            }
+
+            storedRemaining = length;
+            state = length > 0 ? State.STORED : State.HEADER;
+
+        } else if (type == 1) {
+
+            literals = FIXED_LITERALS;
+            distances = FIXED_DISTANCES;
+            state = State.HUFFMAN;
+
+        } else if (type == 2) {
+
+            readDynamicCodes();
+            literals = dynamicLiterals;
+            distances = dynamicDistances;
+            state = State.HUFFMAN;
+
+        } else {
+            throw new IOException("Invalid deflate block type");
+        }
+    }
+
+    private void readDynamicCodes() throws IOException {
+
+        int literalCount = bits(5) + 257;
+        int distanceCount = bits(5) + 1;
+        int codeCount = bits(4) + 4;
+
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new IOException("Too many deflate length or distance codes");
+        }
+
+        Arrays.fill(lengths, 0, 19, 0);
+
+        for (int i = 0; i < codeCount; i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        }
+
+        codeLengths.build(lengths, 0, 19);
+
+        int count = literalCount + distanceCount;
+        int[] codes = new int[count];
+        int index = 0;
+
+        while (index < count) {
+
+            int symbol = decode(codeLengths);
+
+            if (symbol < 16) {
+                codes[index++] = symbol;
+                continue;
+            }
+
+            int length = 0;
+            int repeat;
+
+            if (symbol == 16) {
+
+                if (index == 0) {
+                    throw new IOException("Repeated code length without a previous one");
+                }
+
+                length = codes[index - 1];
+                repeat = 3 + bits(2);
+
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+
+            if (index + repeat > count) {
+                throw new IOException("Too many deflate code lengths");
+            }
+
+            while (repeat-- > 0) {
+                codes[index++] = length;
+            }
+        }
+
+        if (codes[256] == 0) {
+            throw new IOException("Deflate block has no end-of-block code");
+        }
+
+        dynamicLiterals.build(codes, 0, literalCount);
+        dynamicDistances.build(codes, literalCount, distanceCount);
+    }
+
+    private void readMatch(int symbol) throws IOException {
+
+        if (symbol >= LENGTH_BASE.length) {
+            throw new IOException("Invalid deflate length code");
+        }
+
+        int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+        int distanceSymbol = decode(distances);
+
+        if (distanceSymbol >= DISTANCE_BASE.length) {
+            throw new IOException("Invalid deflate distance code");
+        }
+
+        int distance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+
+        if (distance > total) {
+            throw new IOException("Deflate distance too far back");
+        }
+
+        copyLength = length;
+        copyDistance = distance;
+    }
+
+    private void readTrailer() throws IOException {
+
+        bits(bitCount & 7);
+        long expectedCrc = bits(16) | (long) bits(16) << 16;
+        long expectedSize = bits(16) | (long) bits(16) << 16;
+
+        if (padding > 0) {
+            throw new EOFException("Unexpected end of gzip stream");
+        }
+
+        if (expectedCrc != crc.getValue() || expectedSize != (total & 0xffffffffL)) {
+            throw new IOException("gzip trailer doesn't match decoded data");
+        }
+
+        if (!checkpoints.isEmpty()) {
+            checkpoints.get(checkpoints.size() - 1).setCrc(segmentCrc.getValue());
+        }
+
+        if (hasMoreInput() && bits(8) == 0x1f && bits(8) == 0x8b) {
+            throw new MultiMemberException("Multi-member gzip is not supported");
+        }
+    }
+
+    private void addCheckpoint() {
+
+        if (!checkpoints.isEmpty()) {
+            checkpoints.get(checkpoints.size() - 1).setCrc(segmentCrc.getValue());
+            segmentCrc.reset();
+        }
+
+        int windowLength = (int) Math.min(total, WINDOW_SIZE);
+        byte[] snapshot = new byte[windowLength];
+
+        for (int i = 0; i < windowLength; i++) {
+            snapshot[i] = window[(int) (total - windowLength + i) & WINDOW_MASK];
+        }
+
+        checkpoints.add(new GzipCheckpointIndex.Checkpoint(bytesLoaded * 8 - bitCount, total, snapshot));
+        nextCheckpoint = total + spacing;
+    }
+
+    private void updateCrc(byte[] b, int off, int len) {
+
+        if (len > 0) {
+            crc.update(b, off, len);
+            segmentCrc.update(b, off, len);
+        }
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+
+        if (bitCount < MAX_BITS) {
+            fill();
+
+            if (bitCount < MAX_BITS) {
+                ensure(MAX_BITS);
+            }
+        }
+
+        int entry = huffman.fast[(int) bitBuffer & FAST_MASK];
+
+        if (entry != 0) {
+            int length = entry & 15;
+            bitBuffer >>>= length;
+            bitCount -= length;
+            return entry >>> 4;
+        }
+
+        // Long code, walked bit by bit.
+        int code = 0;
+        int first = 0;
+        int index = 0;
+
+        for (int length = 1; length <= MAX_BITS; length++) {
+
+            code |= (int) bitBuffer & 1;
+            bitBuffer >>>= 1;
+            bitCount--;
+
+            int count = huffman.count[length];
+
+            if (code - count < first) {
+                return huffman.symbol[index + (code - first)];
+            }
+
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+
+        throw new IOException("Invalid Huffman code");
+    }
+
+    /**
+     * @param count up to 32 bits, LSB first.
+     */
+    private int bits(int count) throws IOException {
+
+        if (bitCount < count) {
+            ensure(count);
+        }
+
+        int value = (int) (bitBuffer & ((1L << count) - 1));
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    /**
+     * Moves as many buffered bytes as fit into the bit buffer.
+     */
+    private void fill() {
+
+        while (bitCount <= 56 && inputPosition < inputLimit) {
+            bitBuffer |= (long) (input[inputPosition++] & 0xff) << bitCount;
+            bitCount += 8;
+            bytesLoaded++;
+        }
+    }
+
+    /**
+     * Loads at least `count` bits, zeros past the end of file.
+     */
+    private void ensure(int count) throws IOException {
+
+        while (bitCount < count) {
+
+            int value;
+
+            if (inputPosition < inputLimit || refill()) {
+                value = input[inputPosition++] & 0xff;
+            } else if (++padding > 8) {
+                throw new EOFException("Unexpected end of gzip stream");
+            } else {
+                value = 0;
+            }
+
+            bitBuffer |= (long) value << bitCount;
+            bitCount += 8;
+            bytesLoaded++;
+        }
+    }
+
+    private boolean refill() throws IOException {
+
+        int count = in.read(input);
+
+        inputPosition = 0;
+        inputLimit = Math.max(count, 0);
+        return count > 0;
+    }
+
+    private boolean hasMoreInput() throws IOException {
+        return bitCount >= 8 || inputPosition < inputLimit || refill();
+    }
+}
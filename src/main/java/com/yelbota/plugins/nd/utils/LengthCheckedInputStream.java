@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails at the end of the wrapped stream when it didn't deliver exactly
+ * `length` bytes, so a connection closed early isn't taken for a complete
+ * download.
+ */
+public class LengthCheckedInputStream extends FilterInputStream {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final long length;
+
+    private long count;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public LengthCheckedInputStream(InputStream in, long length) {
+        super(in);
+        this.length = length;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  InputStream
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+
+        int b = super.read();
+
+        if (b < 0) {
+            checkLength();
+        } else {
+            count(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        int n = super.read(b, off, len);
+
+        if (n < 0) {
+            checkLength();
+        } else {
+            count(n);
+        }
+
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void count(long n) throws IOException {
+
+        count += n;
+
+        if (count > length) {
+            throw new IOException("Stream is longer than " + length + " bytes");
+        }
+    }
+
+    private void checkLength() throws EOFException {
+
+        if (count < length) {
+            throw new EOFException("Stream ended after " + count + " of " + length + " bytes");
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Block-parallel bzip2 decoder. Every bzip2 block starts with a 48-bit magic
+ * number and carries its own CRC, so the compressed stream is split at block
+ * boundaries (which are not byte aligned) and every block is re-wrapped into
+ * a standalone single-block bzip2 stream decoded on a worker thread.
+ * Concatenated streams (pbzip2 output) are supported.
+ *
+ * <p>Block magic may occur inside compressed data by chance. Such a split
+ * fails to decode with {@link BlockDecodeException}; callers are expected to
+ * fall back to sequential decoding then.</p>
+ */
+public class ParallelBZip2InputStream extends ParallelBlockInputStream {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final int MAGIC_BITS = 48;
+    private static final int CRC_BITS = 32;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Thrown when a block produced by the splitter can't be decoded.
+     */
+    public static class BlockDecodeException extends IOException {
+
+        public BlockDecodeException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Finds block boundaries by scanning the stream bit by bit.
+     */
+    private static class Splitter implements BlockSource {
+
+        private final InputStream in;
+
+        private final byte[] input = new byte[EntryWriter.BUFFER_SIZE];
+
+        private int inputPosition;
+
+        private int inputLength;
+
+        /** Index of the next byte to be read from `in`. */
+        private long byteIndex;
+
+        /** Last bits read, the newest one is the lowest. */
+        private long window;
+
+        private int windowBits;
+
+        /** Raw bytes starting from byte `rawStart`. */
+        private byte[] raw = new byte[1024 * 1024];
+
+        private int rawLength;
+
+        private long rawStart;
+
+        /** Bit index of the current block start, -1 when no block is open. */
+        private long blockStart = -1;
+
+        private int level;
+
+        private boolean started;
+
+        private boolean finished;
+
+        Splitter(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public Callable<byte[]> nextBlock() throws IOException {
+
+            if (finished) {
+                return null;
+            }
+
+            if (!started) {
+
+                started = true;
+
+                if (!readStreamHeader()) {
+                    throw new IOException("Empty bzip2 stream");
+                }
+            }
+
+            while (true) {
+
+                int b = readByte();
+
+                if (b < 0) {
+                    throw new EOFException("Unexpected end of bzip2 stream");
+                }
+
+                appendRaw(b);
+                long k = byteIndex - 1;
+                window = (window << 8) | b;
+                windowBits += 8;
+
+                for (int shift = 7; shift >= 0; shift--) {
+
+                    if (windowBits - shift < MAGIC_BITS) {
+                        continue;
+                    }
+
+                    long candidate = (window >>> shift) & MAGIC_MASK;
+
+                    if (candidate != BLOCK_MAGIC && candidate != END_OF_STREAM_MAGIC) {
+                        continue;
+                    }
+
+                    long magicStart = k * 8 + 7 - shift - MAGIC_BITS + 1;
+                    Callable<byte[]> block = blockStart >= 0 ? closeBlock(magicStart) : null;
+
+                    if (candidate == BLOCK_MAGIC) {
+
+                        openBlock(magicStart);
+
+                    } else {
+
+                        // Skip stream CRC and padding, then expect next stream or end of data.
+                        skipBytes((CRC_BITS - shift + 7) / 8);
+
+                        if (!readStreamHeader()) {
+                            finished = true;
+                        }
+                    }
+
+                    if (block != null) {
+                        return block;
+                    }
+
+                    if (finished) {
+                        return null;
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean readStreamHeader() throws IOException {
+
+            int b = readByte();
+
+            if (b < 0) {
+                return false;
+            }
+
+            int z = readByte(), h = readByte(), digit = readByte();
+
+            if (b != 'B' || z != 'Z' || h != 'h' || digit < '1' || digit > '9') {
+                throw new IOException("Not a bzip2 stream");
+            }
+
+            level = digit - '0';
+            window = 0;
+            windowBits = 0;
+            rawStart = byteIndex;
+            rawLength = 0;
+            return true;
+        }
+
+        private void openBlock(long start) {
+
+            int drop = (int) (start / 8 - rawStart);
+
+            System.arraycopy(raw, drop, raw, 0, rawLength - drop);
+            rawLength -= drop;
+            rawStart += drop;
+            blockStart = start;
+        }
+
+        private Callable<byte[]> closeBlock(long end) {
+
+            final int offset = (int) (blockStart - rawStart * 8);
+            final long length = end - blockStart;
+            final byte[] data = Arrays.copyOf(raw, (int) ((offset + length + 7) / 8));
+            final int blockLevel = level;
+
+            blockStart = -1;
+
+            return new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return decode(data, offset, length, blockLevel);
+                }
+            };
+        }
+
+        private void appendRaw(int b) {
+
+            if (rawLength == raw.length) {
+                raw = Arrays.copyOf(raw, raw.length * 2);
+            }
+
+            raw[rawLength++] = (byte) b;
+        }
+
+        private void skipBytes(int count) throws IOException {
+
+            for (int i = 0; i < count; i++) {
+                if (readByte() < 0) {
+                    throw new EOFException("Unexpected end of bzip2 stream");
+                }
+            }
+        }
+
+        private int readByte() throws IOException {
+
+            if (inputPosition == inputLength) {
+
+                inputLength = in.read(input);
+                inputPosition = 0;
+
+                if (inputLength <= 0) {
+                    inputLength = 0;
+                    return -1;
+                }
+            }
+
+            byteIndex++;
+            return input[inputPosition++] & 0xff;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ParallelBZip2InputStream(InputStream in, int threads) {
+        super(new Splitter(in), threads, "bzip2-decode");
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return true if `e` is caused by a {@link BlockDecodeException}, i.e.
+     * a false block boundary, after which the archive has to be decoded
+     * sequentially.
+     */
+    public static boolean isBlockDecodeFailure(Throwable e) {
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BlockDecodeException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Wraps block bits [offset, offset + length) of `data` into a standalone
+     * bzip2 stream and decodes it. Stream CRC of a single block stream equals
+     * the block CRC.
+     */
+    private static byte[] decode(byte[] data, int offset, long length, int level) throws IOException {
+
+        long blockCrc = readBits(data, offset + MAGIC_BITS, CRC_BITS);
+        int blockBytes = (int) ((length + 7) / 8);
+        byte[] stream = new byte[4 + (int) ((length + MAGIC_BITS + CRC_BITS + 7) / 8)];
+
+        stream[0] = 'B';
+        stream[1] = 'Z';
+        stream[2] = 'h';
+        stream[3] = (byte) ('0' + level);
+
+        for (int i = 0; i < blockBytes; i++) {
+
+            int high = (data[i] & 0xff) << offset;
+            int low = i + 1 < data.length ? (data[i + 1] & 0xff) >>> (8 - offset) : 0;
+            stream[4 + i] = (byte) (high | low);
+        }
+
+        int tailBits = (int) (length % 8);
+
+        if (tailBits != 0) {
+            stream[4 + blockBytes - 1] &= (byte) (0xff << (8 - tailBits));
+        }
+
+        long bitPosition = 32 + length;
+        bitPosition = writeBits(stream, bitPosition, END_OF_STREAM_MAGIC, MAGIC_BITS);
+        writeBits(stream, bitPosition, blockCrc, CRC_BITS);
+
+        try {
+            InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(stream), false);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(level * 100 * 1000);
+            byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+
+            return out.toByteArray();
+
+        } catch (IOException e) {
+            throw new BlockDecodeException("Can't decode bzip2 block", e);
+        } catch (RuntimeException e) {
+            throw new BlockDecodeException("Can't decode bzip2 block", e);
+        }
+    }
+
+    private static long readBits(byte[] data, long position, int count) {
+
+        long value = 0;
+
+        for (int i = 0; i < count; i++, position++) {
+            int bit = (data[(int) (position >>> 3)] >>> (7 - (int) (position & 7))) & 1;
+            value = (value << 1) | bit;
+        }
+
+        return value;
+    }
+
+    private static long writeBits(byte[] data, long position, long value, int count) {
+
+        for (int i = count - 1; i >= 0; i--, position++) {
+            if (((value >>> i) & 1) != 0) {
+                data[(int) (position >>> 3)] |= (byte) (0x80 >>> (int) (position & 7));
+            }
+        }
+
+        return position;
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Input stream over independently decodable blocks. A producer thread splits
+ * the source into decode tasks, tasks run on a worker pool and their results
+ * are returned strictly in order. The number of blocks in flight is bounded,
+ * so memory use doesn't depend on archive size.
+ */
+public class ParallelBlockInputStream extends InputStream {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Splits compressed data into decode tasks.
+     */
+    public interface BlockSource extends Closeable {
+
+        /**
+         * @return task producing decoded bytes of the next block, or null at the end of data.
+         */
+        Callable<byte[]> nextBlock() throws IOException;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final Future<byte[]> endOfStream = completed(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+            return null;
+        }
+    });
+
+    private final BlockSource source;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<Future<byte[]>> queue;
+
+    private final Thread producer;
+
+    private byte[] current;
+
+    private int position;
+
+    private boolean eof;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ParallelBlockInputStream(BlockSource source, int threads, String name) {
+
+        this.source = source;
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(name));
+        this.queue = new ArrayBlockingQueue<Future<byte[]>>(threads * 2);
+        this.producer = new NamedThreadFactory(name + "-reader").newThread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        });
+
+        producer.start();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  InputStream
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+
+        if (!ensureBlock()) {
+            return -1;
+        }
+
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!ensureBlock()) {
+            return -1;
+        }
+
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        eof = true;
+        producer.interrupt();
+        executor.shutdownNow();
+
+        // Source may be shared with the caller, which reads it on after close.
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        source.close();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private boolean ensureBlock() throws IOException {
+
+        while (current == null || position == current.length) {
+
+            if (eof) {
+                return false;
+            }
+
+            try {
+                Future<byte[]> future = queue.take();
+
+                if (future == endOfStream) {
+                    eof = true;
+                    return false;
+                }
+
+                current = future.get();
+                position = 0;
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decoded block");
+
+            } catch (ExecutionException e) {
+
+                eof = true;
+                Throwable cause = e.getCause();
+
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+
+                throw new IOException("Can't decode block", cause);
+            }
+        }
+
+        return true;
+    }
+
+    private void produce() {
+
+        Future<byte[]> last = endOfStream;
+
+        try {
+            Callable<byte[]> block;
+
+            while ((block = source.nextBlock()) != null) {
+                queue.put(executor.submit(block));
+            }
+
+        } catch (InterruptedException e) {
+            // Stream was closed.
+            return;
+
+        } catch (final Exception e) {
+
+            last = completed(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    throw e;
+                }
+            });
+        }
+
+        try {
+            queue.put(last);
+        } catch (InterruptedException e) {
+            // Stream was closed.
+        }
+    }
+
+    private static Future<byte[]> completed(Callable<byte[]> callable) {
+
+        FutureTask<byte[]> task = new FutureTask<byte[]>(callable);
+        task.run();
+        return task;
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Block-parallel xz decoder. Multi-threaded xz encoders (`xz -T`, pixz)
+ * write independent blocks whose positions are listed in the index at the
+ * end of the file, so every worker thread seeks its own decoder to a block
+ * and decodes it separately. Decoded blocks are held in memory, up to three
+ * per thread.
+ *
+ * <p>Plain `xz` writes the whole file as one block, which can't be decoded
+ * in parallel nor held in memory. {@link #open} streams such files, and
+ * files with blocks larger than {@link #MAX_BLOCK_SIZE}, through a single
+ * decoder instead, and uses fewer threads when blocks in flight would take
+ * more than {@link #MAX_BUFFERED_SIZE}.</p>
+ */
+public class ParallelXZInputStream extends ParallelBlockInputStream {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Larger blocks are streamed rather than decoded into memory.
+     */
+    public static final long MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Most decoded bytes held at a time by a parallel decoder.
+     */
+    public static final long MAX_BUFFERED_SIZE = 256 * 1024 * 1024;
+
+    private static final int BLOCKS_PER_THREAD = 3;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    private static class Blocks implements BlockSource {
+
+        private final File file;
+
+        private final int blockCount;
+
+        private final List<SeekableXZInputStream> decoders = new ArrayList<SeekableXZInputStream>();
+
+        private final ThreadLocal<SeekableXZInputStream> decoder = new ThreadLocal<SeekableXZInputStream>();
+
+        private int next;
+
+        private boolean closed;
+
+        Blocks(File file) throws IOException {
+            this.file = file;
+            this.blockCount = open().getBlockCount();
+        }
+
+        @Override
+        public Callable<byte[]> nextBlock() {
+
+            if (next == blockCount) {
+                return null;
+            }
+
+            final int block = next++;
+
+            return new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return decode(block);
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+
+            closed = true;
+
+            for (SeekableXZInputStream in : decoders) {
+                in.close();
+            }
+
+            decoders.clear();
+        }
+
+        private byte[] decode(int block) throws IOException {
+
+            SeekableXZInputStream in = decoder.get();
+
+            if (in == null) {
+                in = open();
+                decoder.set(in);
+            }
+
+            long size = in.getBlockSize(block);
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("xz block " + block + " is too large: " + size);
+            }
+
+            byte[] data = new byte[(int) size];
+            in.seekToBlock(block);
+            new DataInputStream(in).readFully(data);
+            return data;
+        }
+
+        private synchronized SeekableXZInputStream open() throws IOException {
+
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+
+            SeekableFileInputStream file = new SeekableFileInputStream(this.file);
+
+            try {
+                SeekableXZInputStream in = new SeekableXZInputStream(file);
+                decoders.add(in);
+                return in;
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ParallelXZInputStream(File file, int threads) throws IOException {
+        super(new Blocks(file), threads, "xz-decode");
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return decoded content of `file`, read in parallel when it has
+     * several blocks small enough to be held in memory, streamed otherwise.
+     */
+    public static InputStream open(File file, int threads) throws IOException {
+
+        SeekableFileInputStream source = new SeekableFileInputStream(file);
+        SeekableXZInputStream in;
+
+        try {
+            in = new SeekableXZInputStream(source);
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+
+        long largest = 0;
+
+        for (int block = 0; block < in.getBlockCount(); block++) {
+            largest = Math.max(largest, in.getBlockSize(block));
+        }
+
+        long perThread = Math.max(1, largest * BLOCKS_PER_THREAD);
+        int parallel = (int) Math.min(threads, Math.max(1, MAX_BUFFERED_SIZE / perThread));
+
+        if (in.getBlockCount() < 2 || largest > MAX_BLOCK_SIZE || parallel < 2) {
+            return in;
+        }
+
+        in.close();
+        return new ParallelXZInputStream(file, parallel);
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Zip unpack method which reads central directory once and inflates entries
+ * on a pool of worker threads. Entries are read with positional FileChannel
+ * reads, so workers don't contend for a shared stream. Entries stored
+ * without compression are copied with {@link FileChannel#transferTo},
+ * bypassing the Java heap. Entries rejected by the writer's filter are
+ * dropped while reading central directory, their data is never touched.
+ * The index is the central directory itself, so a single entry is
+ * extracted with one positional read. When a digest is computed, entries
+ * are read in file order and stored ones through the heap, so the digest
+ * is fed as data is extracted.
+ *
+ * @see DefaultUnpackMethods#PARALLEL_ZIP
+ */
+public class ParallelZipUnpackMethod implements DigestingUnpackMethod, IndexedUnpackMethod {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int threads;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ParallelZipUnpackMethod() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelZipUnpackMethod(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        this.threads = threads;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
+
+    @Override
+    public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        unpack(file, writer, log);
+        writer.finish();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  EntryUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+        unpack(file, writer, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  DigestingUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, FileDigest digest,
+                       Log log) throws IOException, UnpackMethodException {
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(channel);
+            List<ZipCentralDirectory.Entry> entries = new ArrayList<ZipCentralDirectory.Entry>();
+
+            for (ZipCentralDirectory.Entry entry : centralDirectory.getEntries()) {
+
+                // Skipped before anything is read from the entry data.
+                if (!writer.accepts(entry.getName())) {
+                    continue;
+                }
+
+                if (entry.isEncrypted()) {
+                    throw new UnpackMethodException("Encrypted entries are not supported: " + entry.getName());
+                }
+
+                if (entry.isDirectory()) {
+                    writer.writeDirectory(entry.getName(), entry.getUnixMode());
+                } else {
+                    entries.add(entry);
+                }
+            }
+
+            if (log != null) {
+                log.debug("Extracting " + entries.size() + " entries from " + file + " using " + threads + " threads");
+            }
+
+            extract(channel, entries, writer, digest);
+
+        } finally {
+            channel.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  IndexedUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public ArchiveIndex index(File file) throws IOException, UnpackMethodException {
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ArchiveIndex index = new ArchiveIndex();
+
+        try {
+            for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(channel).getEntries()) {
+
+                if (entry.isEncrypted()) {
+                    throw new UnpackMethodException("Encrypted entries are not supported: " + entry.getName());
+                }
+
+                char type = entry.isDirectory() ? ArchiveIndex.DIRECTORY
+                        : entry.isSymlink() ? ArchiveIndex.SYMLINK : ArchiveIndex.FILE;
+
+                ArchiveIndex.Entry indexEntry = new ArchiveIndex.Entry(type, entry.getName());
+                indexEntry.setOffset(entry.getLocalHeaderOffset());
+                indexEntry.setLength(entry.getCompressedSize());
+                indexEntry.setMethod(entry.getMethod());
+                indexEntry.setSize(entry.getSize());
+                indexEntry.setCrc(entry.getCrc());
+                indexEntry.setMode(entry.getUnixMode() & 07777);
+                indexEntry.setLastModified(entry.getLastModified());
+                index.add(indexEntry);
+            }
+        } finally {
+            channel.close();
+        }
+
+        return index;
+    }
+
+    @Override
+    public void extract(File file, List<ArchiveIndex.Entry> entries,
+                        EntryWriter writer) throws IOException, UnpackMethodException {
+
+        List<ZipCentralDirectory.Entry> zipEntries = new ArrayList<ZipCentralDirectory.Entry>(entries.size());
+
+        for (ArchiveIndex.Entry entry : entries) {
+
+            if (entry.getType() == ArchiveIndex.FILE || entry.getType() == ArchiveIndex.SYMLINK) {
+                zipEntries.add(ZipCentralDirectory.createEntry(entry.getName(), entry.getMethod(), entry.getCrc(),
+                        entry.getLength(), entry.getSize(), entry.getOffset(), entry.getMode(),
+                        entry.getType() == ArchiveIndex.SYMLINK, entry.getLastModified()));
+            }
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            extract(channel, zipEntries, writer, null);
+        } finally {
+            channel.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Protected methods
+    //
+    //-------------------------------------------------------------------------
+
+    protected void extractEntry(FileChannel channel, ZipCentralDirectory.Entry entry,
+                                EntryWriter writer) throws IOException {
+        extractEntry(channel, entry, writer, null);
+    }
+
+    /**
+     * @param digest gets entry data read, may be null.
+     */
+    protected void extractEntry(FileChannel channel, ZipCentralDirectory.Entry entry, EntryWriter writer,
+                                FileDigest digest) throws IOException {
+
+        if (!entry.isSymlink() && writer.keepIfUnchanged(entry.getName(), entry.getSize(), entry.getCrc())) {
+            return;
+        }
+
+        if (digest == null && !entry.isSymlink() && entry.getMethod() == ZipCentralDirectory.METHOD_STORED
+                && entry.getCompressedSize() == entry.getSize()) {
+            writer.transferFile(entry.getName(), channel, ZipCentralDirectory.getDataOffset(channel, entry),
+                    entry.getSize(), entry.getCrc(), entry.getUnixMode() & 07777, entry.getLastModified());
+            return;
+        }
+
+        InputStream in = new ZipEntryInputStream(channel, entry, digest);
+
+        try {
+            if (entry.isSymlink()) {
+                writer.writeSymlink(entry.getName(), readTarget(in));
+            } else {
+                writer.writeFile(entry.getName(), in, entry.getUnixMode() & 07777, entry.getLastModified());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void extract(final FileChannel channel, List<ZipCentralDirectory.Entry> entries,
+                         final EntryWriter writer, final FileDigest digest) throws IOException, UnpackMethodException {
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        if (digest != null) {
+
+            // In file order, so read data continues the digested part and isn't held long.
+            Collections.sort(entries, new Comparator<ZipCentralDirectory.Entry>() {
+                @Override
+                public int compare(ZipCentralDirectory.Entry a, ZipCentralDirectory.Entry b) {
+                    return Long.valueOf(a.getLocalHeaderOffset()).compareTo(b.getLocalHeaderOffset());
+                }
+            });
+
+        } else {
+
+            // Largest entries first, so the tail of the job is made of small ones.
+            Collections.sort(entries, new Comparator<ZipCentralDirectory.Entry>() {
+                @Override
+                public int compare(ZipCentralDirectory.Entry a, ZipCentralDirectory.Entry b) {
+                    return Long.valueOf(b.getCompressedSize()).compareTo(a.getCompressedSize());
+                }
+            });
+        }
+
+        int poolSize = Math.min(threads, entries.size());
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("zip-unpack"));
+
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(entries.size());
+
+            for (final ZipCentralDirectory.Entry entry : entries) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        extractEntry(channel, entry, writer, digest);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+        } catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new UnpackMethodException("Can't extract entry", cause);
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new UnpackMethodException("Interrupted while extracting", e);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String readTarget(InputStream in) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+
+        return out.toString("UTF-8");
+    }
+}
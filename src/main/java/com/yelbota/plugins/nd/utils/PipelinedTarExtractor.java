@@ -0,0 +1,433 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tar stream extractor which decouples decompression from file writes. The
+ * calling thread decompresses and parses headers, copying file data into
+ * chunks from a bounded pool; a pool of writers creates files and fills
+ * them from the chunks. When all chunks are taken the reader waits for
+ * writers to return some, so at most `buffers` chunks of
+ * {@link EntryWriter#BUFFER_SIZE} bytes are held at a time.
+ *
+ * <p>Files are handed to writers in archive order and a writer only waits
+ * for chunks of its own file, so earlier files always drain. Hard links
+ * are created after all files are written. When extraction fails, writes
+ * in progress are cancelled and waited for before the failure is
+ * thrown.</p>
+ */
+public class PipelinedTarExtractor extends TarStreamExtractor {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final int BUFFERS_PER_WRITER = 4;
+
+    private static final long POLL_MILLIS = 100;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    private static class Chunk {
+
+        final byte[] data = new byte[EntryWriter.BUFFER_SIZE];
+
+        int length;
+    }
+
+    /**
+     * Content of one file on its way from the reader to a writer. Chunks
+     * read by the writer, or left over when it fails, go back to the pool.
+     */
+    private static class Pipe extends InputStream {
+
+        private final BlockingQueue<Chunk> free;
+
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<Chunk>();
+
+        private Chunk current;
+
+        private int position;
+
+        private boolean finished;
+
+        private boolean abandoned;
+
+        private IOException failure;
+
+        Pipe(BlockingQueue<Chunk> free) {
+            this.free = free;
+        }
+
+        synchronized void put(Chunk chunk) {
+
+            if (abandoned) {
+                free.offer(chunk);
+                return;
+            }
+
+            chunks.add(chunk);
+            notifyAll();
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException failure) {
+            this.failure = failure;
+            notifyAll();
+        }
+
+        synchronized void abandon() {
+
+            abandoned = true;
+
+            if (current != null) {
+                free.offer(current);
+                current = null;
+            }
+
+            while (!chunks.isEmpty()) {
+                free.offer(chunks.poll());
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            while (current == null) {
+
+                if (failure != null) {
+                    throw new IOException("Reading archive failed", failure);
+                }
+
+                if (!chunks.isEmpty()) {
+                    current = chunks.poll();
+                    position = 0;
+                } else if (finished) {
+                    return -1;
+                } else {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for entry data");
+                    }
+                }
+            }
+
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current.data, position, b, off, count);
+            position += count;
+
+            if (position == current.length) {
+                free.offer(current);
+                current = null;
+            }
+
+            return count;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int writers;
+
+    private final int buffers;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public PipelinedTarExtractor(int writers) {
+        this(writers, BUFFERS_PER_WRITER * writers);
+    }
+
+    /**
+     * @param writers threads writing files
+     * @param buffers most chunks of file data held at a time.
+     */
+    public PipelinedTarExtractor(int writers, int buffers) {
+
+        if (writers < 1) {
+            throw new IllegalArgumentException("writers must be positive, got " + writers);
+        }
+
+        if (buffers < 1) {
+            throw new IllegalArgumentException("buffers must be positive, got " + buffers);
+        }
+
+        this.writers = writers;
+        this.buffers = buffers;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  TarStreamExtractor
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Reads tar entries from `in` until the end of archive and returns once
+     * all files are written. Stream is not closed.
+     */
+    @Override
+    public void extract(InputStream in, EntryWriter writer, ArchiveIndex index) throws IOException {
+
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(buffers);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Map<String, Future<Void>> written = new HashMap<String, Future<Void>>();
+        List<TarArchiveEntry> hardLinks = new ArrayList<TarArchiveEntry>();
+        ExecutorService executor = Executors.newFixedThreadPool(writers, new NamedThreadFactory("tar-writer"));
+        Pipe pipe = null;
+        int allocated = 0;
+
+        try {
+            TarArchiveEntry entry;
+
+            while ((entry = tar.getNextTarEntry()) != null) {
+
+                String name = entry.getName();
+                addEntry(index, tar, entry);
+
+                if (!writer.accepts(name)) {
+                    continue;
+                }
+
+                if (entry.isDirectory()) {
+                    writer.writeDirectory(name, entry.getMode());
+                } else if (entry.isSymbolicLink()) {
+                    writer.writeSymlink(name, entry.getLinkName());
+                } else if (entry.isLink()) {
+                    hardLinks.add(entry);
+                } else if (entry.isFile()) {
+
+                    // Later entry of the same name replaces the earlier one.
+                    Future<Void> previous = written.get(name);
+
+                    if (previous != null) {
+                        await(previous);
+                    }
+
+                    pipe = new Pipe(free);
+                    written.put(name, executor.submit(createWriteTask(writer, name, entry, pipe, failure)));
+
+                    while (true) {
+
+                        Chunk chunk = free.poll();
+
+                        if (chunk == null && allocated < buffers) {
+                            chunk = new Chunk();
+                            allocated++;
+                        }
+
+                        while (chunk == null) {
+                            checkFailure(failure);
+                            chunk = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        }
+
+                        chunk.length = fill(tar, chunk.data);
+
+                        if (chunk.length == 0) {
+                            free.offer(chunk);
+                            break;
+                        }
+
+                        pipe.put(chunk);
+                    }
+
+                    pipe.finish();
+                    pipe = null;
+                    checkFailure(failure);
+                }
+            }
+
+            for (Future<Void> future : written.values()) {
+                await(future);
+            }
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting");
+
+        } catch (IOException e) {
+
+            if (pipe != null) {
+                pipe.fail(e);
+            }
+
+            throw e;
+
+        } finally {
+            stop(executor, written.values());
+        }
+
+        for (TarArchiveEntry hardLink : hardLinks) {
+            writer.writeHardLink(hardLink.getName(), hardLink.getLinkName());
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private static Callable<Void> createWriteTask(final EntryWriter writer, final String name,
+                                                  final TarArchiveEntry entry, final Pipe pipe,
+                                                  final AtomicReference<Throwable> failure) {
+
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+
+                try {
+                    writer.writeFile(name, pipe, entry.getMode(), entry.getModTime().getTime());
+                    return null;
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                } finally {
+                    pipe.abandon();
+                }
+            }
+        };
+    }
+
+    /**
+     * Cancels writes still running and returns once every writer thread has
+     * ended, so no file is written after {@link #extract} returns or throws.
+     */
+    private static void stop(ExecutorService executor, Collection<Future<Void>> futures) {
+
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+
+        executor.shutdownNow();
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                if (executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return bytes read into `data`, less than its length only at the end of entry.
+     */
+    private static int fill(InputStream in, byte[] data) throws IOException {
+
+        int length = 0;
+        int count;
+
+        while (length < data.length && (count = in.read(data, length, data.length - length)) != -1) {
+            length += count;
+        }
+
+        return length;
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+
+        Throwable cause = failure.get();
+
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+
+        if (cause != null) {
+            throw new IOException("Can't write entry", cause);
+        }
+    }
+
+    private static void await(Future<Void> future) throws IOException, InterruptedException {
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException("Can't write entry", cause);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drains output of a forked process and waits for it. Both streams are read
+ * on a pool shared by all processes, decoded as UTF-8. Lines are logged in
+ * batches: with debug enabled every line goes to DEBUG, otherwise only the
+ * first {@link #INFO_LINES} lines of each stream go to INFO (error stream to
+ * WARN) and the rest is summarised. Last lines of the error stream are kept for failure
+ * messages.
+ */
+public class ProcessOutput {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final int INFO_LINES = 20;
+
+    private static final int BATCH_LINES = 256;
+    private static final int ERROR_TAIL_LINES = 10;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Unbounded, but threads are reused; a process whose streams are not
+     * drained may block forever, so draining never waits for a free thread.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamedThreadFactory("process-output"));
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final String name;
+
+    private final Log log;
+
+    private final LinkedList<String> errorTail = new LinkedList<String>();
+
+    private int shownOutputLines;
+
+    private int shownErrorLines;
+
+    private int hiddenLines;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @param name prefix of logged lines, i.e. command name.
+     * @param log may be null.
+     */
+    public ProcessOutput(String name, Log log) {
+        this.name = name;
+        this.log = log;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Closes input of `process`, drains its output and waits for it to exit.
+     * Process is destroyed when interrupted.
+     *
+     * @return exit status.
+     */
+    public int waitFor(Process process) throws IOException, InterruptedException {
+
+        process.getOutputStream().close();
+
+        Future<Void> output = EXECUTOR.submit(drain(process.getInputStream(), false));
+        Future<Void> error = EXECUTOR.submit(drain(process.getErrorStream(), true));
+
+        try {
+            int status = process.waitFor();
+
+            get(output);
+            get(error);
+
+            if (hiddenLines > 0 && log != null) {
+                log.info(name + ": " + hiddenLines + " more lines not shown, run with -X to see them");
+            }
+
+            return status;
+
+        } finally {
+            // Closes the streams, so drains end if process didn't.
+            process.destroy();
+        }
+    }
+
+    /**
+     * @return last lines of the error stream, separated by newlines.
+     */
+    public synchronized String getErrorTail() {
+
+        StringBuilder builder = new StringBuilder();
+
+        for (String line : errorTail) {
+
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+
+            builder.append(line);
+        }
+
+        return builder.toString();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private Callable<Void> drain(final InputStream in, final boolean error) {
+
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+                List<String> batch = new ArrayList<String>();
+
+                try {
+                    String line;
+
+                    while ((line = reader.readLine()) != null) {
+
+                        batch.add(line);
+
+                        if (error) {
+                            keepErrorLine(line);
+                        }
+
+                        // Flush when a batch is full or the process went quiet.
+                        if (batch.size() >= BATCH_LINES || !reader.ready()) {
+                            flush(batch, error);
+                        }
+                    }
+
+                    flush(batch, error);
+                } finally {
+                    reader.close();
+                }
+
+                return null;
+            }
+        };
+    }
+
+    private void flush(List<String> batch, boolean error) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (log != null) {
+            if (log.isDebugEnabled()) {
+                log.debug(join(batch));
+            } else {
+                for (String line : batch.subList(0, take(batch.size(), error))) {
+                    if (error) {
+                        log.warn(name + ": " + line);
+                    } else {
+                        log.info(name + ": " + line);
+                    }
+                }
+            }
+        }
+
+        batch.clear();
+    }
+
+    /**
+     * @return how many of `count` lines of a stream may still be shown.
+     */
+    private synchronized int take(int count, boolean error) {
+
+        int shown = Math.max(0, Math.min(count, INFO_LINES - (error ? shownErrorLines : shownOutputLines)));
+
+        if (error) {
+            shownErrorLines += shown;
+        } else {
+            shownOutputLines += shown;
+        }
+
+        hiddenLines += count - shown;
+
+        return shown;
+    }
+
+    private synchronized void keepErrorLine(String line) {
+
+        errorTail.add(line);
+
+        if (errorTail.size() > ERROR_TAIL_LINES) {
+            errorTail.removeFirst();
+        }
+    }
+
+    private String join(List<String> lines) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for (String line : lines) {
+
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+
+            builder.append(name).append(": ").append(line);
+        }
+
+        return builder.toString();
+    }
+
+    private static void get(Future<Void> future) throws IOException, InterruptedException {
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Can't read process output", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unpack method able to extract only the entries selected by an
+ * {@link EntryFilter}. Entries which are not selected are skipped inside
+ * the method, without being written (and, where the archive format
+ * allows, without being decompressed).
+ */
+public interface SelectiveUnpackMethod extends UnpackMethod {
+
+    /**
+     * @param filter selection of entries to extract, null for all.
+     */
+    void unpack(File file, File directory, EntryFilter filter, Log log) throws IOException, UnpackMethodException;
+}
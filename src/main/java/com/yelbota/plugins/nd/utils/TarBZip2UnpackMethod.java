@@ -15,60 +15,204 @@
  */
 package com.yelbota.plugins.nd.utils;
 
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.maven.plugin.logging.Log;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 /**
- * *.tar.bz2 and tbz2 unpack method. Note: supported only in unix-like
- * operation systems
+ * *.tar.bz2 and tbz2 unpack method. Archive is decoded in-process with
+ * {@link ParallelBZip2InputStream}, symbolic links and permissions are kept.
+ * If block splitting hits a false block boundary, archive is unpacked again
+ * with sequential decoder. Files are written by {@link PipelinedTarExtractor} writers
+ * while the next blocks are decoded.
  *
  * @author Aleksey Fomkin
  */
-public class TarBZip2UnpackMethod implements UnpackMethod {
+public class TarBZip2UnpackMethod implements DigestingUnpackMethod, StreamUnpackMethod, IndexedUnpackMethod {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int threads;
+
+    private final TarStreamExtractor extractor = new TarStreamExtractor();
+
+    private final TarStreamExtractor pipelinedExtractor;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public TarBZip2UnpackMethod() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TarBZip2UnpackMethod(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        this.threads = threads;
+        this.pipelinedExtractor = threads > 1 ? new PipelinedTarExtractor(threads) : extractor;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackMethod
+    //
+    //-------------------------------------------------------------------------
 
     @Override
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
 
-    /**
-     * @inheritDoc
-     */
+    @Override
     public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
 
-        String os = System.getProperty("os.name").toLowerCase();
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
 
-        if (!(os.indexOf("mac") > -1 || os.indexOf("lin") > -1)) {
-            throw new UnpackMethodException("Tar-bz2 archives supported only under Linux and Mac OS X.");
-        }
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        unpack(file, writer, log);
+        writer.finish();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  EntryUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+        unpack(file, writer, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  DigestingUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Bytes digested by the parallel pass aren't digested again by the
+     * sequential one.
+     */
+    @Override
+    public void unpack(File file, EntryWriter writer, FileDigest digest,
+                       Log log) throws IOException, UnpackMethodException {
 
         try {
+            extract(new ParallelBZip2InputStream(open(file, digest), threads), writer);
+        } catch (IOException e) {
+
+            if (!ParallelBZip2InputStream.isBlockDecodeFailure(e)) {
+                throw e;
+            }
+
+            if (log != null) {
+                log.warn("Parallel bzip2 decoding of " + file + " failed, falling back to sequential decoder");
+            }
 
-            // Java 6 doesn't support symlinks.
-            ProcessBuilder builder = new ProcessBuilder(
-                    "tar", "-jxvf", file.getAbsolutePath(),
-                    "-C", directory.getAbsolutePath()
-            );
+            extract(new BZip2CompressorInputStream(open(file, digest), true), writer);
+        }
+    }
 
-            Process process = builder.start();
+    //-------------------------------------------------------------------------
+    //
+    //  IndexedUnpackMethod
+    //
+    //-------------------------------------------------------------------------
 
-            CleanStream cleanError = new CleanStream(process.getErrorStream(), log);
-            CleanStream cleanOutput = new CleanStream(process.getInputStream(), log);
+    @Override
+    public ArchiveIndex index(File file) throws IOException {
 
-            cleanError.start();
-            cleanOutput.start();
-            process.waitFor();
+        InputStream in = openTar(file);
 
-        } catch (InterruptedException e) {
-            throw new UnpackMethodException("Something happened during running `tar`", e);
+        try {
+            return extractor.index(in);
+        } finally {
+            in.close();
         }
     }
 
     @Override
+    public void extract(File file, List<ArchiveIndex.Entry> entries, EntryWriter writer) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            extractor.extract(in, entries, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  StreamUnpackMethod
+    //
+    //-------------------------------------------------------------------------
 
     /**
-     * @inheritDoc
+     * Stream can't be read twice, so a false block boundary fails with
+     * {@link ParallelBZip2InputStream.BlockDecodeException} here.
      */
-    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
-        unpack(file, directory, null);
+    @Override
+    public void unpack(InputStream in, EntryWriter writer, Log log) throws IOException {
+        extract(new ParallelBZip2InputStream(new CloseShieldInputStream(in), threads), writer);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void extract(InputStream in, EntryWriter writer) throws IOException {
+
+        try {
+            pipelinedExtractor.extract(in, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream open(File file) throws IOException {
+        return open(file, null);
+    }
+
+    private static InputStream open(File file, FileDigest digest) throws IOException {
+
+        InputStream in = new FileInputStream(file);
+        return new BufferedInputStream(digest != null ? digest.tap(in, 0) : in, EntryWriter.BUFFER_SIZE);
+    }
+
+    private static InputStream openTar(File file) throws IOException {
+        return new BZip2CompressorInputStream(open(file), true);
     }
 }
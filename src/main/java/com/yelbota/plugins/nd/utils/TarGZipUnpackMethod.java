@@ -15,21 +15,452 @@
  */
 package com.yelbota.plugins.nd.utils;
 
-import org.codehaus.plexus.archiver.AbstractUnArchiver;
-import org.codehaus.plexus.archiver.tar.TarGZipUnArchiver;
+import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.logging.Logger;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
 /**
+ * Unpacks tar.gz through {@link EntryWriter}. With more than one thread the
+ * archive is decompressed on the calling thread while files are written by
+ * {@link PipelinedTarExtractor} writers.
+ *
+ * <p>gzip can't be decoded in parallel from its start, so the first entry
+ * writing unpack of a large archive decodes it with
+ * {@link IndexingInflaterInputStream}, which records checkpoints on the
+ * way, and stores them as a {@link GzipCheckpointIndex} next to the archive
+ * before it returns. Later unpacks of the same file decode the segments
+ * between checkpoints in parallel, each worker extracting the entries
+ * whose data starts in its segment.</p>
+ *
  * @author Aleksey Fomkin
  */
-public class TarGZipUnpackMethod extends ZipUnpackMethod {
+public class TarGZipUnpackMethod implements DigestingUnpackMethod, CheckpointingUnpackMethod, IndexedUnpackMethod {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
 
+    private final int threads;
+
+    private long checkpointSpacing = GzipCheckpointIndex.DEFAULT_SPACING;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public TarGZipUnpackMethod() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @deprecated archives are no longer unpacked by a plexus unarchiver,
+     * so the logger is unused, use {@link #TarGZipUnpackMethod()}.
+     */
+    @Deprecated
     public TarGZipUnpackMethod(Logger plexusLogger) {
-        super(plexusLogger);
+        this();
+    }
+
+    /**
+     * @param threads segments decoded at once, 1 to neither use nor record checkpoints.
+     */
+    public TarGZipUnpackMethod(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        this.threads = threads;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public long getCheckpointSpacing() {
+        return checkpointSpacing;
+    }
+
+    /**
+     * @param checkpointSpacing bytes of tar stream between recorded
+     * checkpoints, {@link GzipCheckpointIndex#DEFAULT_SPACING} by default.
+     */
+    public void setCheckpointSpacing(long checkpointSpacing) {
+
+        if (checkpointSpacing < 1) {
+            throw new IllegalArgumentException("checkpointSpacing must be positive, got " + checkpointSpacing);
+        }
+
+        this.checkpointSpacing = checkpointSpacing;
     }
 
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
     @Override
-    protected AbstractUnArchiver createWorker() {
-        return new TarGZipUnArchiver();
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
+
+    @Override
+    public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        unpack(file, writer, log);
+        writer.finish();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  EntryUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+        unpack(file, writer, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  DigestingUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Segment workers pass the compressed bytes they read to `digest`.
+     */
+    @Override
+    public void unpack(File file, EntryWriter writer, FileDigest digest,
+                       Log log) throws IOException, UnpackMethodException {
+
+        GzipCheckpointIndex index = threads > 1 ? readCheckpoints(file, log) : null;
+
+        if (index != null && index.getCheckpoints().size() > 1) {
+
+            try {
+                extractParallel(file, index, writer, digest, log);
+                return;
+            } catch (IOException e) {
+                if (log != null) log.warn("Checkpoints of " + file + " are unusable, decoding it sequentially: " + e);
+                GzipCheckpointIndex.delete(file);
+            }
+        }
+
+        // Archives smaller than this decode into a single segment at usual compression ratios.
+        if (threads > 1 && file.length() >= checkpointSpacing / 4) {
+
+            String source = GzipCheckpointIndex.getSource(file);
+            InputStream in = new FileInputStream(file);
+
+            try {
+                GzipCheckpointIndex recorded = unpackCheckpointed(digest != null ? digest.tap(in, 0) : in,
+                        writer, log);
+
+                // Checkpoints are of the file as it was before the unpack.
+                if (recorded != null && source.equals(GzipCheckpointIndex.getSource(file))) {
+                    storeCheckpoints(file, recorded, log);
+                }
+
+                return;
+
+            } catch (IOException e) {
+
+                if (!IndexingInflaterInputStream.isMultiMember(e)) {
+                    throw e;
+                }
+
+                if (log != null) log.debug(file + " has several gzip members, decoding it without checkpoints");
+
+            } finally {
+                in.close();
+            }
+        }
+
+        InputStream in = new FileInputStream(file);
+
+        try {
+            unpack(digest != null ? digest.tap(in, 0) : in, writer, log);
+        } finally {
+            in.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  IndexedUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public ArchiveIndex index(File file) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            return new TarStreamExtractor().index(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void extract(File file, List<ArchiveIndex.Entry> entries, EntryWriter writer) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            new TarStreamExtractor().extract(in, entries, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  StreamUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(InputStream in, EntryWriter writer, Log log) throws IOException {
+
+        InputStream tar = new GZIPInputStream(new CloseShieldInputStream(in), EntryWriter.BUFFER_SIZE);
+
+        try {
+            createExtractor().extract(tar, writer);
+        } finally {
+            tar.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  CheckpointingUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Decodes `in` with {@link IndexingInflaterInputStream}, which is
+     * slower than {@link GZIPInputStream} but saves decoding the archive
+     * once more for checkpoints. With a single thread nothing is recorded.
+     *
+     * @throws IOException caused by {@link IndexingInflaterInputStream.MultiMemberException}
+     * if `in` has more than one gzip member; they are extracted by
+     * {@link #unpack(InputStream, EntryWriter, Log)}.
+     */
+    @Override
+    public GzipCheckpointIndex unpackCheckpointed(InputStream in, EntryWriter writer,
+                                                  Log log) throws IOException {
+
+        if (threads < 2) {
+            unpack(in, writer, log);
+            return null;
+        }
+
+        IndexingInflaterInputStream tar = new IndexingInflaterInputStream(
+                new CloseShieldInputStream(in), checkpointSpacing);
+        ArchiveIndex entries = new ArchiveIndex();
+
+        try {
+            createExtractor().extract(tar, writer, entries);
+
+            // Up to the trailer, which completes the last checkpoint.
+            byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+
+            while (tar.read(buffer) != -1) {
+                // Nothing to do.
+            }
+        } finally {
+            tar.close();
+        }
+
+        return tar.getCheckpoints().size() > 1
+                ? new GzipCheckpointIndex(null, tar.getCheckpoints(), tar.getSize(), entries) : null;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Directories and symbolic links are written from the index, files by
+     * segment workers, hard links once their targets exist. A worker drains
+     * the segment it stops in unless another worker starts there, so every
+     * byte of extracted data is checked against its segment CRC-32.
+     */
+    private void extractParallel(final File file, final GzipCheckpointIndex index, final EntryWriter writer,
+                                 final FileDigest digest, Log log) throws IOException, UnpackMethodException {
+
+        final Map<Integer, List<ArchiveIndex.Entry>> segments = new TreeMap<Integer, List<ArchiveIndex.Entry>>();
+        List<ArchiveIndex.Entry> hardLinks = new ArrayList<ArchiveIndex.Entry>();
+
+        for (ArchiveIndex.Entry entry : index.getEntries().getEntries()) {
+
+            if (!writer.accepts(entry.getName())) {
+                continue;
+            }
+
+            if (entry.getType() == ArchiveIndex.DIRECTORY) {
+                writer.writeDirectory(entry.getName(), entry.getMode());
+            } else if (entry.getType() == ArchiveIndex.SYMLINK) {
+                writer.writeSymlink(entry.getName(), entry.getLinkName());
+            } else if (entry.getType() == ArchiveIndex.HARDLINK) {
+                hardLinks.add(entry);
+            } else if (entry.getType() == ArchiveIndex.FILE) {
+
+                int segment = index.find(entry.getOffset());
+                List<ArchiveIndex.Entry> files = segments.get(segment);
+
+                if (files == null) {
+                    files = new ArrayList<ArchiveIndex.Entry>();
+                    segments.put(segment, files);
+                }
+
+                files.add(entry);
+            }
+        }
+
+        if (log != null) {
+            log.debug("Extracting " + segments.size() + " segments of " + file + " using " + threads + " threads");
+        }
+
+        if (!segments.isEmpty()) {
+
+            int poolSize = Math.min(threads, segments.size());
+            ExecutorService executor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("tgz-unpack"));
+
+            try {
+                List<Future<Void>> futures = new ArrayList<Future<Void>>(segments.size());
+
+                for (final Map.Entry<Integer, List<ArchiveIndex.Entry>> segment : segments.entrySet()) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            extractSegment(file, index, segment.getKey(), segment.getValue(), segments, writer,
+                                    digest);
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+
+            } catch (ExecutionException e) {
+
+                Throwable cause = e.getCause();
+
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+
+                throw new UnpackMethodException("Can't extract segment", cause);
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new UnpackMethodException("Interrupted while extracting", e);
+
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        for (ArchiveIndex.Entry entry : hardLinks) {
+            writer.writeHardLink(entry.getName(), entry.getLinkName());
+        }
+    }
+
+    private static void extractSegment(File file, GzipCheckpointIndex index, int segment,
+                                       List<ArchiveIndex.Entry> files,
+                                       Map<Integer, List<ArchiveIndex.Entry>> segments,
+                                       EntryWriter writer, FileDigest digest) throws IOException {
+
+        ArchiveIndex.Entry last = files.get(files.size() - 1);
+        long end = last.getOffset() + last.getSize();
+        int lastSegment = index.find(Math.max(last.getOffset(), end - 1));
+        InputStream in = index.open(file, segment, digest);
+
+        try {
+            new TarStreamExtractor().extract(in, index.getCheckpoints().get(segment).getPosition(), files, writer);
+
+            if (lastSegment == segment || !segments.containsKey(lastSegment)) {
+                GzipCheckpointIndex.skipFully(in, index.getEnd(lastSegment) - end);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static GzipCheckpointIndex readCheckpoints(File file, Log log) {
+
+        try {
+            return GzipCheckpointIndex.read(file);
+        } catch (IOException e) {
+            if (log != null) log.debug("Can't read checkpoints of " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Failure leaves the archive without checkpoints, it is decoded
+     * sequentially then.
+     */
+    private static void storeCheckpoints(File file, GzipCheckpointIndex index, Log log) {
+
+        try {
+            index.write(file);
+        } catch (IOException e) {
+            if (log != null) log.debug("Can't store checkpoints of " + file + ": " + e);
+        }
+    }
+
+    private TarStreamExtractor createExtractor() {
+        return threads > 1 ? new PipelinedTarExtractor(threads) : new TarStreamExtractor();
+    }
+
+    private static InputStream openTar(File file) throws IOException {
+        return new GZIPInputStream(new FileInputStream(file), EntryWriter.BUFFER_SIZE);
     }
 }
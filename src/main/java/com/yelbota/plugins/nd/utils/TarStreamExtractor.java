@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Extracts uncompressed tar stream through {@link EntryWriter}. Directories,
+ * regular files, symbolic and hard links are restored together with their
+ * permissions. Device and fifo entries are skipped, as are entries rejected
+ * by the writer's filter; the body of a skipped entry is passed over by the
+ * tar reader without being copied anywhere.
+ *
+ * <p>Archive can also be indexed in one pass, recording offset of every
+ * entry's data in the tar stream, and chosen entries extracted later by
+ * skipping to them.</p>
+ */
+public class TarStreamExtractor {
+
+    /**
+     * Reads tar entries from `in` until the end of archive. Stream is not closed.
+     */
+    public void extract(InputStream in, EntryWriter writer) throws IOException {
+        extract(in, writer, null);
+    }
+
+    /**
+     * Same as {@link #extract(InputStream, EntryWriter)}, also listing every
+     * entry, accepted by the writer or not, to `index` as {@link #index}
+     * does.
+     *
+     * @param index null not to list entries.
+     */
+    public void extract(InputStream in, EntryWriter writer, ArchiveIndex index) throws IOException {
+
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        TarArchiveEntry entry;
+
+        while ((entry = tar.getNextTarEntry()) != null) {
+
+            String name = entry.getName();
+            addEntry(index, tar, entry);
+
+            if (!writer.accepts(name)) {
+                continue;
+            }
+
+            if (entry.isDirectory()) {
+                writer.writeDirectory(name, entry.getMode());
+            } else if (entry.isSymbolicLink()) {
+                writer.writeSymlink(name, entry.getLinkName());
+            } else if (entry.isLink()) {
+                writer.writeHardLink(name, entry.getLinkName());
+            } else if (entry.isFile()) {
+                writer.writeFile(name, tar, entry.getMode(), entry.getModTime().getTime());
+            }
+        }
+    }
+
+    /**
+     * Lists tar entries read from `in`. Offset of an entry is the position
+     * of its data in the tar stream. Stream is not closed.
+     */
+    public ArchiveIndex index(InputStream in) throws IOException {
+
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        ArchiveIndex index = new ArchiveIndex();
+        TarArchiveEntry entry;
+
+        while ((entry = tar.getNextTarEntry()) != null) {
+            addEntry(index, tar, entry);
+        }
+
+        return index;
+    }
+
+    /**
+     * Extracts files and symbolic links listed in `entries` from tar stream
+     * `in`, skipping everything in between. Stream is not closed.
+     */
+    public void extract(InputStream in, List<ArchiveIndex.Entry> entries, EntryWriter writer) throws IOException {
+        extract(in, 0, entries, writer);
+    }
+
+    /**
+     * Same as {@link #extract(InputStream, List, EntryWriter)} for `in`
+     * starting at `position` of the tar stream. Entries before it must not
+     * be listed. Stream is left right after data of the last entry.
+     */
+    public void extract(InputStream in, long position, List<ArchiveIndex.Entry> entries,
+                        EntryWriter writer) throws IOException {
+
+        List<ArchiveIndex.Entry> sorted = new ArrayList<ArchiveIndex.Entry>(entries);
+
+        Collections.sort(sorted, new Comparator<ArchiveIndex.Entry>() {
+            @Override
+            public int compare(ArchiveIndex.Entry a, ArchiveIndex.Entry b) {
+                return Long.valueOf(a.getOffset()).compareTo(b.getOffset());
+            }
+        });
+
+        for (ArchiveIndex.Entry entry : sorted) {
+
+            if (!writer.accepts(entry.getName())) {
+                continue;
+            }
+
+            if (entry.getType() == ArchiveIndex.SYMLINK) {
+                writer.writeSymlink(entry.getName(), entry.getLinkName());
+                continue;
+            }
+
+            if (entry.getType() != ArchiveIndex.FILE) {
+                continue;
+            }
+
+            long gap = entry.getOffset() - position;
+
+            if (gap < 0 || IOUtils.skip(in, gap) != gap) {
+                throw new EOFException("Can't reach data of entry " + entry.getName());
+            }
+
+            writer.writeFile(entry.getName(), new BoundedInputStream(in, entry.getSize()),
+                    entry.getMode(), entry.getLastModified());
+
+            if (writer.getManifest().get(entry.getName()).getSize() != entry.getSize()) {
+                throw new EOFException("Unexpected end of data of entry " + entry.getName());
+            }
+
+            position = entry.getOffset() + entry.getSize();
+        }
+    }
+
+    /**
+     * Lists `entry` just read from `tar` to `index` unless it is a device or
+     * fifo entry. Offset is the position of its data in the tar stream.
+     */
+    static void addEntry(ArchiveIndex index, TarArchiveInputStream tar, TarArchiveEntry entry) {
+
+        if (index == null) {
+            return;
+        }
+
+        ArchiveIndex.Entry indexEntry;
+
+        if (entry.isDirectory()) {
+            indexEntry = new ArchiveIndex.Entry(ArchiveIndex.DIRECTORY, entry.getName());
+        } else if (entry.isSymbolicLink()) {
+            indexEntry = new ArchiveIndex.Entry(ArchiveIndex.SYMLINK, entry.getName());
+            indexEntry.setLinkName(entry.getLinkName());
+        } else if (entry.isLink()) {
+            indexEntry = new ArchiveIndex.Entry(ArchiveIndex.HARDLINK, entry.getName());
+            indexEntry.setLinkName(entry.getLinkName());
+        } else if (entry.isFile()) {
+            indexEntry = new ArchiveIndex.Entry(ArchiveIndex.FILE, entry.getName());
+            indexEntry.setSize(entry.getSize());
+            indexEntry.setLength(entry.getSize());
+        } else {
+            return;
+        }
+
+        indexEntry.setOffset(tar.getBytesRead());
+        indexEntry.setMode(entry.getMode() & 07777);
+        indexEntry.setLastModified(entry.getModTime().getTime());
+        index.add(indexEntry);
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * *.tar.xz and txz unpack method. Blocks of multi-block archives are decoded
+ * in parallel with {@link ParallelXZInputStream}; single-block and streamed
+ * archives are decoded sequentially.
+ */
+public class TarXZUnpackMethod implements EntryUnpackMethod, StreamUnpackMethod, IndexedUnpackMethod {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final int threads;
+
+    private final TarStreamExtractor extractor = new TarStreamExtractor();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public TarXZUnpackMethod() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TarXZUnpackMethod(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive, got " + threads);
+        }
+
+        this.threads = threads;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
+
+    @Override
+    public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        unpack(file, writer, log);
+        writer.finish();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  EntryUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, Log log) throws IOException {
+        extract(new BufferedInputStream(ParallelXZInputStream.open(file, threads), EntryWriter.BUFFER_SIZE), writer);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  IndexedUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public ArchiveIndex index(File file) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            return extractor.index(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void extract(File file, List<ArchiveIndex.Entry> entries, EntryWriter writer) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            extractor.extract(in, entries, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  StreamUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(InputStream in, EntryWriter writer, Log log) throws IOException {
+        extract(new XZInputStream(new BufferedInputStream(new CloseShieldInputStream(in), EntryWriter.BUFFER_SIZE)), writer);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void extract(InputStream in, EntryWriter writer) throws IOException {
+
+        try {
+            extractor.extract(in, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Skipping over the decoded stream seeks to the xz block holding the
+     * target position instead of decoding everything before it.
+     */
+    private static InputStream openTar(File file) throws IOException {
+        return new BufferedInputStream(new SeekableXZInputStream(new SeekableFileInputStream(file)), EntryWriter.BUFFER_SIZE);
+    }
+}
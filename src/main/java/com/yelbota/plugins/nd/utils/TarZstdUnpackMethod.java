@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * *.tar.zst and tzst unpack method. Entries are decoded with native zstd
+ * and written straight to disk. Frames compressed with long distance
+ * matching (`zstd --long`) are accepted up to {@link #MAX_WINDOW_LOG}.
+ */
+public class TarZstdUnpackMethod implements EntryUnpackMethod, StreamUnpackMethod, IndexedUnpackMethod {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * Largest window zstd allows, 2 GiB. Decoder allocates only the window
+     * size recorded in the frame.
+     */
+    public static final int MAX_WINDOW_LOG = 31;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final TarStreamExtractor extractor = new TarStreamExtractor();
+
+    //-------------------------------------------------------------------------
+    //
+    //  UnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+        unpack(file, directory, null);
+    }
+
+    @Override
+    public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setFilter(filter);
+        writer.setDeferAttributes(true);
+        unpack(file, writer, log);
+        writer.finish();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  EntryUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, EntryWriter writer, Log log) throws IOException {
+        extract(new FileInputStream(file), writer);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  IndexedUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public ArchiveIndex index(File file) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            return extractor.index(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void extract(File file, List<ArchiveIndex.Entry> entries, EntryWriter writer) throws IOException {
+
+        InputStream in = openTar(file);
+
+        try {
+            extractor.extract(in, entries, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  StreamUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(InputStream in, EntryWriter writer, Log log) throws IOException {
+        extract(new CloseShieldInputStream(in), writer);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private void extract(InputStream compressed, EntryWriter writer) throws IOException {
+
+        InputStream in;
+
+        try {
+            ZstdInputStream zstd = new ZstdInputStream(compressed);
+            zstd.setLongMax(MAX_WINDOW_LOG);
+            in = new BufferedInputStream(zstd, (int) ZstdInputStream.recommendedDOutSize());
+        } catch (IOException e) {
+            compressed.close();
+            throw e;
+        }
+
+        try {
+            extractor.extract(in, writer);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream openTar(File file) throws IOException {
+
+        InputStream compressed = new FileInputStream(file);
+
+        try {
+            ZstdInputStream zstd = new ZstdInputStream(compressed);
+            zstd.setLongMax(MAX_WINDOW_LOG);
+            return new BufferedInputStream(zstd, (int) ZstdInputStream.recommendedDOutSize());
+        } catch (IOException e) {
+            compressed.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies every byte read from the source to `branch`. Failures of the
+ * source are remembered, so a caller can tell them from failures of the
+ * consumer.
+ */
+public class TeeInputStream extends FilterInputStream {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final OutputStream branch;
+
+    private long count;
+
+    private IOException sourceFailure;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public TeeInputStream(InputStream in, OutputStream branch) {
+        super(in);
+        this.branch = branch;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return number of bytes read so far.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return exception thrown by the source stream, or null.
+     */
+    public synchronized IOException getSourceFailure() {
+        return sourceFailure;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  InputStream
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public synchronized int read() throws IOException {
+
+        int b = readSource(null, 0, 1);
+
+        if (b >= 0) {
+            branch.write(b);
+            count++;
+        }
+
+        return b;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+
+        int read = readSource(b, off, len);
+
+        if (read > 0) {
+            branch.write(b, off, read);
+            count += read;
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+
+        byte[] buffer = new byte[(int) Math.min(n, EntryWriter.BUFFER_SIZE)];
+        int read = read(buffer, 0, buffer.length);
+        return read < 0 ? 0 : read;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads the rest of the source, so `branch` gets complete data.
+     */
+    public void drain() throws IOException {
+
+        byte[] buffer = new byte[EntryWriter.BUFFER_SIZE];
+
+        while (read(buffer, 0, buffer.length) != -1) {
+            // Data goes to branch.
+        }
+    }
+
+    /**
+     * Closes the source only, `branch` is owned by the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private int readSource(byte[] b, int off, int len) throws IOException {
+
+        try {
+            return b == null ? in.read() : in.read(b, off, len);
+        } catch (IOException e) {
+            sourceFailure = e;
+            throw e;
+        }
+    }
+}
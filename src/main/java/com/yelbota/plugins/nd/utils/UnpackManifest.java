@@ -0,0 +1,433 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records what was unpacked into a directory: identity of the source artifact
+ * and path, size and CRC-32 of every entry. Stored as a small text file:
+ * <pre>
+ * # native dependency unpack manifest v1
+ * source group:artifact:zip:linux:1.0|1024|1346348640000
+ * D - - lib/
+ * F 7 3b8f1a2c lib/file-1
+ * L 6 - lib/link
+ * </pre>
+ * CRC is `-` when it is not known. Entry path is the rest of the line.
+ * Instances are safe for concurrent use.
+ */
+public class UnpackManifest {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final char FILE = 'F';
+    public static final char DIRECTORY = 'D';
+    public static final char LINK = 'L';
+
+    public static final long UNKNOWN = -1;
+
+    private static final String HEADER = "# native dependency unpack manifest v1";
+    private static final String SOURCE_PREFIX = "source ";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    public static class Entry {
+
+        private final char type;
+        private final String path;
+        private final long size;
+        private final long crc;
+
+        public Entry(char type, String path, long size, long crc) {
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        public char getType() {
+            return type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + (size == UNKNOWN ? "-" : Long.toString(size)) + " "
+                    + (crc == UNKNOWN ? "-" : Long.toHexString(crc)) + " " + path;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private String source;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public UnpackManifest() {
+    }
+
+    public UnpackManifest(String source) {
+        this.source = source;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Properties
+    //
+    //-------------------------------------------------------------------------
+
+    public synchronized String getSource() {
+        return source;
+    }
+
+    public synchronized void setSource(String source) {
+        this.source = source;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    public synchronized void add(Entry entry) {
+        entries.put(normalize(entry.getPath()), entry);
+    }
+
+    public synchronized Entry get(String path) {
+        return entries.get(normalize(path));
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * @return manifest with the same source and only the entries selected by `filter`.
+     */
+    public synchronized UnpackManifest select(EntryFilter filter) {
+
+        UnpackManifest selected = new UnpackManifest(source);
+
+        for (Entry entry : entries.values()) {
+            if (filter.accepts(entry.getPath())) {
+                selected.add(entry);
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * @return manifest stored in `file`, or null if there is no readable manifest.
+     */
+    public static UnpackManifest read(File file) throws IOException {
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        UnpackManifest manifest = new UnpackManifest();
+        BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8);
+
+        try {
+            String line = reader.readLine();
+
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.startsWith(SOURCE_PREFIX)) {
+                    manifest.source = line.substring(SOURCE_PREFIX.length());
+                } else if (line.length() > 0) {
+                    manifest.add(parseEntry(line));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Truncated or foreign file, same as no manifest at all.
+            return null;
+        } finally {
+            reader.close();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Writes manifest to a temporary file which is then renamed to `file`.
+     */
+    public synchronized void write(File file) throws IOException {
+
+        Path path = file.toPath();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Writer writer = Files.newBufferedWriter(temporary, UTF_8);
+
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+
+            if (source != null) {
+                writer.write(SOURCE_PREFIX + source);
+                writer.write('\n');
+            }
+
+            for (Entry entry : entries.values()) {
+                writer.write(entry.toString());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Builds manifest of files and links below `directory`. CRC is not computed.
+     */
+    public static UnpackManifest scan(File directory) throws IOException {
+
+        final UnpackManifest manifest = new UnpackManifest();
+        final Path root = directory.toPath();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+
+                if (!dir.equals(root)) {
+                    manifest.add(new Entry(DIRECTORY, relative(root, dir) + "/", UNKNOWN, UNKNOWN));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+
+                char type = attrs.isSymbolicLink() ? LINK : FILE;
+                manifest.add(new Entry(type, relative(root, file), attrs.size(), UNKNOWN));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return manifest;
+    }
+
+    /**
+     * Deletes entries of `previous` manifest which are not in this one.
+     * Directories are deleted only when empty. Entries below a symbolic
+     * link are left alone. Read-only directories are made writable for
+     * the time entries are deleted from them.
+     *
+     * @return number of removed entries
+     */
+    public int removeStale(UnpackManifest previous, File directory) throws IOException {
+
+        if (previous == null) {
+            return 0;
+        }
+
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        Map<Path, Set<PosixFilePermission>> relaxed = new LinkedHashMap<Path, Set<PosixFilePermission>>();
+
+        try {
+            return removeStale(previous, root, relaxed);
+        } finally {
+            for (Map.Entry<Path, Set<PosixFilePermission>> entry : relaxed.entrySet()) {
+                if (Files.isDirectory(entry.getKey(), LinkOption.NOFOLLOW_LINKS)) {
+                    Files.setPosixFilePermissions(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private int removeStale(UnpackManifest previous, Path root,
+                            Map<Path, Set<PosixFilePermission>> relaxed) throws IOException {
+
+        List<Entry> directories = new ArrayList<Entry>();
+        int removed = 0;
+
+        for (Entry entry : previous.getEntries()) {
+
+            if (get(entry.getPath()) != null) {
+                continue;
+            }
+
+            Path path = resolve(root, entry);
+
+            // Belongs to wherever the link leads now, not to this unpack.
+            if (FileTrees.findLinkedParent(root, path) != null) {
+                continue;
+            }
+
+            if (entry.getType() == DIRECTORY) {
+                directories.add(entry);
+            } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                relaxParent(path, relaxed);
+                Files.delete(path);
+                removed++;
+            }
+        }
+
+        // Children first.
+        Collections.sort(directories, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return b.getPath().length() - a.getPath().length();
+            }
+        });
+
+        for (Entry entry : directories) {
+
+            Path path = resolve(root, entry);
+
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && FileTrees.isEmpty(path)) {
+                relaxParent(path, relaxed);
+                Files.delete(path);
+                relaxed.remove(path);
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    private static void relaxParent(Path path, Map<Path, Set<PosixFilePermission>> relaxed) throws IOException {
+
+        Path parent = path.getParent();
+
+        if (parent == null || relaxed.containsKey(parent) || Files.isWritable(parent)) {
+            return;
+        }
+
+        Set<PosixFilePermission> permissions = FileTrees.makeWritable(parent);
+
+        if (permissions != null) {
+            relaxed.put(parent, permissions);
+        }
+    }
+
+    private static Entry parseEntry(String line) {
+
+        int first = line.indexOf(' ', 2);
+        int second = line.indexOf(' ', first + 1);
+
+        String size = line.substring(2, first);
+        String crc = line.substring(first + 1, second);
+
+        return new Entry(
+                line.charAt(0),
+                line.substring(second + 1),
+                "-".equals(size) ? UNKNOWN : Long.parseLong(size),
+                "-".equals(crc) ? UNKNOWN : Long.parseLong(crc, 16)
+        );
+    }
+
+    static String normalize(String path) {
+
+        int start = 0;
+
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+
+        if (path.startsWith("./", start)) {
+            start += 2;
+        }
+
+        int end = path.length();
+
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        return path.substring(start, end);
+    }
+
+    private static Path resolve(Path root, Entry entry) throws IOException {
+
+        Path path = root.resolve(normalize(entry.getPath())).normalize();
+
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IOException("Manifest entry '" + entry.getPath() + "' is outside of " + root);
+        }
+
+        return path;
+    }
+
+    private static String relative(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads ZIP central directory (including ZIP64 records) from a FileChannel.
+ * Entries are read once and then can be extracted independently from each
+ * other using positional reads.
+ */
+public class ZipCentralDirectory {
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constants
+    //
+    //-------------------------------------------------------------------------
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int HOST_UNIX = 3;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFLNK = 0120000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //-------------------------------------------------------------------------
+    //
+    //  Inner classes
+    //
+    //-------------------------------------------------------------------------
+
+    public static class Entry {
+
+        private String name;
+        private int method;
+        private int flags;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+        private int unixMode;
+        private long lastModified;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * @return unix mode including file type bits, 0 when archive was not created on unix.
+         */
+        public int getUnixMode() {
+            return unixMode;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isEncrypted() {
+            return (flags & FLAG_ENCRYPTED) != 0;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/") || (unixMode & S_IFMT) == S_IFDIR;
+        }
+
+        public boolean isSymlink() {
+            return (unixMode & S_IFMT) == S_IFLNK;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final List<Entry> entries;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    private ZipCentralDirectory(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Public methods
+    //
+    //-------------------------------------------------------------------------
+
+    public static ZipCentralDirectory read(FileChannel channel) throws IOException {
+
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+
+        int eocd = -1;
+
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+
+        if (eocd < 0) {
+            throw new IOException("Not a zip archive: end of central directory not found");
+        }
+
+        long count = tail.getShort(eocd + 10) & 0xffff;
+        long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+
+        long locatorPosition = fileSize - tailSize + eocd - ZIP64_LOCATOR_SIZE;
+
+        if (locatorPosition >= 0) {
+
+            ByteBuffer locator = readFully(channel, locatorPosition, ZIP64_LOCATOR_SIZE);
+
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+
+                ByteBuffer zip64 = readFully(channel, locator.getLong(8), 56);
+
+                if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Corrupted zip64 end of central directory");
+                }
+
+                count = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory is too large: " + directorySize);
+        }
+
+        ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<Entry>((int) Math.min(count, 1 << 16));
+
+        while (directory.remaining() >= CENTRAL_HEADER_SIZE && directory.getInt(directory.position()) == CENTRAL_HEADER_SIGNATURE) {
+            entries.add(readEntry(directory));
+        }
+
+        if (entries.size() != count) {
+            throw new IOException("Corrupted central directory: expected " + count + " entries, found " + entries.size());
+        }
+
+        return new ZipCentralDirectory(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads local file header of `entry` and returns offset of its data.
+     */
+    public static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+
+        ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Corrupted local header of " + entry.name);
+        }
+
+        int nameLength = header.getShort(26) & 0xffff;
+        int extraLength = header.getShort(28) & 0xffff;
+
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Rebuilds an entry from values recorded earlier, i.e. in an {@link ArchiveIndex}.
+     * @param mode unix permission bits
+     */
+    static Entry createEntry(String name, int method, long crc, long compressedSize, long size,
+                             long localHeaderOffset, int mode, boolean symlink, long lastModified) {
+
+        Entry entry = new Entry();
+
+        entry.name = name;
+        entry.method = method;
+        entry.crc = crc;
+        entry.compressedSize = compressedSize;
+        entry.size = size;
+        entry.localHeaderOffset = localHeaderOffset;
+        entry.unixMode = symlink ? (S_IFLNK | mode) : mode;
+        entry.lastModified = lastModified;
+
+        return entry;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private static Entry readEntry(ByteBuffer buffer) {
+
+        int start = buffer.position();
+        Entry entry = new Entry();
+
+        int host = (buffer.getShort(start + 4) >> 8) & 0xff;
+        entry.flags = buffer.getShort(start + 8) & 0xffff;
+        entry.method = buffer.getShort(start + 10) & 0xffff;
+        entry.lastModified = dosToJavaTime(buffer.getInt(start + 12) & 0xffffffffL);
+        entry.crc = buffer.getInt(start + 16) & 0xffffffffL;
+        entry.compressedSize = buffer.getInt(start + 20) & 0xffffffffL;
+        entry.size = buffer.getInt(start + 24) & 0xffffffffL;
+
+        int nameLength = buffer.getShort(start + 28) & 0xffff;
+        int extraLength = buffer.getShort(start + 30) & 0xffff;
+        int commentLength = buffer.getShort(start + 32) & 0xffff;
+
+        int externalAttributes = buffer.getInt(start + 38);
+        entry.unixMode = host == HOST_UNIX ? (externalAttributes >>> 16) : 0;
+        entry.localHeaderOffset = buffer.getInt(start + 42) & 0xffffffffL;
+
+        byte[] name = new byte[nameLength];
+        buffer.position(start + CENTRAL_HEADER_SIZE);
+        buffer.get(name);
+        entry.name = new String(name, UTF_8);
+
+        readZip64Extra(buffer, buffer.position(), extraLength, entry);
+
+        buffer.position(start + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength);
+        return entry;
+    }
+
+    private static void readZip64Extra(ByteBuffer buffer, int offset, int length, Entry entry) {
+
+        int end = offset + length;
+
+        while (offset + 4 <= end) {
+
+            int id = buffer.getShort(offset) & 0xffff;
+            int size = buffer.getShort(offset + 2) & 0xffff;
+            int position = offset + 4;
+
+            if (id == ZIP64_EXTRA_ID) {
+
+                if (entry.size == 0xffffffffL && position + 8 <= end) {
+                    entry.size = buffer.getLong(position);
+                    position += 8;
+                }
+
+                if (entry.compressedSize == 0xffffffffL && position + 8 <= end) {
+                    entry.compressedSize = buffer.getLong(position);
+                    position += 8;
+                }
+
+                if (entry.localHeaderOffset == 0xffffffffL && position + 8 <= end) {
+                    entry.localHeaderOffset = buffer.getLong(position);
+                }
+
+                return;
+            }
+
+            offset = position + size;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of zip archive");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long dosToJavaTime(long dosTime) {
+
+        Calendar calendar = Calendar.getInstance();
+
+        calendar.clear();
+        calendar.set(
+                (int) ((dosTime >> 25) & 0x7f) + 1980,
+                (int) ((dosTime >> 21) & 0x0f) - 1,
+                (int) (dosTime >> 16) & 0x1f,
+                (int) (dosTime >> 11) & 0x1f,
+                (int) (dosTime >> 5) & 0x3f,
+                (int) (dosTime << 1) & 0x3e
+        );
+
+        return calendar.getTimeInMillis();
+    }
+}
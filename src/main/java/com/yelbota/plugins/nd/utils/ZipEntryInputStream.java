@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads content of a single ZIP entry with positional reads, so any number of
+ * streams may share one FileChannel. CRC and size of the content are checked
+ * against the central directory when the end of the entry is reached.
+ * Compressed bytes read may be passed to a {@link FileDigest}.
+ */
+public class ZipEntryInputStream extends InputStream {
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Variables
+    //
+    //-------------------------------------------------------------------------
+
+    private final FileChannel channel;
+
+    private final ZipCentralDirectory.Entry entry;
+
+    private final Inflater inflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final FileDigest digest;
+
+    private byte[] input;
+
+    private long position;
+
+    private long remaining;
+
+    private long produced;
+
+    private boolean dummyByteSupplied;
+
+    private boolean eof;
+
+    //-------------------------------------------------------------------------
+    //
+    //  Constructor
+    //
+    //-------------------------------------------------------------------------
+
+    public ZipEntryInputStream(FileChannel channel, ZipCentralDirectory.Entry entry) throws IOException {
+        this(channel, entry, null);
+    }
+
+    /**
+     * @param digest gets compressed bytes read, may be null.
+     */
+    public ZipEntryInputStream(FileChannel channel, ZipCentralDirectory.Entry entry,
+                               FileDigest digest) throws IOException {
+
+        int method = entry.getMethod();
+
+        if (method != ZipCentralDirectory.METHOD_STORED && method != ZipCentralDirectory.METHOD_DEFLATED) {
+            throw new IOException("Unsupported compression method " + method + " of " + entry.getName());
+        }
+
+        this.channel = channel;
+        this.entry = entry;
+        this.position = ZipCentralDirectory.getDataOffset(channel, entry);
+        this.remaining = entry.getCompressedSize();
+        this.inflater = method == ZipCentralDirectory.METHOD_DEFLATED ? new Inflater(true) : null;
+        this.digest = digest;
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  InputStream
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (eof) {
+            return -1;
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = inflater == null ? readStored(b, off, len) : readDeflated(b, off, len);
+
+        if (count <= 0) {
+            finish();
+            return -1;
+        }
+
+        crc.update(b, off, count);
+        produced += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        eof = true;
+
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  Private methods
+    //
+    //-------------------------------------------------------------------------
+
+    private int readStored(byte[] b, int off, int len) throws IOException {
+
+        if (remaining == 0) {
+            return -1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+        int count = channel.read(buffer, position);
+
+        if (count < 0) {
+            throw new EOFException("Unexpected end of archive in " + entry.getName());
+        }
+
+        if (digest != null) {
+            digest.update(position, b, off, count);
+        }
+
+        position += count;
+        remaining -= count;
+        return count;
+    }
+
+    private int readDeflated(byte[] b, int off, int len) throws IOException {
+
+        try {
+            int count;
+
+            while ((count = inflater.inflate(b, off, len)) == 0) {
+
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    return -1;
+                }
+
+                if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+
+            return count;
+
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted entry " + entry.getName(), e);
+        }
+    }
+
+    private void fill() throws IOException {
+
+        if (remaining > 0) {
+
+            if (input == null) {
+                input = new byte[(int) Math.min(INPUT_BUFFER_SIZE, remaining)];
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(input, 0, (int) Math.min(input.length, remaining));
+            int count = channel.read(buffer, position);
+
+            if (count < 0) {
+                throw new EOFException("Unexpected end of archive in " + entry.getName());
+            }
+
+            if (digest != null) {
+                digest.update(position, input, 0, count);
+            }
+
+            position += count;
+            remaining -= count;
+            inflater.setInput(input, 0, count);
+
+        } else if (!dummyByteSupplied) {
+
+            // Raw inflater may need one extra byte to detect end of stream.
+            dummyByteSupplied = true;
+            inflater.setInput(new byte[1], 0, 1);
+
+        } else {
+            throw new EOFException("Unexpected end of compressed data in " + entry.getName());
+        }
+    }
+
+    private void finish() throws IOException {
+
+        eof = true;
+
+        if (produced != entry.getSize()) {
+            throw new IOException("Size mismatch in " + entry.getName() + ": expected "
+                    + entry.getSize() + ", got " + produced);
+        }
+
+        if (crc.getValue() != entry.getCrc()) {
+            throw new IOException("CRC mismatch in " + entry.getName());
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.yelbota.plugins.nd.utils;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.archiver.AbstractUnArchiver;
 import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
 import org.codehaus.plexus.logging.Logger;
 
 import java.io.File;
@@ -26,7 +27,7 @@ import java.io.IOException;
 /**
  * @author Aleksey Fomkin
  */
-public class ZipUnpackMethod implements UnpackMethod {
+public class ZipUnpackMethod implements SelectiveUnpackMethod {
 
     //-------------------------------------------------------------------------
     //
@@ -60,12 +61,29 @@ public class ZipUnpackMethod implements UnpackMethod {
 
     @Override
     public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+        unpack(file, directory, null, log);
+    }
+
+    //-------------------------------------------------------------------------
+    //
+    //  SelectiveUnpackMethod
+    //
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void unpack(File file, File directory, EntryFilter filter,
+                       Log log) throws IOException, UnpackMethodException {
 
         AbstractUnArchiver worker = createWorker();
 
         worker.enableLogging(plexusLogger);
         worker.setSourceFile(file);
         worker.setDestDirectory(directory);
+
+        if (filter != null) {
+            worker.setFileSelectors(new FileSelector[]{filter});
+        }
+
         worker.extract();
     }
 
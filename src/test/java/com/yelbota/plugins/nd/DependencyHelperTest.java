@@ -17,14 +17,34 @@ package com.yelbota.plugins.nd;
 
 import com.yelbota.plugins.nd.stubs.ArtifactRepositoryStub;
 import com.yelbota.plugins.nd.stubs.RepositorySystemStub;
+import com.yelbota.plugins.nd.utils.ParallelZipUnpackMethod;
+import com.yelbota.plugins.nd.utils.UnpackMethod;
 import junit.framework.Assert;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.Authentication;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.plugin.testing.stubs.ArtifactStub;
+import org.apache.maven.repository.Proxy;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class DependencyHelperTest {
 
@@ -70,4 +90,203 @@ public class DependencyHelperTest {
 
         Assert.assertEquals(artifactStub, resolvedArtifact);
     }
+
+    @Test
+    public void testResolveAllResolvesUniqueCoordinatesAndReportsFailures() throws Exception {
+
+        DependencyHelper dependencyHelper = createDependencyHelper();
+        final AtomicInteger resolveCalls = new AtomicInteger();
+
+        RepositorySystemStub repositorySystem = new RepositorySystemStub() {
+
+            @Override
+            public Artifact createArtifactWithClassifier(String groupId, String artifactId, String version, String type, String classifier) {
+                return new DefaultArtifact(groupId, artifactId, version, null, type, classifier,
+                        new DefaultArtifactHandler(type));
+            }
+
+            @Override
+            public ArtifactResolutionResult resolve(ArtifactResolutionRequest request) {
+                resolveCalls.incrementAndGet();
+                ArtifactResolutionResult result = new ArtifactResolutionResult();
+                if (request.getArtifact().getArtifactId().equals("missing")) {
+                    result.addMissingArtifact(request.getArtifact());
+                }
+                return result;
+            }
+        };
+
+        ArtifactCoordinate sdk = new ArtifactCoordinate("test-group", "sdk", "1.0", "zip", "linux");
+        ArtifactCoordinate runtime = new ArtifactCoordinate("test-group", "runtime", "1.0", "tar.bz2", null);
+        ArtifactCoordinate missing = new ArtifactCoordinate("test-group", "missing", "1.0", "zip", "linux");
+
+        Map<ArtifactCoordinate, Artifact> resolved = dependencyHelper.resolveAll(
+                Arrays.asList(sdk, runtime, new ArtifactCoordinate("test-group", "sdk", "1.0", "zip", "linux")),
+                null, repositorySystem, new ArtifactRepositoryStub(), new ArrayList<ArtifactRepository>(), 2);
+
+        Assert.assertEquals(2, resolved.size());
+        Assert.assertEquals(2, resolveCalls.get());
+        Assert.assertEquals("runtime", resolved.get(runtime).getArtifactId());
+
+        try {
+            dependencyHelper.resolveAll(Arrays.asList(sdk, missing), null, repositorySystem,
+                    new ArtifactRepositoryStub(), new ArrayList<ArtifactRepository>(), 2);
+            Assert.fail("should fail when an artifact is missing");
+        } catch (DependencyHelper.BatchResolutionException expected) {
+            Assert.assertEquals(1, expected.getResolved().size());
+            Assert.assertTrue(expected.getResolved().containsKey(sdk));
+            Assert.assertTrue(expected.getFailures().get(missing) instanceof DependencyHelper.ArtifactResolutionException);
+            Assert.assertTrue(expected.getMessage().contains(missing.toString()));
+        }
+    }
+
+    @Test
+    public void testResolutionCacheSkipsRepositoryForReleases() throws Exception {
+
+        DependencyHelper dependencyHelper = createDependencyHelper();
+        final AtomicInteger resolveCalls = new AtomicInteger();
+        final File artifactFile = Files.createTempFile("dependency-helper-test", ".zip").toFile();
+        Files.write(artifactFile.toPath(), "sdk".getBytes("UTF-8"));
+
+        RepositorySystemStub repositorySystem = new RepositorySystemStub() {
+
+            @Override
+            public Artifact createArtifactWithClassifier(String groupId, String artifactId, String version, String type, String classifier) {
+                return new DefaultArtifact(groupId, artifactId, version, null, type, classifier,
+                        new DefaultArtifactHandler(type));
+            }
+
+            @Override
+            public ArtifactResolutionResult resolve(ArtifactResolutionRequest request) {
+                resolveCalls.incrementAndGet();
+                request.getArtifact().setFile(artifactFile);
+                return new ArtifactResolutionResult();
+            }
+        };
+
+        dependencyHelper.setResolutionCache(new ResolutionCache(Files.createTempDirectory("resolution-cache-test").toFile()));
+        ArtifactCoordinate release = new ArtifactCoordinate("test-group", "sdk", "1.0", "zip", "linux");
+        ArtifactCoordinate snapshot = new ArtifactCoordinate("test-group", "sdk", "1.1-SNAPSHOT", "zip", "linux");
+
+        for (int i = 0; i < 2; i++) {
+            Map<ArtifactCoordinate, Artifact> resolved = dependencyHelper.resolveAll(Arrays.asList(release, snapshot),
+                    null, repositorySystem, new ArtifactRepositoryStub(), new ArrayList<ArtifactRepository>(), 1);
+            Assert.assertEquals(artifactFile.getAbsoluteFile(), resolved.get(release).getFile().getAbsoluteFile());
+        }
+
+        Assert.assertEquals("release is resolved once, snapshot every time", 3, resolveCalls.get());
+
+        Files.write(artifactFile.toPath(), "changed sdk".getBytes("UTF-8"));
+        dependencyHelper.resolveAll(Arrays.asList(release), null, repositorySystem,
+                new ArtifactRepositoryStub(), new ArrayList<ArtifactRepository>(), 1);
+
+        Assert.assertEquals("changed file is resolved again", 4, resolveCalls.get());
+
+        File sidecar = new File(artifactFile.getPath() + ".sha1");
+        Files.write(sidecar.toPath(), UnpackCache.hex(UnpackCache.hash(artifactFile, "SHA-1")).getBytes("UTF-8"));
+        artifactFile.setLastModified(artifactFile.lastModified() - 10000);
+        dependencyHelper.resolveAll(Arrays.asList(release), null, repositorySystem,
+                new ArtifactRepositoryStub(), new ArrayList<ArtifactRepository>(), 1);
+
+        Assert.assertEquals("touched file without checksum is resolved again", 5, resolveCalls.get());
+
+        artifactFile.setLastModified(artifactFile.lastModified() - 10000);
+        dependencyHelper.resolveAll(Arrays.asList(release), null, repositorySystem,
+                new ArtifactRepositoryStub(), new ArrayList<ArtifactRepository>(), 1);
+
+        Assert.assertEquals("touched file is recognized by repository checksum", 5, resolveCalls.get());
+        sidecar.delete();
+    }
+
+    @Test
+    public void testRepositoriesNeedingRepositorySystemAreNotBypassed() throws Exception {
+
+        ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy();
+        ArtifactRepository direct = new MavenArtifactRepository("direct", "https://repo.example.com/maven2",
+                new DefaultRepositoryLayout(), policy, policy);
+        ArtifactRepository authenticated = new MavenArtifactRepository("authenticated",
+                "https://private.example.com/maven2", new DefaultRepositoryLayout(), policy, policy);
+        authenticated.setAuthentication(new Authentication("user", "password"));
+        ArtifactRepository proxied = new MavenArtifactRepository("proxied", "https://proxied.example.com/maven2",
+                new DefaultRepositoryLayout(), policy, policy);
+        proxied.setProxy(new Proxy());
+        ArtifactRepository wagon = new MavenArtifactRepository("wagon", "scp://repo.example.com/maven2",
+                new DefaultRepositoryLayout(), policy, policy);
+
+        Assert.assertTrue(DependencyHelper.canFetchDirectly(Arrays.asList(direct), null));
+        Assert.assertFalse(DependencyHelper.canFetchDirectly(Arrays.asList(direct, authenticated), null));
+        Assert.assertFalse(DependencyHelper.canFetchDirectly(Arrays.asList(direct, proxied), null));
+        Assert.assertFalse(DependencyHelper.canFetchDirectly(Arrays.asList(wagon, direct), null));
+        Assert.assertFalse(DependencyHelper.canFetchDirectly(null, null));
+    }
+
+    @Test
+    public void testResolveAndUnpackWaitsForPrefetch() throws Exception {
+
+        DependencyHelper dependencyHelper = createDependencyHelper();
+        File directory = Files.createTempDirectory("dependency-helper-test").toFile();
+        File artifactFile = Files.createTempFile("dependency-helper-test", ".zip").toFile();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(artifactFile));
+        try {
+            out.putNextEntry(new ZipEntry("lib/libsdk.so"));
+            out.write("sdk".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        ArtifactStub artifact = new ArtifactStub();
+        artifact.setGroupId("test-group");
+        artifact.setArtifactId("test-artifact");
+        artifact.setType("zip");
+        artifact.setFile(artifactFile);
+        List<Artifact> pluginArtifacts = Arrays.<Artifact>asList(artifact);
+
+        final AtomicInteger unpacks = new AtomicInteger();
+        UnpackHelper unpackHelper = new UnpackHelper() {
+            @Override
+            protected void logUnpacking() {
+                unpacks.incrementAndGet();
+            }
+        };
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+
+        Assert.assertTrue(dependencyHelper.prefetch(pluginArtifacts, null, null, null, directory, unpackHelper,
+                unpackMethods, null));
+        Assert.assertFalse("same prefetch is started once", dependencyHelper.prefetch(pluginArtifacts, null, null,
+                null, directory, unpackHelper, unpackMethods, null));
+
+        Artifact resolved = createDependencyHelper().resolveAndUnpack(pluginArtifacts, null, null, null, directory,
+                unpackHelper, unpackMethods, null);
+
+        Assert.assertSame(artifact, resolved);
+        Assert.assertTrue(new File(directory, "lib/libsdk.so").exists());
+        Assert.assertEquals("artifact is unpacked by prefetch only", 1, unpacks.get());
+    }
+
+    private static DependencyHelper createDependencyHelper() {
+
+        return new DependencyHelper() {
+
+            @Override
+            protected String getDefaultArtifactId() {
+                return "test-artifact";
+            }
+
+            @Override
+            protected String getDefaultGroupId() {
+                return "test-group";
+            }
+
+            @Override
+            protected String getDefaultVersion() {
+                return "1.0";
+            }
+
+            @Override
+            protected String getDefaultPackaging() {
+                return "zip";
+            }
+        };
+    }
 }
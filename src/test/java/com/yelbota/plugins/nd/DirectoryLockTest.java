@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import org.apache.maven.plugin.logging.Log;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.*;
+
+public class DirectoryLockTest {
+
+    private static final Log NO_LOGGER = null;
+
+    @Test(timeOut = 10000)
+    public void testNestedAcquireDoesNotBlock() throws Exception {
+        File directory = new File(Files.createTempDirectory("directory-lock-test").toFile(), "unpacked");
+
+        DirectoryLock outer = DirectoryLock.acquire(directory, NO_LOGGER);
+        DirectoryLock inner = DirectoryLock.acquire(directory, NO_LOGGER);
+        inner.release();
+        outer.release();
+
+        DirectoryLock again = DirectoryLock.acquire(directory, NO_LOGGER);
+        again.release();
+    }
+
+    @Test(timeOut = 10000)
+    public void testFileLockHeldElsewhereInJvmIsWaitedFor() throws Exception {
+        final File directory = new File(Files.createTempDirectory("directory-lock-test").toFile(), "unpacked");
+        File lockFile = new File(directory.getParentFile(), ".unpacked.lock");
+
+        // As taken by a copy of the plugin in another class loader.
+        FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock foreign = channel.lock();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<Void> acquired = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    DirectoryLock.acquire(directory, NO_LOGGER).release();
+                    return null;
+                }
+            });
+
+            try {
+                acquired.get(200, TimeUnit.MILLISECONDS);
+                fail("lock is acquired while held elsewhere");
+            } catch (TimeoutException e) {
+                // Expected.
+            }
+
+            foreign.release();
+            acquired.get();
+        } finally {
+            channel.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.*;
+
+public class RangeDownloaderTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] content = new byte[1024 * 1024 + 7];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private volatile String checksum;
+    private volatile long firstRangeDelay;
+    private volatile int rangeShift;
+    private HttpServer server;
+    private String location;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        rangeRequests.set(0);
+        firstRangeDelay = 0;
+        rangeShift = 0;
+        new Random(7).nextBytes(content);
+        File file = Files.createTempFile("range-downloader-test", ".zip").toFile();
+        Files.write(file.toPath(), content);
+        checksum = UnpackCache.hex(UnpackCache.hash(file, "SHA-1"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sdk.zip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+
+                if (exchange.getRequestURI().getPath().endsWith(".sha1")) {
+                    send(exchange, 200, (checksum + "  sdk.zip\n").getBytes("UTF-8"));
+                    return;
+                }
+
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().add("Content-Length", Integer.toString(content.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                    return;
+                }
+
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                Matcher matcher = range != null ? RANGE.matcher(range) : null;
+
+                if (matcher == null || !matcher.matches()) {
+                    send(exchange, 200, content);
+                    return;
+                }
+
+                rangeRequests.incrementAndGet();
+                int first = Integer.parseInt(matcher.group(1));
+                int last = Integer.parseInt(matcher.group(2));
+
+                if (first == 0 && firstRangeDelay > 0) {
+                    try {
+                        Thread.sleep(firstRangeDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                first = Math.max(0, first - rangeShift);
+                last = Math.max(0, last - rangeShift);
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + first + "-" + last + "/" + content.length);
+                send(exchange, 206, Arrays.copyOfRange(content, first, last + 1));
+            }
+        });
+        server.start();
+        location = "http://127.0.0.1:" + server.getAddress().getPort() + "/sdk.zip";
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testDownloadInRanges() throws Exception {
+
+        File file = new File(Files.createTempDirectory("range-downloader-test").toFile(), "sdk.zip");
+
+        assertTrue(new RangeDownloader(3, 1024).download(location, file));
+        assertEquals(Files.readAllBytes(file.toPath()), content);
+        assertEquals(rangeRequests.get(), 3);
+        assertTrue(new File(file.getPath() + ".sha1").exists(), "checksum is stored");
+    }
+
+    @Test
+    public void testLaterRangesArrivingFirstAreDigested() throws Exception {
+
+        File file = new File(Files.createTempDirectory("range-downloader-test").toFile(), "sdk.zip");
+        firstRangeDelay = 300;
+
+        assertTrue(new RangeDownloader(4, 1024).download(location, file));
+        assertEquals(Files.readAllBytes(file.toPath()), content);
+    }
+
+    @Test
+    public void testWrongContentRangeKeepsNothing() throws Exception {
+
+        File directory = Files.createTempDirectory("range-downloader-test").toFile();
+        File file = new File(directory, "sdk.zip");
+        rangeShift = 1;
+
+        try {
+            new RangeDownloader(2, 1024).download(location, file);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("answered range"), e.getMessage());
+        }
+
+        assertEquals(directory.list().length, 0, "no file is left behind");
+    }
+
+    @Test
+    public void testSmallFileIsLeftToRepositorySystem() throws Exception {
+
+        File file = new File(Files.createTempDirectory("range-downloader-test").toFile(), "sdk.zip");
+
+        assertFalse(new RangeDownloader(3, content.length + 1).download(location, file));
+        assertFalse(file.exists());
+        assertEquals(rangeRequests.get(), 0);
+    }
+
+    @Test
+    public void testChecksumMismatchKeepsNothing() throws Exception {
+
+        File directory = Files.createTempDirectory("range-downloader-test").toFile();
+        File file = new File(directory, "sdk.zip");
+        checksum = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+        try {
+            new RangeDownloader(2, 1024).download(location, file);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("doesn't match checksum"));
+        }
+
+        assertEquals(directory.list().length, 0, "no file is left behind");
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
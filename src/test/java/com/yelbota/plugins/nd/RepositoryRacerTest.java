@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.yelbota.plugins.nd.stubs.ArtifactRepositoryStub;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class RepositoryRacerTest {
+
+    private final Artifact artifact = new DefaultArtifact("com.example", "sdk", "1.0", "compile", "zip",
+            "linux", new DefaultArtifactHandler("zip"));
+
+    private HttpServer slow;
+    private HttpServer fast;
+    private HttpServer empty;
+    private File statsFile;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        slow = createServer(200, 2000);
+        fast = createServer(200, 0);
+        empty = createServer(404, 0);
+        statsFile = new File(Files.createTempDirectory("repository-racer-test").toFile(), "repositories.properties");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        slow.stop(0);
+        fast.stop(0);
+        empty.stop(0);
+    }
+
+    @Test
+    public void testFastestRepositoryGoesFirst() throws Exception {
+
+        ArtifactRepository slowRepository = createRepository(slow);
+        ArtifactRepository fastRepository = createRepository(fast);
+        RepositoryRacer racer = new RepositoryRacer(statsFile);
+
+        long started = System.currentTimeMillis();
+        List<ArtifactRepository> ordered = racer.order(artifact, Arrays.asList(slowRepository, fastRepository));
+
+        assertEquals(ordered, Arrays.asList(fastRepository, slowRepository));
+        assertTrue(System.currentTimeMillis() - started < 2000, "slow probe is not waited for");
+        assertTrue(racer.getLatency(fastRepository.getUrl()) <= racer.getLatency(slowRepository.getUrl()));
+    }
+
+    @Test
+    public void testRepositoryWithoutArtifactDoesNotWinAndStatsAreKept() throws Exception {
+
+        ArtifactRepository emptyRepository = createRepository(empty);
+        ArtifactRepository fastRepository = createRepository(fast);
+
+        List<ArtifactRepository> ordered = new RepositoryRacer(statsFile)
+                .order(artifact, Arrays.asList(emptyRepository, fastRepository));
+
+        assertEquals(ordered, Arrays.asList(fastRepository, emptyRepository));
+        assertTrue(statsFile.isFile());
+
+        RepositoryRacer next = new RepositoryRacer(statsFile);
+        assertTrue(next.getLatency(emptyRepository.getUrl()) >= 0);
+        assertTrue(next.getLatency(fastRepository.getUrl()) >= 0);
+        assertEquals(next.getLatency("http://127.0.0.1:1/never"), RepositoryRacer.UNKNOWN);
+    }
+
+    //-------------------------------------------------------------------------
+
+    private static HttpServer createServer(final int status, final long delay) throws IOException {
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static ArtifactRepository createRepository(HttpServer server) {
+
+        final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repository";
+
+        return new ArtifactRepositoryStub() {
+
+            @Override
+            public String getUrl() {
+                return url;
+            }
+
+            @Override
+            public String pathOf(Artifact artifact) {
+                return "com/example/sdk/1.0/sdk-1.0-linux.zip";
+            }
+        };
+    }
+}
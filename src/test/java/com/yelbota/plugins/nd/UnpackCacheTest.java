@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd;
+
+import com.yelbota.plugins.nd.utils.UnpackMethod;
+import org.apache.maven.plugin.logging.Log;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class UnpackCacheTest {
+
+    private static final Log NO_LOGGER = null;
+
+    private class CountingUnpackMethod implements UnpackMethod {
+
+        private int invocations = 0;
+
+        @Override
+        public void unpack(File file, File directory) throws IOException, UnpackMethodException {
+            unpack(file, directory, null);
+        }
+
+        @Override
+        public void unpack(File file, File directory, Log log) throws IOException, UnpackMethodException {
+            invocations++;
+            Files.createDirectories(directory.toPath().resolve("lib"));
+            Files.write(directory.toPath().resolve("lib/libnative.so"), Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    private UnpackCache cache;
+    private File artifactFile;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        cache = new UnpackCache(Files.createTempDirectory("unpack-cache-test").toFile());
+        artifactFile = Files.createTempFile("unpack-cache-test-artifact", ".mock").toFile();
+        Files.write(artifactFile.toPath(), "native library".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testSameArtifactIsExtractedOnce() throws Exception {
+        CountingUnpackMethod unpackMethod = new CountingUnpackMethod();
+        File first = Files.createTempDirectory("unpack-cache-test-first").toFile();
+        File second = Files.createTempDirectory("unpack-cache-test-second").toFile();
+
+        cache.setLinkMode(UnpackCache.LinkMode.HARDLINK);
+        assertFalse(cache.unpack(artifactFile, unpackMethod, first, NO_LOGGER), "first unpack is a cache miss");
+        assertTrue(cache.unpack(artifactFile, unpackMethod, second, NO_LOGGER), "second unpack is a cache hit");
+        assertEquals(unpackMethod.invocations, 1);
+
+        Path firstLibrary = first.toPath().resolve("lib/libnative.so");
+        Path secondLibrary = second.toPath().resolve("lib/libnative.so");
+        assertEquals(new String(Files.readAllBytes(secondLibrary), "UTF-8"), "native library");
+        assertTrue(Files.isSameFile(firstLibrary, secondLibrary), "files are hard linked from the store");
+    }
+
+    @Test
+    public void testDefaultModeDoesNotShareFilesAndMirrorsDirectories() throws Exception {
+        CountingUnpackMethod unpackMethod = new CountingUnpackMethod();
+        File first = Files.createTempDirectory("unpack-cache-test-default-first").toFile();
+        File second = Files.createTempDirectory("unpack-cache-test-default-second").toFile();
+
+        cache.unpack(artifactFile, unpackMethod, first, NO_LOGGER);
+
+        Path stored = cache.getTree(cache.digest(artifactFile)).toPath().resolve("lib");
+        assertFalse(Files.isSameFile(first.toPath().resolve("lib/libnative.so"), stored.resolve("libnative.so")));
+
+        Set<PosixFilePermission> readOnly = PosixFilePermissions.fromString("r-xr-x---");
+        Files.setPosixFilePermissions(stored, readOnly);
+
+        try {
+            cache.unpack(artifactFile, unpackMethod, second, NO_LOGGER);
+            assertEquals(Files.getPosixFilePermissions(second.toPath().resolve("lib")), readOnly);
+
+            // Read-only directory is populated again.
+            cache.unpack(artifactFile, unpackMethod, second, NO_LOGGER);
+            assertEquals(Files.getPosixFilePermissions(second.toPath().resolve("lib")), readOnly);
+            assertEquals(new String(Files.readAllBytes(second.toPath().resolve("lib/libnative.so")), "UTF-8"), "native library");
+        } finally {
+            Files.setPosixFilePermissions(stored, PosixFilePermissions.fromString("rwxr-xr-x"));
+        }
+    }
+
+    @Test
+    public void testChangedArtifactIsExtractedAgain() throws Exception {
+        CountingUnpackMethod unpackMethod = new CountingUnpackMethod();
+        File directory = Files.createTempDirectory("unpack-cache-test-changed").toFile();
+
+        cache.unpack(artifactFile, unpackMethod, directory, NO_LOGGER);
+        Files.write(artifactFile.toPath(), "patched native library".getBytes("UTF-8"));
+        artifactFile.setLastModified(artifactFile.lastModified() + 2000);
+        cache.unpack(artifactFile, unpackMethod, directory, NO_LOGGER);
+
+        assertEquals(unpackMethod.invocations, 2);
+        assertEquals(new String(Files.readAllBytes(directory.toPath().resolve("lib/libnative.so")), "UTF-8"), "patched native library");
+    }
+
+    @Test
+    public void testCopyModeDoesNotShareFiles() throws Exception {
+        CountingUnpackMethod unpackMethod = new CountingUnpackMethod();
+        File first = Files.createTempDirectory("unpack-cache-test-copy-first").toFile();
+        File second = Files.createTempDirectory("unpack-cache-test-copy-second").toFile();
+
+        cache.setLinkMode(UnpackCache.LinkMode.COPY);
+        cache.unpack(artifactFile, unpackMethod, first, NO_LOGGER);
+        cache.unpack(artifactFile, unpackMethod, second, NO_LOGGER);
+
+        assertFalse(Files.isSameFile(first.toPath().resolve("lib/libnative.so"), second.toPath().resolve("lib/libnative.so")));
+    }
+
+    @Test
+    public void testReflinkModeDoesNotShareFiles() throws Exception {
+        CountingUnpackMethod unpackMethod = new CountingUnpackMethod();
+        File directory = Files.createTempDirectory("unpack-cache-test-reflink").toFile();
+
+        cache.setLinkMode(UnpackCache.LinkMode.REFLINK);
+        cache.unpack(artifactFile, unpackMethod, directory, NO_LOGGER);
+
+        Path library = directory.toPath().resolve("lib/libnative.so");
+        Path stored = cache.getTree(cache.digest(artifactFile)).toPath().resolve("lib/libnative.so");
+        assertFalse(Files.isSameFile(library, stored), "clone or copy is a separate file");
+
+        Files.write(library, "modified".getBytes("UTF-8"));
+        assertEquals(new String(Files.readAllBytes(stored), "UTF-8"), "native library", "store is not modified");
+    }
+
+    @Test
+    public void testOnlyUnsupportedCloningFallsBackToCopy() throws Exception {
+
+        assertTrue(UnpackCache.isCloneUnsupported("exit status 1, cp: failed to clone 'lib/a.so' from 'a.so': Operation not supported"));
+        assertTrue(UnpackCache.isCloneUnsupported("exit status 1, cp: failed to clone 'lib/a.so': Invalid cross-device link"));
+        assertTrue(UnpackCache.isCloneUnsupported("exit status 64, cp: illegal option -- -"));
+        assertTrue(UnpackCache.isCloneUnsupported("Cannot run program \"cp\": error=2, No such file or directory"));
+
+        assertFalse(UnpackCache.isCloneUnsupported("exit status 1, cp: error writing 'lib/a.so': No space left on device"));
+        assertFalse(UnpackCache.isCloneUnsupported("exit status 1, cp: cannot create regular file 'lib/a.so': Permission denied"));
+    }
+}
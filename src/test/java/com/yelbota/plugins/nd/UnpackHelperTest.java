@@ -15,21 +15,46 @@
  */
 package com.yelbota.plugins.nd;
 
+import com.yelbota.plugins.nd.stubs.LoggerStub;
+import com.yelbota.plugins.nd.utils.Checksum;
+import com.yelbota.plugins.nd.utils.EntryFilter;
+import com.yelbota.plugins.nd.utils.EntryWriter;
+import com.yelbota.plugins.nd.utils.LengthCheckedInputStream;
+import com.yelbota.plugins.nd.utils.ParallelZipUnpackMethod;
+import com.yelbota.plugins.nd.utils.TarGZipUnpackMethod;
+import com.yelbota.plugins.nd.utils.UnpackManifest;
 import com.yelbota.plugins.nd.utils.UnpackMethod;
+import com.yelbota.plugins.nd.utils.ZipUnpackMethod;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.testing.stubs.ArtifactStub;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.StringContains.containsString;
@@ -123,7 +148,7 @@ public class UnpackHelperTest {
         } catch (UnpackHelper.UnpackHelperException expected) { /* no op */ }
 
         assertFalse(unpackHelper.logAlreadyUnpackedCalled, "the first time unpack is invoked it does not see the artifact as unpacked");
-        assertFalse(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACKED_COMPLETED_FLAG_FILE)), "flag file is not created");
+        assertFalse(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACK_MANIFEST_FILE)), "manifest is not created");
         verify(mockedUnpackMethod).unpack(any(File.class), any(File.class), any(Log.class));
     }
 
@@ -135,7 +160,7 @@ public class UnpackHelperTest {
 
         unpackHelper.unpack(directory, artifact, this.mockedUnpackMethods, NO_LOGGER);
         assertFalse(unpackHelper.logAlreadyUnpackedCalled, "the first time unpack is invoked it does not see the artifact as unpacked");
-        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACKED_COMPLETED_FLAG_FILE)), "flag file is created");
+        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACK_MANIFEST_FILE)), "manifest is created");
         verify(this.mockedUnpackedMethod).unpack(any(File.class), any(File.class), any(Log.class));
     }
 
@@ -147,15 +172,509 @@ public class UnpackHelperTest {
 
         unpackHelper.unpack(directory, artifact, this.mockedUnpackMethods, NO_LOGGER);
         assertFalse(unpackHelper.logAlreadyUnpackedCalled, "the first time unpack is invoked it does not see the artifact as unpacked");
-        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACKED_COMPLETED_FLAG_FILE)), "flag file is created");
+        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACK_MANIFEST_FILE)), "manifest is created");
         verify(this.mockedUnpackedMethod).unpack(any(File.class), any(File.class), any(Log.class));
 
         unpackHelper.unpack(directory, artifact, this.mockedUnpackMethods, NO_LOGGER);
         assertTrue(unpackHelper.logAlreadyUnpackedCalled, "the second time unpack is invoked it sees the artifact as already unpacked");
-        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACKED_COMPLETED_FLAG_FILE)),  "flag file is not removed");
+        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACK_MANIFEST_FILE)),  "manifest is not removed");
         verifyNoMoreInteractions(this.mockedUnpackedMethod);
     }
 
+    @Test
+    public void testChangedArtifactIsUnpackedIncrementally() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+        UnpackHelperWithExtraLogging unpackHelper = new UnpackHelperWithExtraLogging();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        artifact.setVersion("1.0");
+        writeZip(artifact.getFile(), "lib/unchanged.so", "same", "lib/changed.so", "old", "lib/stale.so", "stale");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        File unchanged = new File(directory, "lib/unchanged.so");
+        long unchangedModified = unchanged.lastModified() - 10000;
+        unchanged.setLastModified(unchangedModified);
+
+        artifact.setVersion("1.1");
+        writeZip(artifact.getFile(), "lib/unchanged.so", "same", "lib/changed.so", "new", "lib/added.so", "added");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        assertFalse(unpackHelper.logAlreadyUnpackedCalled, "new version is not seen as unpacked");
+        assertEquals(unchanged.lastModified(), unchangedModified, "unchanged entry is not rewritten");
+        assertEquals(new String(Files.readAllBytes(new File(directory, "lib/changed.so").toPath()), "UTF-8"), "new");
+        assertTrue(new File(directory, "lib/added.so").exists(), "new entry is extracted");
+        assertFalse(new File(directory, "lib/stale.so").exists(), "stale entry is removed");
+
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+        assertTrue(unpackHelper.logAlreadyUnpackedCalled, "same version is seen as unpacked");
+    }
+
+    @Test
+    public void testStaleEntriesOfOtherUnpackMethodsAreRemoved() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ZipUnpackMethod(new LoggerStub()));
+        UnpackHelper unpackHelper = new UnpackHelper();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        artifact.setVersion("1.0");
+        writeZip(artifact.getFile(), "lib/kept.so", "kept", "lib/stale.so", "stale");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        UnpackManifest manifest = UnpackManifest.read(new File(directory, UnpackHelper.UNPACK_MANIFEST_FILE));
+        assertNotNull(manifest.get("lib/stale.so"), "entries are listed from the zip file");
+        assertEquals(manifest.get("lib/kept.so").getSize(), 4);
+
+        artifact.setVersion("1.1");
+        writeZip(artifact.getFile(), "lib/kept.so", "kept", "lib/added.so", "added");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        assertTrue(new File(directory, "lib/added.so").exists(), "new entry is extracted");
+        assertFalse(new File(directory, "lib/stale.so").exists(), "stale entry is removed");
+    }
+
+    @Test
+    public void testChangedArtifactWithReadOnlyEntriesIsUnpackedIncrementally() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("tar.gz", new TarGZipUnpackMethod(2));
+        UnpackHelperWithExtraLogging unpackHelper = new UnpackHelperWithExtraLogging();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("tar.gz");
+        artifact.setVersion("1.0");
+        writeReadOnlyTarGz(artifact.getFile(), "include/same.h", "same", "include/changed.h", "old",
+                "include/stale.h", "stale");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        artifact.setVersion("1.1");
+        writeReadOnlyTarGz(artifact.getFile(), "include/same.h", "same", "include/changed.h", "new",
+                "include/added.h", "added");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        File include = new File(directory, "include");
+        assertEquals(new String(Files.readAllBytes(new File(include, "changed.h").toPath()), "UTF-8"), "new");
+        assertTrue(new File(include, "added.h").exists(), "new entry is extracted");
+        assertFalse(new File(include, "stale.h").exists(), "stale entry is removed");
+        assertEquals(Files.getPosixFilePermissions(include.toPath()), PosixFilePermissions.fromString("r-xr-xr-x"));
+        assertEquals(Files.getPosixFilePermissions(new File(include, "changed.h").toPath()),
+                PosixFilePermissions.fromString("r--r--r--"));
+
+        Files.setPosixFilePermissions(include.toPath(), PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+
+    @Test
+    public void testChangedFilterIsUnpackedAgain() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+        UnpackHelperWithExtraLogging unpackHelper = new UnpackHelperWithExtraLogging();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        writeZip(artifact.getFile(), "lib/x86/a.so", "x86", "lib/arm/a.so", "arm", "docs/readme", "docs");
+
+        unpackHelper.unpack(directory, artifact, unpackMethods, new EntryFilter("lib/x86/**", null), NO_LOGGER);
+        assertTrue(new File(directory, "lib/x86/a.so").exists(), "included entry is extracted");
+        assertFalse(new File(directory, "lib/arm/a.so").exists(), "not included entry is skipped");
+        assertFalse(new File(directory, "docs").exists(), "not included entry is skipped");
+
+        unpackHelper.unpack(directory, artifact, unpackMethods, new EntryFilter("lib/", "**/x86/"), NO_LOGGER);
+        assertFalse(unpackHelper.logAlreadyUnpackedCalled, "changed filter is not seen as unpacked");
+        assertTrue(new File(directory, "lib/arm/a.so").exists(), "newly included entry is extracted");
+        assertFalse(new File(directory, "lib/x86/a.so").exists(), "excluded entry is removed");
+
+        unpackHelper.unpack(directory, artifact, unpackMethods, new EntryFilter("lib/", "**/x86/"), NO_LOGGER);
+        assertTrue(unpackHelper.logAlreadyUnpackedCalled, "same filter is seen as unpacked");
+    }
+
+    @Test
+    public void testUnpackLazily() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+        UnpackHelperWithExtraLogging unpackHelper = new UnpackHelperWithExtraLogging();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        writeZip(artifact.getFile(), "lib/a.so", "a", "lib/b.so", "b");
+
+        LazyUnpackedArtifact unpacked = unpackHelper.unpackLazily(directory, artifact, unpackMethods, NO_LOGGER);
+        assertTrue(new File(directory, UnpackHelper.UNPACK_INDEX_FILE).isFile(), "index is created");
+        assertFalse(new File(directory, "lib").exists(), "nothing is extracted");
+
+        File file = unpacked.getFile("lib/b.so");
+        assertEquals(new String(Files.readAllBytes(file.toPath()), "UTF-8"), "b");
+        assertFalse(new File(directory, "lib/a.so").exists(), "entry not asked for is not extracted");
+
+        try {
+            unpacked.getFile("lib/c.so");
+            fail("missing entry should not be found");
+        } catch (java.io.FileNotFoundException e) {
+            // Expected.
+        }
+
+        unpackHelper.unpackLazily(directory, artifact, unpackMethods, NO_LOGGER);
+        assertTrue(unpackHelper.logAlreadyUnpackedCalled, "same version is seen as indexed");
+
+        artifact.setVersion("1.1");
+        writeZip(artifact.getFile(), "lib/a.so", "a2");
+        unpackHelper.unpackLazily(directory, artifact, unpackMethods, NO_LOGGER);
+        assertFalse(new File(directory, "lib/b.so").exists(), "entry of the previous version is removed");
+
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+        assertEquals(new String(Files.readAllBytes(new File(directory, "lib/a.so").toPath()), "UTF-8"), "a2");
+        assertFalse(new File(directory, UnpackHelper.UNPACK_INDEX_FILE).exists(), "full unpack replaces index");
+    }
+
+    @Test
+    public void testUnpackTarLazilyFollowsLinks() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("tar.gz", new TarGZipUnpackMethod());
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("tar.gz");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(bytes));
+        try {
+            byte[] content = "library".getBytes("UTF-8");
+            TarArchiveEntry file = new TarArchiveEntry("lib/libfoo.so.1");
+            file.setSize(content.length);
+            out.putArchiveEntry(file);
+            out.write(content);
+            out.closeArchiveEntry();
+
+            TarArchiveEntry symlink = new TarArchiveEntry("lib/libfoo.so", TarArchiveEntry.LF_SYMLINK);
+            symlink.setLinkName("libfoo.so.1");
+            out.putArchiveEntry(symlink);
+            out.closeArchiveEntry();
+
+            TarArchiveEntry hardLink = new TarArchiveEntry("bin/libfoo-copy.so", TarArchiveEntry.LF_LINK);
+            hardLink.setLinkName("lib/libfoo.so.1");
+            out.putArchiveEntry(hardLink);
+            out.closeArchiveEntry();
+        } finally {
+            out.close();
+        }
+        Files.write(artifact.getFile().toPath(), bytes.toByteArray());
+
+        LazyUnpackedArtifact unpacked = new UnpackHelper().unpackLazily(directory, artifact, unpackMethods, NO_LOGGER);
+
+        File link = unpacked.getFile("lib/libfoo.so");
+        assertTrue(Files.isSymbolicLink(link.toPath()), "link is restored");
+        assertEquals(new String(Files.readAllBytes(link.toPath()), "UTF-8"), "library", "link target is extracted");
+
+        File copy = unpacked.getFile("bin/libfoo-copy.so");
+        assertEquals(new String(Files.readAllBytes(copy.toPath()), "UTF-8"), "library");
+    }
+
+    @Test
+    public void testConcurrentUnpacksExtractOnce() throws Exception {
+        final File directory = new File(System.getProperty("java.io.tmpdir"), "unpack-helper-test-" + UUID.randomUUID());
+        final AtomicInteger extractions = new AtomicInteger();
+        final Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2) {
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethodException {
+                extractions.incrementAndGet();
+                super.unpack(file, writer, log);
+            }
+        });
+
+        final ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        writeZip(artifact.getFile(), "lib/a.so", "a", "lib/b.so", "b");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        new UnpackHelper().unpack(directory, artifact, unpackMethods, NO_LOGGER);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(extractions.get(), 1, "artifact is extracted once");
+        assertEquals(new String(Files.readAllBytes(new File(directory, "lib/b.so").toPath()), "UTF-8"), "b");
+        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACK_MANIFEST_FILE)), "manifest is created");
+    }
+
+    @Test
+    public void testUnpackWhileDownloading() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "unpack-helper-test-" + UUID.randomUUID());
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("tar.gz", new TarGZipUnpackMethod());
+        UnpackHelperWithExtraLogging unpackHelper = new UnpackHelperWithExtraLogging();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("tar.gz");
+        File artifactFile = artifact.getFile();
+        artifactFile.delete();
+
+        byte[] archive = createTarGz("bin/tool", "tool", "lib/lib.so", "lib");
+        unpackHelper.unpack(directory, artifact, new ByteArrayInputStream(archive), unpackMethods, NO_LOGGER);
+
+        assertEquals(Files.readAllBytes(artifactFile.toPath()), archive, "downloaded archive is stored");
+        assertEquals(new String(Files.readAllBytes(new File(directory, "lib/lib.so").toPath()), "UTF-8"), "lib");
+        assertTrue(Files.exists(Paths.get(directory.getAbsolutePath(), UnpackHelper.UNPACK_MANIFEST_FILE)), "manifest is created");
+
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+        assertTrue(unpackHelper.logAlreadyUnpackedCalled, "stored archive is seen as unpacked");
+    }
+
+    @Test
+    public void testChecksumMismatchFailsUnpack() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "unpack-helper-test-" + UUID.randomUUID());
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+        UnpackHelper unpackHelper = new UnpackHelper();
+        unpackHelper.setChecksumPolicy(UnpackHelper.ChecksumPolicy.FAIL);
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        writeZip(artifact.getFile(), "lib/a.so", "aaaa");
+        File sidecar = new File(artifact.getFile().getPath() + ".sha1");
+        Files.write(sidecar.toPath(), "da39a3ee5e6b4b0d3255bfef95601890afd80709  artifact.zip\n".getBytes("UTF-8"));
+
+        try {
+            unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException e) {
+            assertThat(e.getCause().getMessage(), containsString("doesn't match checksum SHA-1:da39a3ee"));
+        }
+
+        assertFalse(new File(directory, UnpackHelper.UNPACK_MANIFEST_FILE).exists(), "mismatch is not unpacked");
+        assertFalse(new File(directory, "lib/a.so").exists(), "mismatch leaves no content");
+
+        String digest = UnpackCache.hex(UnpackCache.hash(artifact.getFile(), "SHA-1"));
+        Files.write(sidecar.toPath(), digest.getBytes("UTF-8"));
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+        assertTrue(new File(directory, "lib/a.so").exists(), "matching artifact is unpacked");
+    }
+
+    @Test
+    public void testChecksumIsVerifiedWhileDownloading() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "unpack-helper-test-" + UUID.randomUUID());
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("tar.gz", new TarGZipUnpackMethod());
+        UnpackHelper unpackHelper = new UnpackHelper();
+        unpackHelper.setChecksumPolicy(UnpackHelper.ChecksumPolicy.FAIL);
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("tar.gz");
+        File artifactFile = artifact.getFile();
+        artifactFile.delete();
+        byte[] archive = createTarGz("lib/lib.so", "lib");
+        unpackHelper.getChecksums().put(UnpackHelper.getSource(artifact),
+                new Checksum(Checksum.SHA_256, UnpackCache.hex(UnpackCache.sha256("other".getBytes("UTF-8")))));
+
+        try {
+            unpackHelper.unpack(directory, artifact, new ByteArrayInputStream(archive), unpackMethods, NO_LOGGER);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException e) {
+            assertThat(e.getCause().getMessage(), containsString("doesn't match checksum"));
+        }
+
+        assertFalse(artifactFile.exists(), "mismatching download is not stored");
+        assertFalse(new File(directory, "lib/lib.so").exists(), "mismatching download is not unpacked");
+
+        unpackHelper.getChecksums().put(UnpackHelper.getSource(artifact),
+                new Checksum(Checksum.SHA_256, UnpackCache.hex(UnpackCache.sha256(archive))));
+        unpackHelper.unpack(directory, artifact, new ByteArrayInputStream(archive), unpackMethods, NO_LOGGER);
+        assertEquals(new String(Files.readAllBytes(new File(directory, "lib/lib.so").toPath()), "UTF-8"), "lib");
+    }
+
+    @Test
+    public void testBrokenDownloadIsNotStored() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "unpack-helper-test-" + UUID.randomUUID());
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("tar.gz", new TarGZipUnpackMethod());
+        UnpackHelper unpackHelper = new UnpackHelper();
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("tar.gz");
+        File artifactFile = artifact.getFile();
+        artifactFile.delete();
+        byte[] archive = createTarGz("lib/lib.so", "lib");
+
+        try {
+            InputStream truncated = new ByteArrayInputStream(archive, 0, archive.length / 2);
+            unpackHelper.unpack(directory, artifact, new LengthCheckedInputStream(truncated, archive.length),
+                    unpackMethods, NO_LOGGER);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException e) {
+            assertThat(e.getCause().getMessage(), containsString("Stream ended after"));
+        }
+
+        assertFalse(artifactFile.exists(), "truncated download is not stored");
+
+        // Checksum policy is IGNORE, but the repository checksum still guards the download.
+        String digest = UnpackCache.hex(MessageDigest.getInstance("SHA-1").digest(archive));
+        Files.write(new File(artifactFile.getPath() + ".sha1").toPath(), digest.getBytes("UTF-8"));
+        byte[] corrupt = archive.clone();
+        corrupt[corrupt.length / 2] ^= 0xff;
+
+        try {
+            unpackHelper.unpack(directory, artifact, new ByteArrayInputStream(corrupt), unpackMethods, NO_LOGGER);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException e) {
+            assertThat(e.getCause().getMessage(), containsString("doesn't match checksum"));
+        }
+
+        assertFalse(artifactFile.exists(), "corrupt download is not stored");
+        assertFalse(new File(directory, "lib/lib.so").exists(), "corrupt download is not unpacked");
+
+        unpackHelper.unpack(directory, artifact, new ByteArrayInputStream(archive), unpackMethods, NO_LOGGER);
+        assertEquals(Files.readAllBytes(artifactFile.toPath()), archive, "intact download is stored");
+    }
+
+    @Test
+    public void testUnpackAllReportsFailuresAfterUnpackingOthers() throws Exception {
+        File root = Files.createTempDirectory("unpack-helper-test").toFile();
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+        UnpackHelper unpackHelper = new UnpackHelper();
+        Map<File, Artifact> artifacts = new LinkedHashMap<File, Artifact>();
+
+        for (int i = 0; i < 3; i++) {
+            ArtifactStub artifact = createArtifactStub();
+            artifact.setType("zip");
+            artifact.setArtifactId("artifact-" + i);
+            writeZip(artifact.getFile(), "lib/" + i + ".so", "library " + i);
+            artifacts.put(new File(root, "artifact-" + i), artifact);
+        }
+
+        ArtifactStub broken = createArtifactStub();
+        broken.setType("zip");
+        Files.write(broken.getFile().toPath(), "not a zip".getBytes("UTF-8"));
+        File brokenDirectory = new File(root, "broken");
+        artifacts.put(brokenDirectory, broken);
+
+        try {
+            unpackHelper.unpackAll(artifacts, unpackMethods, 2, NO_LOGGER);
+            fail("BatchUnpackException expected");
+        } catch (UnpackHelper.BatchUnpackException e) {
+            assertEquals(e.getFailures().keySet(), Collections.singleton(brokenDirectory));
+            assertEquals(e.getUnpacked().size(), 3);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(new File(root, "artifact-" + i + "/lib/" + i + ".so").exists(), "artifact " + i + " is unpacked");
+        }
+    }
+
+    @Test
+    public void testListenerReceivesMetrics() throws Exception {
+        File directory = Files.createTempDirectory("unpack-helper-test").toFile();
+        File reportFile = new File(directory.getParentFile(), directory.getName() + "-report.json");
+        final List<UnpackMetrics> reported = new ArrayList<UnpackMetrics>();
+        final JsonUnpackReport report = new JsonUnpackReport(reportFile);
+        Map<String, UnpackMethod> unpackMethods = new HashMap<String, UnpackMethod>();
+        unpackMethods.put("zip", new ParallelZipUnpackMethod(2));
+
+        UnpackHelper unpackHelper = new UnpackHelper();
+        unpackHelper.setListener(new UnpackListener() {
+            @Override
+            public void artifactResolved(String artifact, long nanos) {
+                report.artifactResolved(artifact, nanos);
+            }
+
+            @Override
+            public void artifactUnpacked(UnpackMetrics metrics) {
+                reported.add(metrics);
+                report.artifactUnpacked(metrics);
+            }
+        });
+
+        ArtifactStub artifact = createArtifactStub();
+        artifact.setType("zip");
+        writeZip(artifact.getFile(), "lib/a.so", "aaaa", "lib/b.so", "bb");
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+        unpackHelper.unpack(directory, artifact, unpackMethods, NO_LOGGER);
+
+        assertEquals(reported.size(), 2);
+        UnpackMetrics first = reported.get(0);
+        assertFalse(first.isAlreadyUnpacked());
+        assertEquals(first.getEntryCount(), 2);
+        assertEquals(first.getBytesWritten(), 6);
+        assertEquals(first.getBytesRead(), artifact.getFile().length());
+        assertTrue(reported.get(1).isAlreadyUnpacked());
+
+        String json = new String(Files.readAllBytes(reportFile.toPath()), "UTF-8");
+        assertThat(json, containsString("\"alreadyUnpacked\": true"));
+        assertThat(json, containsString("\"bytesWritten\": 0"));
+    }
+
+    private static byte[] createTarGz(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(bytes));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                byte[] content = namesAndContents[i + 1].getBytes("UTF-8");
+                TarArchiveEntry entry = new TarArchiveEntry(namesAndContents[i]);
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes tar.gz with read-only `include/` directory and read-only files.
+     */
+    private static void writeReadOnlyTarGz(File file, String... namesAndContents) throws IOException {
+        TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+        try {
+            TarArchiveEntry directory = new TarArchiveEntry("include/");
+            directory.setMode(040555);
+            out.putArchiveEntry(directory);
+            out.closeArchiveEntry();
+
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                byte[] content = namesAndContents[i + 1].getBytes("UTF-8");
+                TarArchiveEntry entry = new TarArchiveEntry(namesAndContents[i]);
+                entry.setMode(0100444);
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeZip(File file, String... namesAndContents) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                out.putNextEntry(new ZipEntry(namesAndContents[i]));
+                out.write(namesAndContents[i + 1].getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
     private ArtifactStub createArtifactStub() throws IOException {
         ArtifactStub artifact = new ArtifactStub();
         artifact.setType("mock-type");
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AutoUnpackMethodTest extends AbstractUnpackMethodTest {
+
+    @Test
+    public void testUnpackDetectsFormatByContent() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/auto");
+        File tgz = new File(directory.getParentFile(), "auto-archive.bin");
+        File zip = new File(directory.getParentFile(), "auto-archive.dat");
+        Files.copy(FileUtils.resolveFile(pwd, "src/test/resources/unit/archive.tgz").toPath(), tgz.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(FileUtils.resolveFile(pwd, "src/test/resources/unit/archive.zip").toPath(), zip.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        Assert.assertEquals(AutoUnpackMethod.detectFormat(tgz), AutoUnpackMethod.GZIP);
+        Assert.assertEquals(AutoUnpackMethod.detectFormat(zip), AutoUnpackMethod.ZIP);
+
+        UnpackMethod unpackMethod = new AutoUnpackMethod();
+        unpackMethod.unpack(tgz, new File(directory, "tgz"));
+        unpackMethod.unpack(zip, new File(directory, "zip"));
+
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "tgz/file-1")), "File 1\n");
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "zip/file-2")), "File 2\n");
+    }
+
+    @Test
+    public void testUnpackFallsBackAndPrefersFasterEngineLater() throws Exception {
+
+        File file = FileUtils.resolveFile(pwd, "src/test/resources/unit/archive.zip");
+        File directory = createDirectory("target/unit/archive/auto-fallback");
+        final AtomicInteger failingCalls = new AtomicInteger();
+
+        final AutoUnpackMethod.Engine failing = new AutoUnpackMethod.Engine("failing") {
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException {
+                failingCalls.incrementAndGet();
+                throw new IOException("broken engine");
+            }
+        };
+
+        final AutoUnpackMethod.Engine working = new AutoUnpackMethod.Engine("working") {
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethod.UnpackMethodException {
+                new ParallelZipUnpackMethod(1).unpack(file, writer, log);
+            }
+        };
+
+        AutoUnpackMethod unpackMethod = new AutoUnpackMethod(2) {
+            @Override
+            protected List<AutoUnpackMethod.Engine> getEngines(File file, String shape, EntryWriter writer) {
+                return Arrays.<AutoUnpackMethod.Engine>asList(failing, working);
+            }
+        };
+
+        unpackMethod.unpack(file, directory);
+
+        Assert.assertEquals(failingCalls.get(), 1);
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-1")), "File 1\n");
+
+        String shape = "zip-0-few";
+        Assert.assertEquals(unpackMethod.getThroughput("failing", shape), 0);
+        Assert.assertTrue(unpackMethod.getThroughput("working", shape) > 0);
+
+        unpackMethod.unpack(file, createDirectory("target/unit/archive/auto-fallback-2"));
+        Assert.assertEquals(failingCalls.get(), 1, "measured faster engine goes first");
+    }
+
+    @Test
+    public void testFallbackStartsFromCleanDirectory() throws Exception {
+
+        File file = FileUtils.resolveFile(pwd, "src/test/resources/unit/archive.zip");
+        File directory = createDirectory("target/unit/archive/auto-clean");
+        EntryWriter first = new EntryWriter(directory);
+        new ParallelZipUnpackMethod(1).unpack(file, first, null);
+
+        // Overwrites start of an unchanged file in place, then fails.
+        final AutoUnpackMethod.Engine failing = new AutoUnpackMethod.Engine("failing") {
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException {
+                writer.writeFile("stray/partial", new ByteArrayInputStream(new byte[10]), 0644, -1);
+                writer.writeFile("file-1", new SequenceInputStream(new ByteArrayInputStream("XXX".getBytes("UTF-8")),
+                        new InputStream() {
+                            @Override
+                            public int read() throws IOException {
+                                throw new IOException("broken engine");
+                            }
+                        }), 0644, -1);
+            }
+        };
+
+        final AutoUnpackMethod.Engine working = new AutoUnpackMethod.Engine("working") {
+            @Override
+            public void unpack(File file, EntryWriter writer, Log log) throws IOException, UnpackMethod.UnpackMethodException {
+                new ParallelZipUnpackMethod(1).unpack(file, writer, log);
+            }
+        };
+
+        AutoUnpackMethod unpackMethod = new AutoUnpackMethod(2) {
+            @Override
+            protected List<AutoUnpackMethod.Engine> getEngines(File file, String shape, EntryWriter writer) {
+                return Arrays.<AutoUnpackMethod.Engine>asList(failing, working);
+            }
+        };
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setPreviousManifest(first.getManifest());
+        unpackMethod.unpack(file, writer, null);
+        writer.finish();
+
+        Assert.assertFalse(new File(directory, "stray").exists(), "failed engine output is removed");
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-1")), "File 1\n");
+        Assert.assertNull(writer.getManifest().get("stray/partial"));
+        Assert.assertNotNull(writer.getManifest().get("file-1"));
+    }
+}
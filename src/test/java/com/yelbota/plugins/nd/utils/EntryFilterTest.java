@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class EntryFilterTest {
+
+    @Test
+    public void testEmptyFilterAcceptsEverything() {
+
+        EntryFilter filter = new EntryFilter((String) null, null);
+
+        Assert.assertTrue(filter.isEmpty());
+        Assert.assertTrue(filter.accepts("lib/libfoo.so"));
+        Assert.assertTrue(filter.accepts("./bin/"));
+    }
+
+    @Test
+    public void testPatterns() {
+
+        EntryFilter filter = new EntryFilter("lib/**/*.so, bin/tool?, include/", "**/debug/**");
+
+        Assert.assertTrue(filter.accepts("lib/libfoo.so"));
+        Assert.assertTrue(filter.accepts("./lib/x86/libfoo.so"));
+        Assert.assertTrue(filter.accepts("/bin/tool1"));
+        Assert.assertTrue(filter.accepts("include"));
+        Assert.assertTrue(filter.accepts("include/foo/foo.h"));
+
+        Assert.assertFalse(filter.accepts("lib/libfoo.a"));
+        Assert.assertFalse(filter.accepts("bin/tool12"));
+        Assert.assertFalse(filter.accepts("bin/x/tool1"));
+        Assert.assertFalse(filter.accepts("lib/debug/libfoo.so"));
+        Assert.assertFalse(filter.accepts("include/debug/"));
+        Assert.assertFalse(filter.accepts("liblib/libfoo.so"));
+    }
+
+    @Test
+    public void testSpecialCharactersAreLiteral() {
+
+        EntryFilter filter = new EntryFilter("lib/libc++.so.1", null);
+
+        Assert.assertTrue(filter.accepts("lib/libc++.so.1"));
+        Assert.assertFalse(filter.accepts("lib/libcc.so11"));
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ParallelZipUnpackMethodTest extends AbstractUnpackMethodTest {
+
+    @Test
+    public void testUnpack() throws Exception {
+
+        File file = FileUtils.resolveFile(pwd, "src/test/resources/unit/archive.zip");
+        File directory = createDirectory("target/unit/archive/zip-parallel");
+
+        UnpackMethod unpackMethod = new ParallelZipUnpackMethod(2);
+        unpackMethod.unpack(file, directory);
+
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-1")), "File 1\n");
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-2")), "File 2\n");
+    }
+
+    @Test
+    public void testUnpackStoredAndDeflatedEntries() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/zip-parallel-mixed");
+        File file = new File(directory.getParentFile(), "zip-parallel-mixed.zip");
+        byte[] binary = new byte[1024 * 1024 + 17];
+        new Random(42).nextBytes(binary);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+
+        try {
+            out.putNextEntry(new ZipEntry("lib/"));
+
+            for (int i = 0; i < 50; i++) {
+
+                byte[] content = ("content of entry " + i).getBytes("UTF-8");
+                ZipEntry entry = new ZipEntry("lib/entry-" + i + ".txt");
+
+                if (i % 2 == 0) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+
+                out.putNextEntry(entry);
+                out.write(content);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            ZipEntry entry = new ZipEntry("lib/libstored.so");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(binary.length);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(binary);
+        } finally {
+            out.close();
+        }
+
+        new ParallelZipUnpackMethod(4).unpack(file, directory);
+
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(new File(directory, "lib/libstored.so").toPath()), binary));
+
+        for (int i = 0; i < 50; i++) {
+            File entry = new File(directory, "lib/entry-" + i + ".txt");
+            Assert.assertEquals(FileUtils.fileRead(entry), "content of entry " + i);
+        }
+    }
+
+    @Test
+    public void testUnpackDigestsFile() throws Exception {
+
+        File file = FileUtils.resolveFile(pwd, "src/test/resources/unit/archive.zip");
+        File directory = createDirectory("target/unit/archive/zip-parallel-digest");
+
+        FileDigest digest = new FileDigest(file, MessageDigest.getInstance("SHA-1"));
+        new ParallelZipUnpackMethod(2).unpack(file, new EntryWriter(directory), digest, null);
+
+        byte[] expected = MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(file.toPath()));
+        Assert.assertTrue(Arrays.equals(digest.finish(), expected));
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-1")), "File 1\n");
+    }
+
+    @Test
+    public void testDeferredAttributesAreAppliedOnFinish() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/zip-parallel-deferred");
+        File file = new File(directory.getParentFile(), "zip-parallel-deferred.zip");
+        long lastModified = 1346348640000L;
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                ZipEntry entry = new ZipEntry("lib/entry-" + i + ".txt");
+                entry.setTime(lastModified);
+                out.putNextEntry(entry);
+                out.write(("content of entry " + i).getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+
+        EntryWriter writer = new EntryWriter(directory);
+        writer.setDeferAttributes(true);
+        writer.setSync(true);
+        new ParallelZipUnpackMethod(4).unpack(file, writer, null);
+
+        File entry = new File(directory, "lib/entry-3.txt");
+        Assert.assertEquals(FileUtils.fileRead(entry), "content of entry 3");
+        Assert.assertTrue(entry.lastModified() != lastModified, "attributes wait for finish");
+
+        writer.finish();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(new File(directory, "lib/entry-" + i + ".txt").lastModified(), lastModified);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testUnpackRejectsEntriesOutsideOfDirectory() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/zip-parallel-evil");
+        File file = new File(directory.getParentFile(), "zip-parallel-evil.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+
+        try {
+            out.putNextEntry(new ZipEntry("../evil.txt"));
+            out.write(1);
+        } finally {
+            out.close();
+        }
+
+        new ParallelZipUnpackMethod().unpack(file, directory);
+    }
+
+    @Test
+    public void testUnpackRejectsEntriesBelowSymbolicLink() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/zip-parallel-link");
+        File outside = createDirectory("target/unit/archive/zip-parallel-link-outside");
+        File file = new File(directory.getParentFile(), "zip-parallel-link.zip");
+        ZipArchiveOutputStream out = new ZipArchiveOutputStream(file);
+
+        try {
+            ZipArchiveEntry link = new ZipArchiveEntry("evil");
+            link.setUnixMode(0120777);
+            out.putArchiveEntry(link);
+            out.write(outside.getAbsolutePath().getBytes("UTF-8"));
+            out.closeArchiveEntry();
+
+            out.putArchiveEntry(new ZipArchiveEntry("evil/pwned"));
+            out.write(1);
+            out.closeArchiveEntry();
+        } finally {
+            out.close();
+        }
+
+        // Whichever entry comes first, the other one fails.
+        try {
+            new ParallelZipUnpackMethod(2).unpack(file, directory);
+            Assert.fail("entry below symbolic link is extracted");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        Assert.assertFalse(new File(outside, "pwned").exists());
+    }
+}
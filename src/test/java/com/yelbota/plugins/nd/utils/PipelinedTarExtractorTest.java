@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PipelinedTarExtractorTest extends AbstractUnpackMethodTest {
+
+    @Test(timeOut = 30000)
+    public void testExtract() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/tar-pipelined");
+        byte[][] contents = new byte[30][];
+        Random random = new Random(42);
+
+        ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tarBytes);
+
+        for (int i = 0; i < contents.length; i++) {
+
+            // Larger than all buffers together, so the reader has to wait for writers.
+            contents[i] = new byte[i % 7 == 0 ? 300 * 1000 : random.nextInt(3 * EntryWriter.BUFFER_SIZE)];
+            random.nextBytes(contents[i]);
+            addFile(tar, "data/file-" + i, contents[i]);
+        }
+
+        addFile(tar, "data/file-1", contents[2]);
+
+        TarArchiveEntry link = new TarArchiveEntry("data/hard-link", TarArchiveEntry.LF_LINK);
+        link.setLinkName("data/file-0");
+        tar.putArchiveEntry(link);
+        tar.closeArchiveEntry();
+        tar.close();
+
+        new PipelinedTarExtractor(3, 2).extract(new ByteArrayInputStream(tarBytes.toByteArray()),
+                new EntryWriter(directory));
+
+        for (int i = 0; i < contents.length; i++) {
+
+            byte[] expected = i == 1 ? contents[2] : contents[i];
+            Assert.assertTrue(Arrays.equals(read(directory, "data/file-" + i), expected), "file-" + i);
+        }
+
+        Assert.assertTrue(Arrays.equals(read(directory, "data/hard-link"), contents[0]));
+    }
+
+    @Test(timeOut = 30000, expectedExceptions = IOException.class)
+    public void testExtractWhenWriterFails() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/tar-pipelined-failure");
+        ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tarBytes);
+
+        for (int i = 0; i < 10; i++) {
+            addFile(tar, "data/file-" + i, new byte[200 * 1000]);
+        }
+
+        tar.close();
+
+        EntryWriter writer = new EntryWriter(directory) {
+            @Override
+            public void writeFile(String name, InputStream in, int mode, long lastModified) throws IOException {
+
+                if (name.endsWith("file-3")) {
+                    throw new IOException("Disk is full");
+                }
+
+                super.writeFile(name, in, mode, lastModified);
+            }
+        };
+
+        new PipelinedTarExtractor(2, 2).extract(new ByteArrayInputStream(tarBytes.toByteArray()), writer);
+    }
+
+    @Test(timeOut = 30000)
+    public void testExtractStopsWritersWhenReadingFails() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/tar-pipelined-truncated");
+        ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tarBytes);
+
+        for (int i = 0; i < 10; i++) {
+            addFile(tar, "data/file-" + i, new byte[100 * 1000]);
+        }
+
+        tar.close();
+        final int limit = tarBytes.size() / 2;
+
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(tarBytes.toByteArray())) {
+
+            private int count;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+
+                if (count >= limit) {
+                    throw new IOException("Connection reset");
+                }
+
+                int n = super.read(b, off, Math.min(len, limit - count));
+                count += Math.max(n, 0);
+                return n;
+            }
+        };
+
+        // Slow writes which don't stop on interrupt.
+        EntryWriter writer = new EntryWriter(directory) {
+            @Override
+            public void writeFile(String name, InputStream in, int mode, long lastModified) throws IOException {
+
+                long end = System.currentTimeMillis() + 200;
+                boolean interrupted = false;
+
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+
+                super.writeFile(name, in, mode, lastModified);
+            }
+        };
+
+        try {
+            new PipelinedTarExtractor(3, 2).extract(in, writer);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertFalse(thread.getName().startsWith("tar-writer") && thread.isAlive(),
+                    thread.getName() + " is still running");
+        }
+    }
+
+    private static void addFile(TarArchiveOutputStream tar, String name, byte[] content) throws IOException {
+
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    private static byte[] read(File directory, String name) throws IOException {
+        return Files.readAllBytes(new File(directory, name).toPath());
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.maven.plugin.logging.Log;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.*;
+
+public class ProcessOutputTest {
+
+    @Test
+    public void testOutputIsSummarisedAndStatusReturned() throws Exception {
+
+        Log log = mock(Log.class);
+        ProcessOutput output = new ProcessOutput("sh", log);
+        Process process = new ProcessBuilder("sh", "-c",
+                "i=0; while [ $i -lt 100 ]; do echo line $i; i=$((i+1)); done; echo broken >&2; echo again >&2; exit 3").start();
+
+        Assert.assertEquals(output.waitFor(process), 3);
+        Assert.assertEquals(output.getErrorTail(), "broken\nagain");
+
+        verify(log, times(ProcessOutput.INFO_LINES)).info(startsWith("sh: line "));
+        verify(log).info(contains("more lines not shown"));
+        verify(log, never()).debug(anyString());
+    }
+
+    @Test
+    public void testEveryLineIsLoggedAtDebug() throws Exception {
+
+        final StringBuilder logged = new StringBuilder();
+        Log log = mock(Log.class);
+        when(log.isDebugEnabled()).thenReturn(true);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                logged.append(invocation.getArguments()[0]).append('\n');
+                return null;
+            }
+        }).when(log).debug(anyString());
+
+        ProcessOutput output = new ProcessOutput("sh", log);
+        Process process = new ProcessBuilder("sh", "-c",
+                "i=0; while [ $i -lt 1000 ]; do echo line $i; i=$((i+1)); done").start();
+
+        Assert.assertEquals(output.waitFor(process), 0);
+        Assert.assertTrue(logged.toString().contains("sh: line 999\n"));
+        Assert.assertEquals(logged.toString().split("\n").length, 1000);
+        verify(log, never()).info(anyString());
+    }
+}
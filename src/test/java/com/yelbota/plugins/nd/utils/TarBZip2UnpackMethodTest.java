@@ -15,11 +15,26 @@
  */
 package com.yelbota.plugins.nd.utils;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
 
 public class TarBZip2UnpackMethodTest extends AbstractUnpackMethodTest {
 
@@ -30,21 +45,149 @@ public class TarBZip2UnpackMethodTest extends AbstractUnpackMethodTest {
         File directory = createDirectory("target/unit/archive/tbz2");
 
         UnpackMethod unpackMethod = new TarBZip2UnpackMethod();
+        unpackMethod.unpack(file, directory);
 
-        String os = System.getProperty("os.name").toLowerCase();
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-1")), "File 1\n");
+        Assert.assertEquals(FileUtils.fileRead(new File(directory, "file-2")), "File 2\n");
+    }
 
-        if (!(os.indexOf("mac") > -1 || os.indexOf("lin") > -1)) {
+    @Test
+    public void testUnpackMultiBlockConcatenatedArchive() throws Exception {
 
-            try {
-                unpackMethod.unpack(file, directory);
-                Assert.fail("TBzip2UnpackMethod runned not on mac or linux should throws UnpackException");
-            }
-            catch (UnpackMethod.UnpackMethodException e) {
-                // Ok.
-            }
+        File directory = createDirectory("target/unit/archive/tbz2-multi-block");
+        File file = new File(directory.getParentFile(), "tbz2-multi-block.tbz2");
+        byte[] content = new byte[700 * 1000];
+        Random random = new Random(42);
+
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+
+        ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tarBytes);
+
+        TarArchiveEntry entry = new TarArchiveEntry("data/content.bin");
+        entry.setSize(content.length);
+        entry.setMode(0755);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+
+        TarArchiveEntry link = new TarArchiveEntry("data/link", TarArchiveEntry.LF_SYMLINK);
+        link.setLinkName("content.bin");
+        tar.putArchiveEntry(link);
+        tar.closeArchiveEntry();
+        tar.close();
+
+        // Two concatenated streams of 100k blocks, as produced by pbzip2.
+        byte[] archive = tarBytes.toByteArray();
+        int half = archive.length / 2;
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            BZip2CompressorOutputStream first = new BZip2CompressorOutputStream(out, 1);
+            first.write(archive, 0, half);
+            first.finish();
+
+            BZip2CompressorOutputStream second = new BZip2CompressorOutputStream(out, 1);
+            second.write(archive, half, archive.length - half);
+            second.finish();
+        } finally {
+            out.close();
+        }
+
+        InputStream in = new ParallelBZip2InputStream(new FileInputStream(file), 4);
+
+        try {
+            Assert.assertTrue(Arrays.equals(IOUtil.toByteArray(in), archive));
+        } finally {
+            in.close();
+        }
+
+        new TarBZip2UnpackMethod(4).unpack(file, directory);
+
+        File extracted = new File(directory, "data/content.bin");
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(extracted.toPath()), content));
+
+        if (!System.getProperty("os.name").toLowerCase().contains("win")) {
+            Assert.assertTrue(extracted.canExecute());
+            Assert.assertTrue(Files.isSymbolicLink(new File(directory, "data/link").toPath()));
+        }
+    }
+
+    @Test
+    public void testUnpackRejectsEntriesBelowSymbolicLink() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/tbz2-evil");
+        File outside = createDirectory("target/unit/archive/tbz2-evil-outside");
+        File file = new File(directory.getParentFile(), "tbz2-evil.tbz2");
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new BZip2CompressorOutputStream(new FileOutputStream(file)));
+
+        try {
+            TarArchiveEntry link = new TarArchiveEntry("evil", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName(outside.getAbsolutePath());
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry entry = new TarArchiveEntry("evil/pwned");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write(1);
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
         }
-        else {
-            unpackMethod.unpack(file, directory);
+
+        try {
+            new TarBZip2UnpackMethod(1).unpack(file, directory);
+            Assert.fail("entry below symbolic link is extracted");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        Assert.assertFalse(new File(outside, "pwned").exists());
+    }
+
+    @Test
+    public void testUnpackIntoReadOnlyDirectory() throws Exception {
+
+        if (System.getProperty("os.name").toLowerCase().contains("win")) {
+            return;
+        }
+
+        File directory = createDirectory("target/unit/archive/tbz2-read-only");
+        File file = new File(directory.getParentFile(), "tbz2-read-only.tbz2");
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new BZip2CompressorOutputStream(new FileOutputStream(file)));
+
+        try {
+            TarArchiveEntry readOnly = new TarArchiveEntry("d/");
+            readOnly.setMode(040555);
+            tar.putArchiveEntry(readOnly);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry entry = new TarArchiveEntry("d/f");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write('f');
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
+        }
+
+        Path readOnly = new File(directory, "d").toPath();
+
+        try {
+            new TarBZip2UnpackMethod(2).unpack(file, directory);
+
+            Assert.assertEquals(FileUtils.fileRead(new File(directory, "d/f")), "f");
+            Assert.assertEquals(Files.getPosixFilePermissions(readOnly),
+                    PosixFilePermissions.fromString("r-xr-xr-x"));
+        } finally {
+            if (Files.isDirectory(readOnly)) {
+                Files.setPosixFilePermissions(readOnly, PosixFilePermissions.fromString("rwxr-xr-x"));
+            }
         }
     }
 }
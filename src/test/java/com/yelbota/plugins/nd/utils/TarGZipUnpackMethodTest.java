@@ -15,11 +15,27 @@
  */
 package com.yelbota.plugins.nd.utils;
 
-import com.yelbota.plugins.nd.stubs.LoggerStub;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class TarGZipUnpackMethodTest extends AbstractUnpackMethodTest {
 
@@ -29,7 +45,255 @@ public class TarGZipUnpackMethodTest extends AbstractUnpackMethodTest {
         File file = FileUtils.resolveFile(new File("."), "src/test/resources/unit/archive.tgz");
         File directory = createDirectory("target/unit/archive/tgz");
 
-        UnpackMethod unpackMethod = new TarGZipUnpackMethod(new LoggerStub());
+        UnpackMethod unpackMethod = new TarGZipUnpackMethod();
         unpackMethod.unpack(file, directory);
     }
+
+    @Test
+    public void testUnpackSelectedEntries() throws Exception {
+
+        File file = FileUtils.resolveFile(new File("."), "src/test/resources/unit/archive.tgz");
+        File directory = createDirectory("target/unit/archive/tgz-selected");
+
+        SelectiveUnpackMethod unpackMethod = new TarGZipUnpackMethod();
+        unpackMethod.unpack(file, directory, new EntryFilter("*-1", null), null);
+
+        Assert.assertTrue(new File(directory, "file-1").isFile());
+        Assert.assertFalse(new File(directory, "file-2").exists());
+    }
+
+    @Test
+    public void testCheckpointsDecodeSegments() throws Exception {
+
+        File file = createArchive("target/unit/archive/tgz-checkpoints.tgz");
+        byte[] tar = decompress(file);
+
+        GzipCheckpointIndex index = GzipCheckpointIndex.build(file, 64 * 1024);
+        Assert.assertTrue(index.getCheckpoints().size() > 8);
+        Assert.assertEquals(index.getSize(), tar.length);
+
+        for (int i = 0; i < index.getCheckpoints().size(); i++) {
+
+            long position = index.getCheckpoints().get(i).getPosition();
+            byte[] segment = new byte[(int) (index.getEnd(i) - position)];
+            DataInputStream in = new DataInputStream(index.open(file, i));
+
+            try {
+                in.readFully(segment);
+            } finally {
+                in.close();
+            }
+
+            Assert.assertTrue(Arrays.equals(segment, Arrays.copyOfRange(tar, (int) position, (int) index.getEnd(i))),
+                    "segment " + i);
+        }
+    }
+
+    @Test
+    public void testUnpackWithCheckpoints() throws Exception {
+
+        File file = createArchive("target/unit/archive/tgz-parallel.tgz");
+        File sequential = createDirectory("target/unit/archive/tgz-sequential");
+        File parallel = createDirectory("target/unit/archive/tgz-parallel");
+
+        TarGZipUnpackMethod unpackMethod = new TarGZipUnpackMethod(4);
+        unpackMethod.setCheckpointSpacing(64 * 1024);
+        unpackMethod.unpack(file, new EntryWriter(sequential), null);
+
+        // Checkpoints are recorded by the first unpack.
+        GzipCheckpointIndex index = GzipCheckpointIndex.read(file);
+        Assert.assertNotNull(index);
+        Assert.assertTrue(index.getCheckpoints().size() > 1);
+
+        unpackMethod.unpack(file, new EntryWriter(parallel), null);
+        assertSameFiles(sequential, parallel);
+
+        // Failed parallel unpack would have dropped the index.
+        Assert.assertNotNull(GzipCheckpointIndex.read(file));
+
+        // Truncated index is ignored.
+        byte[] stored = Files.readAllBytes(new File(file.getPath() + ".gzi").toPath());
+        Files.write(new File(file.getPath() + ".gzi").toPath(), Arrays.copyOf(stored, stored.length / 2));
+
+        File fallback = createDirectory("target/unit/archive/tgz-fallback");
+        unpackMethod.unpack(file, new EntryWriter(fallback), null);
+        assertSameFiles(sequential, fallback);
+    }
+
+    @Test
+    public void testStreamedUnpackRecordsCheckpoints() throws Exception {
+
+        File file = createArchive("target/unit/archive/tgz-streamed.tgz");
+        File streamed = createDirectory("target/unit/archive/tgz-streamed");
+        File parallel = createDirectory("target/unit/archive/tgz-streamed-parallel");
+
+        TarGZipUnpackMethod unpackMethod = new TarGZipUnpackMethod(4);
+        unpackMethod.setCheckpointSpacing(64 * 1024);
+        InputStream in = new FileInputStream(file);
+        GzipCheckpointIndex checkpoints;
+
+        try {
+            checkpoints = unpackMethod.unpackCheckpointed(in, new EntryWriter(streamed), null);
+        } finally {
+            in.close();
+        }
+
+        Assert.assertNotNull(checkpoints);
+        checkpoints.write(file);
+
+        GzipCheckpointIndex index = GzipCheckpointIndex.read(file);
+        Assert.assertNotNull(index);
+        Assert.assertEquals(index.getCheckpoints().size(), checkpoints.getCheckpoints().size());
+
+        unpackMethod.unpack(file, new EntryWriter(parallel), null);
+        assertSameFiles(streamed, parallel);
+    }
+
+    @Test
+    public void testUnpackMultiMemberArchive() throws Exception {
+
+        File single = createArchive("target/unit/archive/tgz-single-member.tgz");
+        byte[] tar = decompress(single);
+        File file = new File(single.getParentFile(), "tgz-multi-member.tgz");
+        GzipCheckpointIndex.delete(file);
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            GZIPOutputStream first = new GZIPOutputStream(out);
+            first.write(tar, 0, tar.length / 2);
+            first.finish();
+
+            GZIPOutputStream second = new GZIPOutputStream(out);
+            second.write(tar, tar.length / 2, tar.length - tar.length / 2);
+            second.finish();
+        } finally {
+            out.close();
+        }
+
+        File expected = createDirectory("target/unit/archive/tgz-single-member");
+        File directory = createDirectory("target/unit/archive/tgz-multi-member");
+        new TarGZipUnpackMethod(1).unpack(single, new EntryWriter(expected), null);
+
+        TarGZipUnpackMethod unpackMethod = new TarGZipUnpackMethod(4);
+        unpackMethod.setCheckpointSpacing(64 * 1024);
+        unpackMethod.unpack(file, new EntryWriter(directory), null);
+
+        assertSameFiles(expected, directory);
+        Assert.assertNull(GzipCheckpointIndex.read(file));
+    }
+
+    @Test
+    public void testParallelUnpackDigestsFile() throws Exception {
+
+        File file = createArchive("target/unit/archive/tgz-digest.tgz");
+        GzipCheckpointIndex.build(file, 64 * 1024).write(file);
+
+        TarGZipUnpackMethod unpackMethod = new TarGZipUnpackMethod(4);
+        FileDigest digest = new FileDigest(file, MessageDigest.getInstance("SHA-1"));
+        unpackMethod.unpack(file, new EntryWriter(createDirectory("target/unit/archive/tgz-digest")), digest, null);
+
+        byte[] expected = MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(file.toPath()));
+        Assert.assertTrue(Arrays.equals(digest.finish(), expected));
+        Assert.assertTrue(digest.getReadBytes() < file.length(), "segments are digested as they are read");
+    }
+
+    @Test
+    public void testUnpackRejectsEntriesBelowSymbolicLink() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/tgz-evil");
+        File outside = createDirectory("target/unit/archive/tgz-evil-outside");
+        File file = new File(directory.getParentFile(), "tgz-evil.tgz");
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+
+        try {
+            TarArchiveEntry link = new TarArchiveEntry("evil", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName(outside.getAbsolutePath());
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry entry = new TarArchiveEntry("evil/pwned");
+            entry.setSize(1);
+            tar.putArchiveEntry(entry);
+            tar.write(1);
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
+        }
+
+        try {
+            new TarGZipUnpackMethod(4).unpack(file, directory);
+            Assert.fail("entry below symbolic link is extracted");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        Assert.assertFalse(new File(outside, "pwned").exists());
+    }
+
+    private File createArchive(String path) throws Exception {
+
+        File file = FileUtils.resolveFile(pwd, path);
+        file.getParentFile().mkdirs();
+        GzipCheckpointIndex.delete(file);
+
+        Random random = new Random(42);
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+
+        try {
+            for (int i = 0; i < 40; i++) {
+
+                // Random data makes stored deflate blocks, text makes huffman ones.
+                byte[] content = new byte[i % 10 == 9 ? 400 * 1000 : random.nextInt(40 * 1000)];
+
+                if (i % 3 == 0) {
+                    random.nextBytes(content);
+                } else {
+                    for (int j = 0; j < content.length; j++) {
+                        content[j] = (byte) ("native dependency\n".charAt(random.nextInt(18)));
+                    }
+                }
+
+                TarArchiveEntry entry = new TarArchiveEntry("data/file-" + i);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+
+            TarArchiveEntry link = new TarArchiveEntry("data/link", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName("file-0");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
+        }
+
+        return file;
+    }
+
+    private static byte[] decompress(File file) throws Exception {
+
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtil.copy(in, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws Exception {
+
+        for (int i = 0; i < 40; i++) {
+
+            String name = "data/file-" + i;
+            Assert.assertTrue(Arrays.equals(Files.readAllBytes(new File(actual, name).toPath()),
+                    Files.readAllBytes(new File(expected, name).toPath())), name);
+        }
+
+        Assert.assertTrue(Files.isSymbolicLink(new File(actual, "data/link").toPath()));
+    }
 }
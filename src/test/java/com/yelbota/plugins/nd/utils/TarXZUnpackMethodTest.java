@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.codehaus.plexus.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TarXZUnpackMethodTest extends AbstractUnpackMethodTest {
+
+    @Test
+    public void testUnpackMultiBlockArchive() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/txz-multi-block");
+        File file = new File(directory.getParentFile(), "txz-multi-block.txz");
+        byte[] content = new byte[700 * 1000];
+        new Random(42).nextBytes(content);
+
+        ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(tarBytes);
+
+        TarArchiveEntry entry = new TarArchiveEntry("data/content.bin");
+        entry.setSize(content.length);
+        entry.setMode(0755);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+        tar.close();
+
+        // Independent blocks of 100k, as written by `xz -T`.
+        byte[] archive = tarBytes.toByteArray();
+        XZOutputStream out = new XZOutputStream(new FileOutputStream(file), new LZMA2Options(1));
+
+        try {
+            for (int offset = 0; offset < archive.length; offset += 100 * 1000) {
+                out.write(archive, offset, Math.min(100 * 1000, archive.length - offset));
+                out.endBlock();
+            }
+        } finally {
+            out.close();
+        }
+
+        InputStream in = new ParallelXZInputStream(file, 4);
+
+        try {
+            Assert.assertTrue(Arrays.equals(IOUtil.toByteArray(in), archive));
+        } finally {
+            in.close();
+        }
+
+        InputStream opened = ParallelXZInputStream.open(file, 4);
+        Assert.assertTrue(opened instanceof ParallelXZInputStream, "blocks are decoded in parallel");
+        opened.close();
+
+        new TarXZUnpackMethod(4).unpack(file, directory);
+
+        File extracted = new File(directory, "data/content.bin");
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(extracted.toPath()), content));
+
+        File streamed = createDirectory("target/unit/archive/txz-streamed");
+        InputStream stream = new FileInputStream(file);
+
+        try {
+            new TarXZUnpackMethod(4).unpack(stream, new EntryWriter(streamed), null);
+        } finally {
+            stream.close();
+        }
+
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(new File(streamed, "data/content.bin").toPath()), content));
+    }
+
+    @Test
+    public void testUnpackSingleBlockArchive() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/txz-single-block");
+        File file = new File(directory.getParentFile(), "txz-single-block.txz");
+        byte[] content = new byte[300 * 1000];
+        new Random(3).nextBytes(content);
+
+        // Plain `xz` writes one block.
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new XZOutputStream(new FileOutputStream(file), new LZMA2Options(1)));
+
+        try {
+            TarArchiveEntry entry = new TarArchiveEntry("data/content.bin");
+            entry.setSize(content.length);
+            tar.putArchiveEntry(entry);
+            tar.write(content);
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
+        }
+
+        InputStream opened = ParallelXZInputStream.open(file, 4);
+        Assert.assertFalse(opened instanceof ParallelXZInputStream, "single block is streamed");
+        opened.close();
+
+        new TarXZUnpackMethod(4).unpack(file, directory);
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(new File(directory, "data/content.bin").toPath()), content));
+    }
+
+    @Test
+    public void testExtractIndexedEntry() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/txz-indexed");
+        File file = new File(directory.getParentFile(), "txz-indexed.txz");
+        byte[] head = new byte[300 * 1000];
+        new Random(7).nextBytes(head);
+        byte[] tail = "tail".getBytes("UTF-8");
+
+        XZOutputStream out = new XZOutputStream(new FileOutputStream(file), new LZMA2Options(1));
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+
+        try {
+            TarArchiveEntry entry = new TarArchiveEntry("data/head.bin");
+            entry.setSize(head.length);
+            tar.putArchiveEntry(entry);
+            tar.write(head);
+            tar.closeArchiveEntry();
+            out.endBlock();
+
+            entry = new TarArchiveEntry("data/tail.txt");
+            entry.setSize(tail.length);
+            tar.putArchiveEntry(entry);
+            tar.write(tail);
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
+        }
+
+        TarXZUnpackMethod unpackMethod = new TarXZUnpackMethod(2);
+        ArchiveIndex index = unpackMethod.index(file);
+
+        Assert.assertEquals(index.getEntries().size(), 2);
+        Assert.assertEquals(index.get("data/tail.txt").getSize(), tail.length);
+
+        unpackMethod.extract(file, Arrays.asList(index.get("data/tail.txt")), new EntryWriter(directory));
+
+        Assert.assertEquals(Files.readAllBytes(new File(directory, "data/tail.txt").toPath()), tail);
+        Assert.assertFalse(new File(directory, "data/head.bin").exists());
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2012 https://github.com/yelbota/native-dependency-maven-plugin-base
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yelbota.plugins.nd.utils;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TarZstdUnpackMethodTest extends AbstractUnpackMethodTest {
+
+    @Test
+    public void testUnpackLongWindowArchive() throws Exception {
+
+        File directory = createDirectory("target/unit/archive/tzst");
+        File file = new File(directory.getParentFile(), "archive.tzst");
+        byte[] content = new byte[300 * 1000];
+        new Random(42).nextBytes(content);
+
+        ZstdOutputStream zstd = new ZstdOutputStream(new FileOutputStream(file), 3);
+        zstd.setLong(27);
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(zstd);
+
+        try {
+            TarArchiveEntry entry = new TarArchiveEntry("lib/lib.so");
+            entry.setSize(content.length);
+            entry.setMode(0755);
+            tar.putArchiveEntry(entry);
+            tar.write(content);
+            tar.closeArchiveEntry();
+
+            TarArchiveEntry link = new TarArchiveEntry("lib/lib.so.1", TarArchiveEntry.LF_SYMLINK);
+            link.setLinkName("lib.so");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+        } finally {
+            tar.close();
+        }
+
+        new TarZstdUnpackMethod().unpack(file, directory);
+
+        File extracted = new File(directory, "lib/lib.so");
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(extracted.toPath()), content));
+
+        if (!System.getProperty("os.name").toLowerCase().contains("win")) {
+            Assert.assertTrue(extracted.canExecute());
+            Assert.assertTrue(Files.isSymbolicLink(new File(directory, "lib/lib.so.1").toPath()));
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.yelbota.plugins.nd.utils;
 
 import com.yelbota.plugins.nd.stubs.LoggerStub;
 import org.codehaus.plexus.util.FileUtils;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.File;
@@ -32,4 +33,17 @@ public class ZipUnpackMethodTest extends AbstractUnpackMethodTest {
         UnpackMethod unpackMethod = new ZipUnpackMethod(new LoggerStub());
         unpackMethod.unpack(file, directory);
     }
+
+    @Test
+    public void testUnpackSelectedEntries() throws Exception {
+
+        File file = FileUtils.resolveFile(new File("."), "src/test/resources/unit/archive.zip");
+        File directory = createDirectory("target/unit/archive/zip-selected");
+
+        SelectiveUnpackMethod unpackMethod = new ZipUnpackMethod(new LoggerStub());
+        unpackMethod.unpack(file, directory, new EntryFilter("*-1", null), null);
+
+        Assert.assertTrue(new File(directory, "file-1").isFile());
+        Assert.assertFalse(new File(directory, "file-2").exists());
+    }
 }